@@ -0,0 +1,405 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Detects sensor faults and unusual readings per channel as readings are decoded, and notifies each meter's EventListeners of them.
+ *
+ * <p>
+ * Each channel of each meter keeps O(1) state: an exponentially weighted moving average (EWMA) of the mean and variance, the last value, and the
+ * run length of identical values. Each reading is checked for:
+ * <ul>
+ * <li>{@link Anomaly#JUMP} - a change from the last value larger than is physically possible between readings.</li>
+ * <li>{@link Anomaly#OUTLIER} - a value too many standard deviations from the EWMA mean (i.e. a sudden CO2 spike).</li>
+ * <li>{@link Anomaly#STUCK} - the same value for too many readings in a row (i.e. a frozen sensor). Reported once per run.</li>
+ * <li>{@link Anomaly#DRIFT} - an EWMA mean too far from the mean of the other meters in the same group. Reported once until it recovers.</li>
+ * </ul>
+ * <p>
+ * Drift is checked in O(1) per reading by keeping a running sum of the EWMA means of each group.
+ *
+ * @author Darian Cabot
+ */
+public final class AnomalyDetector
+{
+    private static final Channel[] CHANNELS = Channel.values();
+
+    private final Map<ExtechCO250, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final LongAdder[] counts = new LongAdder[Anomaly.values().length];
+
+    // Per channel limits, in the order of Channel.
+    private final double[] jumpLimits =
+    {
+        500, 5, 20, 5, 5
+    };
+    private final double[] driftLimits =
+    {
+        300, 3, 15, 3, 3
+    };
+    private final int[] stuckReadings =
+    {
+        1200, 7200, 7200, 7200, 7200
+    };
+
+    private volatile double smoothing = 0.01;
+    private volatile double zScoreLimit = 6;
+    private volatile int warmUpReadings = 100;
+
+
+    /**
+     * The kinds of anomaly detected.
+     */
+    public enum Anomaly
+    {
+        JUMP, OUTLIER, STUCK, DRIFT
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public AnomalyDetector()
+    {
+        for (int i = 0; i < counts.length; i ++)
+        {
+            counts[i] = new LongAdder();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts checking the readings of a meter.
+     *
+     * @param device the meter
+     * @param group  the name of the group of nearby meters to compare with for drift (i.e. a room), or null to not check for drift
+     */
+    public synchronized void register(ExtechCO250 device, String group)
+    {
+        if ( ! members.containsKey(device))
+        {
+            Member member = new Member(device, (group == null) ? null : groups.computeIfAbsent(group, name -> new Group()));
+            members.put(device, member);
+            device.addEventListener(member);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops checking the readings of a meter, and removes it from its group.
+     *
+     * @param device the meter
+     */
+    public synchronized void unregister(ExtechCO250 device)
+    {
+        Member member = members.remove(device);
+
+        if (member != null)
+        {
+            device.removeEventListener(member);
+
+            if (member.group != null)
+            {
+                member.group.leave(member);
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the largest possible change of a channel between consecutive readings. Larger changes are reported as {@link Anomaly#JUMP}.
+     *
+     * @param channel the channel
+     * @param limit   the limit, in the channel's unit (defaults: CO2 500ppm, temperatures 5 degrees, RH 20%)
+     */
+    public void setJumpLimit(Channel channel, double limit)
+    {
+        jumpLimits[channel.ordinal()] = limit;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how far a channel's EWMA mean may be from the mean of the other meters in its group before it is reported as {@link Anomaly#DRIFT}.
+     *
+     * @param channel the channel
+     * @param limit   the limit, in the channel's unit (defaults: CO2 300ppm, temperatures 3 degrees, RH 15%)
+     */
+    public void setDriftLimit(Channel channel, double limit)
+    {
+        driftLimits[channel.ordinal()] = limit;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how many identical readings in a row of a channel are reported as {@link Anomaly#STUCK}.
+     *
+     * @param channel  the channel
+     * @param readings the number of readings, or 0 to disable (defaults: CO2 1200 (10 minutes at 2Hz), others 7200 (1 hour))
+     */
+    public void setStuckReadings(Channel channel, int readings)
+    {
+        stuckReadings[channel.ordinal()] = readings;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the number of standard deviations from the EWMA mean reported as {@link Anomaly#OUTLIER}.
+     *
+     * @param limit the number of standard deviations (default 6)
+     */
+    public void setZScoreLimit(double limit)
+    {
+        this.zScoreLimit = limit;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the EWMA smoothing factor, the weight given to each new reading.
+     *
+     * @param smoothing the smoothing factor, between 0 and 1 (default 0.01, which averages over roughly the last 100 readings)
+     */
+    public void setSmoothing(double smoothing)
+    {
+        if ( ! ((smoothing > 0) && (smoothing <= 1)))
+        {
+            throw new IllegalArgumentException("Smoothing must be greater than 0 and at most 1.");
+        }
+
+        this.smoothing = smoothing;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the number of readings of a channel before outliers and drift are checked, while the EWMA settles.
+     *
+     * @param readings the number of readings (default 100)
+     */
+    public void setWarmUpReadings(int readings)
+    {
+        this.warmUpReadings = readings;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of anomalies of a kind detected across all meters.
+     *
+     * @param anomaly the kind of anomaly
+     *
+     * @return the number of anomalies.
+     */
+    public long getAnomalyCount(Anomaly anomaly)
+    {
+        return counts[anomaly.ordinal()].sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The running sum of the EWMA means of a group's meters, per channel.
+     */
+    private static final class Group
+    {
+        private final double[] sums = new double[CHANNELS.length];
+        private final int[] sizes = new int[CHANNELS.length];
+
+
+        /**
+         * Updates a member's contribution, and gets the mean of the other members.
+         *
+         * @return the mean of the other members, or NaN if there are none.
+         */
+        synchronized double update(Member member, int c, double mean)
+        {
+            if (member.contributing[c])
+            {
+                sums[c] += mean - member.contributions[c];
+            }
+            else
+            {
+                sums[c] += mean;
+                sizes[c] ++;
+                member.contributing[c] = true;
+            }
+
+            member.contributions[c] = mean;
+
+            return (sizes[c] < 2) ? Double.NaN : (sums[c] - mean) / (sizes[c] - 1);
+        }
+
+
+        synchronized void leave(Member member)
+        {
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                if (member.contributing[c])
+                {
+                    sums[c] -= member.contributions[c];
+                    sizes[c] --;
+                    member.contributing[c] = false;
+                }
+            }
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A registered meter, checking each reading as it is decoded. Readings of one meter are decoded on one thread at a time.
+     */
+    private final class Member implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final Group group;
+
+        private final double[] means = new double[CHANNELS.length];
+        private final double[] variances = new double[CHANNELS.length];
+        private final double[] lastValues = new double[CHANNELS.length];
+        private final long[] readings = new long[CHANNELS.length];
+        private final int[] runLengths = new int[CHANNELS.length];
+        private final boolean[] stuck = new boolean[CHANNELS.length];
+        private final boolean[] drifting = new boolean[CHANNELS.length];
+
+        // Guarded by the group.
+        private final double[] contributions = new double[CHANNELS.length];
+        private final boolean[] contributing = new boolean[CHANNELS.length];
+
+
+        Member(ExtechCO250 device, Group group)
+        {
+            this.device = device;
+            this.group = group;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            for (Channel channel : CHANNELS)
+            {
+                Double value = device.data.getValue(channel).getValueDouble();
+
+                if (value != null)
+                {
+                    check(channel, value);
+                }
+            }
+        }
+
+
+        private void check(Channel channel, double value)
+        {
+            int c = channel.ordinal();
+
+            if (readings[c] ++ == 0)
+            {
+                means[c] = value;
+                variances[c] = 0;
+                lastValues[c] = value;
+                runLengths[c] = 1;
+                return;
+            }
+
+            // Impossible jump, else outlier.
+            if (Math.abs(value - lastValues[c]) > jumpLimits[c])
+            {
+                report(channel, Anomaly.JUMP, value);
+            }
+            else if ((readings[c] > warmUpReadings) && (variances[c] > 0) && (Math.abs(value - means[c]) > zScoreLimit * Math.sqrt(variances[c])))
+            {
+                report(channel, Anomaly.OUTLIER, value);
+            }
+
+            // Stuck sensor.
+            if (value == lastValues[c])
+            {
+                runLengths[c] ++;
+
+                if (( ! stuck[c]) && (stuckReadings[c] > 0) && (runLengths[c] >= stuckReadings[c]))
+                {
+                    stuck[c] = true;
+                    report(channel, Anomaly.STUCK, value);
+                }
+            }
+            else
+            {
+                runLengths[c] = 1;
+                stuck[c] = false;
+            }
+
+            lastValues[c] = value;
+
+            // EWMA mean and variance.
+            double difference = value - means[c];
+            double increment = smoothing * difference;
+            means[c] += increment;
+            variances[c] = (1 - smoothing) * (variances[c] + difference * increment);
+
+            // Drift from the rest of the group, with hysteresis so it is reported once.
+            if ((group != null) && (readings[c] > warmUpReadings))
+            {
+                double others = group.update(this, c, means[c]);
+
+                if ( ! Double.isNaN(others))
+                {
+                    double deviation = Math.abs(means[c] - others);
+
+                    if (( ! drifting[c]) && (deviation > driftLimits[c]))
+                    {
+                        drifting[c] = true;
+                        report(channel, Anomaly.DRIFT, value);
+                    }
+                    else if (drifting[c] && (deviation < driftLimits[c] / 2))
+                    {
+                        drifting[c] = false;
+                    }
+                }
+            }
+        }
+
+
+        private void report(Channel channel, Anomaly anomaly, double value)
+        {
+            counts[anomaly.ordinal()].increment();
+            device.getDecoder().notifyEventListeners(listener -> listener.anomalyEvent(channel, anomaly, value));
+        }
+
+    }
+
+}
@@ -0,0 +1,454 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import com.dariancabot.extechco250.Data.Value.Statistics;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Reprocesses raw serial capture files through the {@link Decoder}, decoding chunks of the file in parallel on a fork/join pool.
+ *
+ * <p>
+ * The file is split into chunks at packet boundaries, each chunk is framed and decoded independently into its own {@link Data}, and the statistics
+ * of the chunks are then added together. Memory use does not grow with the file size. The same packets are found as by a single
+ * {@link PacketFramer} and Decoder over the whole file, and the sample count, minimum, maximum, and average are identical to decoding the file
+ * sequentially into one Data, for any chunk size and parallelism (the statistics sum the fixed-point readings exactly, so the order does not matter).
+ * The time-based statistics are not reprocessed, as a capture has no timing.
+ *
+ * <p>
+ * A chunk boundary is placed after the second of two CR/LF line breaks separated by at most {@link #SYNC_LINE_LENGTH} bytes. Whatever the framer
+ * state before the first line break, it can't overflow before the second, so it is always empty at the boundary; this keeps framing identical even
+ * across corrupt data.
+ *
+ * @author Darian Cabot
+ */
+public final class CaptureReprocessor
+{
+    /**
+     * The default chunk size in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The maximum length of the line between the two line breaks of a chunk boundary.
+     */
+    static final int SYNC_LINE_LENGTH = PacketFramer.PACKET_LENGTH - 3;
+
+    private static final Channel[] CHANNELS = Channel.values();
+    private static final int SCAN_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+
+    /**
+     * The results of reprocessing a capture file.
+     */
+    public static final class Result
+    {
+        private final Data data = new Data();
+        private long packets;
+        private long errors;
+
+
+        private Result()
+        {
+            for (Data.Value value : data.getValues())
+            {
+                value.statistics.setEnabled(true);
+            }
+        }
+
+
+        /**
+         * Gets the number of packets framed, including preambles and packets that failed to decode.
+         *
+         * @return the number of packets.
+         */
+        public long getPackets()
+        {
+            return packets;
+        }
+
+
+        /**
+         * Gets the number of packets that failed to decode (i.e. invalid checksum).
+         *
+         * @return the number of errors.
+         */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+
+        /**
+         * Gets the statistics of a channel over the whole file.
+         *
+         * @param channel the channel
+         *
+         * @return the Statistics.
+         */
+        public Statistics getStatistics(Channel channel)
+        {
+            return data.getValue(channel).statistics;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Uses the common fork/join pool and the default chunk size.
+     */
+    public CaptureReprocessor()
+    {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param pool      the fork/join pool used to decode chunks
+     * @param chunkSize the target chunk size in bytes
+     */
+    public CaptureReprocessor(ForkJoinPool pool, int chunkSize)
+    {
+        if (chunkSize < SCAN_SIZE)
+        {
+            throw new IllegalArgumentException("Chunk size must be at least " + SCAN_SIZE + " bytes.");
+        }
+
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reprocesses a capture file in parallel.
+     *
+     * @param capture the raw serial capture file
+     *
+     * @return the Result.
+     *
+     * @throws IOException if the file can't be read.
+     */
+    public Result reprocess(Path capture) throws IOException
+    {
+        Result result = new Result();
+
+        try (FileChannel file = FileChannel.open(capture, StandardOpenOption.READ))
+        {
+            long[] boundaries = findBoundaries(file);
+
+            // Decode a limited number of chunks at a time, so memory use does not grow with the file size.
+            int batchSize = Math.max(1, pool.getParallelism() * 4);
+
+            for (int first = 0; first < boundaries.length - 1; first += batchSize)
+            {
+                int count = Math.min(batchSize, boundaries.length - 1 - first);
+                Chunk[] chunks = new Chunk[count];
+
+                for (int i = 0; i < count; i ++)
+                {
+                    chunks[i] = new Chunk(file, boundaries[first + i], boundaries[first + i + 1]);
+                }
+
+                try
+                {
+                    pool.invoke(new DecodeTask(chunks, 0, count));
+                }
+                catch (UncheckedIOException ex)
+                {
+                    throw ex.getCause();
+                }
+
+                for (Chunk chunk : chunks)
+                {
+                    chunk.mergeInto(result);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reprocesses a capture file on the calling thread, as a single chunk.
+     *
+     * @param capture the raw serial capture file
+     *
+     * @return the Result.
+     *
+     * @throws IOException if the file can't be read.
+     */
+    public static Result reprocessSequentially(Path capture) throws IOException
+    {
+        Result result = new Result();
+
+        try (FileChannel file = FileChannel.open(capture, StandardOpenOption.READ))
+        {
+            Chunk chunk = new Chunk(file, 0, file.size());
+            chunk.decode();
+            chunk.mergeInto(result);
+        }
+
+        return result;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the chunk boundaries, roughly every chunk size bytes.
+     *
+     * @return the file offsets of the start of each chunk, followed by the file size.
+     */
+    private long[] findBoundaries(FileChannel file) throws IOException
+    {
+        long size = file.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+
+        ByteBuffer window = ByteBuffer.allocate(SCAN_SIZE);
+        long target = chunkSize;
+
+        while (target < size)
+        {
+            long boundary = findSyncPoint(file, window, target, size);
+
+            if (boundary < 0)
+            {
+                break;
+            }
+
+            boundaries.add(boundary);
+            target = boundary + chunkSize;
+        }
+
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+
+        for (int i = 0; i < result.length; i ++)
+        {
+            result[i] = boundaries.get(i);
+        }
+
+        return result;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the first sync point (just after two nearby line breaks) at or after a file offset.
+     *
+     * @return the file offset of the sync point, or -1 if there is none.
+     */
+    private static long findSyncPoint(FileChannel file, ByteBuffer window, long from, long size) throws IOException
+    {
+        long previousLineEnd = -1;
+        byte previous = 0;
+        long position = from;
+
+        while (position < size)
+        {
+            window.clear();
+            int read = file.read(window, position);
+
+            if (read <= 0)
+            {
+                break;
+            }
+
+            for (int i = 0; i < read; i ++)
+            {
+                byte b = window.get(i);
+
+                if ((previous == PacketFramer.PACKET_END_BYTE_1) && (b == PacketFramer.PACKET_END_BYTE_2))
+                {
+                    long lineEnd = position + i + 1;
+
+                    // The line between the two breaks excludes the two line break bytes.
+                    if ((previousLineEnd >= 0) && (lineEnd - 2 - previousLineEnd <= SYNC_LINE_LENGTH))
+                    {
+                        return (lineEnd < size) ? lineEnd : -1;
+                    }
+
+                    previousLineEnd = lineEnd;
+                }
+
+                previous = b;
+            }
+
+            position += read;
+        }
+
+        return -1;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a range of chunks, splitting large ranges in two.
+     */
+    private static final class DecodeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+
+        DecodeTask(Chunk[] chunks, int from, int to)
+        {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                try
+                {
+                    chunks[from].decode();
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(chunks, from, middle), new DecodeTask(chunks, middle, to));
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A range of the capture file, decoded with its own PacketFramer, Decoder, and Data.
+     */
+    private static final class Chunk
+    {
+        private final FileChannel file;
+        private final long start;
+        private final long end;
+
+        private final Data data = new Data();
+        private long packets;
+        private long errors;
+
+
+        Chunk(FileChannel file, long start, long end)
+        {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+
+            data.setClock(() -> 0L); // A capture has no timing.
+
+            for (Data.Value value : data.getValues())
+            {
+                value.statistics.setEnabled(true);
+            }
+        }
+
+
+        void decode() throws IOException
+        {
+            Decoder decoder = new Decoder(data);
+            PacketFramer framer = new PacketFramer(packet ->
+            {
+                packets ++;
+
+                try
+                {
+                    decoder.decodePacket(packet);
+                }
+                catch (RuntimeException ex)
+                {
+                    // Invalid checksum or malformed packet; values decoded before the failure are kept, as on a live connection.
+                    errors ++;
+                }
+            });
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end - start, 1024 * 1024));
+            long position = start;
+
+            while (position < end)
+            {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+                int read = file.read(buffer, position);
+
+                if (read < 0)
+                {
+                    throw new IOException("Unexpected end of capture file.");
+                }
+
+                framer.accept(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+
+
+        void mergeInto(Result result)
+        {
+            result.packets += packets;
+            result.errors += errors;
+
+            for (Channel channel : CHANNELS)
+            {
+                result.getStatistics(channel).addAll(data.getValue(channel).statistics);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,542 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Scans a columnar chunk file written by {@link ColumnarWriter}, with predicate pushdown.
+ *
+ * <p>
+ * The zone maps of all chunks are read when the file is opened. A scan skips any chunk whose zone maps show it can't match, counts a chunk without
+ * reading it when every reading must match, and otherwise reads only the columns it needs. For example, counting readings with CO2 over 1000ppm reads
+ * just the CO2 column of the chunks that reach over 1000ppm.
+ *
+ * @author Darian Cabot
+ */
+public final class ColumnarScanner implements Closeable
+{
+    private static final Channel[] CHANNELS = ColumnarWriter.CHANNELS;
+
+    private final FileChannel file;
+
+    private final int chunks;
+    private final long[] offsets;
+    private final int[] counts;
+    private final long[] minTimes;
+    private final long[] maxTimes;
+    private final double[][] mins;
+    private final double[][] maxs;
+    private final int[][] nanCounts;
+    private final long readingCount;
+
+    private final long[] times;
+    private final double[][] columns;
+    private final ByteBuffer readBuffer;
+    private final double[] values = new double[CHANNELS.length];
+
+    private long chunksRead;
+
+
+    /**
+     * A conjunction of value ranges on channels. A channel without a range matches any value, including NaN; a channel with a range never matches
+     * NaN.
+     */
+    public static final class Predicate
+    {
+        private final double[] lower = new double[CHANNELS.length];
+        private final double[] upper = new double[CHANNELS.length];
+        private final boolean[] constrained = new boolean[CHANNELS.length];
+
+
+        private Predicate()
+        {
+            Arrays.fill(lower, Double.NEGATIVE_INFINITY);
+            Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        }
+
+
+        /**
+         * Gets a Predicate that matches every reading.
+         *
+         * @return the Predicate.
+         */
+        public static Predicate all()
+        {
+            return new Predicate();
+        }
+
+
+        /**
+         * Gets a Predicate that matches a channel value between two values (inclusive).
+         *
+         * @param channel the channel
+         * @param min     the minimum value
+         * @param max     the maximum value
+         *
+         * @return the Predicate.
+         */
+        public static Predicate between(Channel channel, double min, double max)
+        {
+            return all().and(channel, min, max);
+        }
+
+
+        /**
+         * Gets a Predicate that matches a channel value greater than a value.
+         *
+         * @param channel the channel
+         * @param value   the value
+         *
+         * @return the Predicate.
+         */
+        public static Predicate greaterThan(Channel channel, double value)
+        {
+            return between(channel, Math.nextUp(value), Double.POSITIVE_INFINITY);
+        }
+
+
+        /**
+         * Gets a Predicate that matches a channel value less than a value.
+         *
+         * @param channel the channel
+         * @param value   the value
+         *
+         * @return the Predicate.
+         */
+        public static Predicate lessThan(Channel channel, double value)
+        {
+            return between(channel, Double.NEGATIVE_INFINITY, Math.nextDown(value));
+        }
+
+
+        /**
+         * Gets a Predicate that also requires a channel value between two values (inclusive).
+         *
+         * @param channel the channel
+         * @param min     the minimum value
+         * @param max     the maximum value
+         *
+         * @return a new Predicate.
+         */
+        public Predicate and(Channel channel, double min, double max)
+        {
+            Predicate predicate = new Predicate();
+            System.arraycopy(lower, 0, predicate.lower, 0, lower.length);
+            System.arraycopy(upper, 0, predicate.upper, 0, upper.length);
+            System.arraycopy(constrained, 0, predicate.constrained, 0, constrained.length);
+
+            int c = channel.ordinal();
+            predicate.lower[c] = Math.max(lower[c], min);
+            predicate.upper[c] = Math.min(upper[c], max);
+            predicate.constrained[c] = true;
+
+            return predicate;
+        }
+
+
+        /**
+         * Gets a Predicate that requires both this and another Predicate.
+         *
+         * @param other the other Predicate
+         *
+         * @return a new Predicate.
+         */
+        public Predicate and(Predicate other)
+        {
+            Predicate predicate = this;
+
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                if (other.constrained[c])
+                {
+                    predicate = predicate.and(CHANNELS[c], other.lower[c], other.upper[c]);
+                }
+            }
+
+            return predicate;
+        }
+
+
+        boolean matches(int channel, double value)
+        {
+            return ( ! constrained[channel]) || ((value >= lower[channel]) && (value <= upper[channel]));
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a columnar chunk file and reads its zone maps.
+     *
+     * @param path the file path
+     *
+     * @throws IOException if the file could not be read, or is not a columnar chunk file.
+     */
+    public ColumnarScanner(Path path) throws IOException
+    {
+        file = FileChannel.open(path, StandardOpenOption.READ);
+
+        try
+        {
+            long size = file.size();
+
+            if (size < ColumnarWriter.TRAILER_SIZE)
+            {
+                throw new IOException("Not a columnar chunk file.");
+            }
+
+            ByteBuffer trailer = readFully(size - ColumnarWriter.TRAILER_SIZE, ColumnarWriter.TRAILER_SIZE);
+            chunks = trailer.getInt();
+            long footerOffset = trailer.getLong();
+
+            if ((trailer.getInt() != ColumnarWriter.MAGIC) || (chunks < 0)
+                    || (footerOffset + (long) chunks * ColumnarWriter.ZONE_MAP_SIZE != size - ColumnarWriter.TRAILER_SIZE))
+            {
+                throw new IOException("Not a columnar chunk file.");
+            }
+
+            offsets = new long[chunks];
+            counts = new int[chunks];
+            minTimes = new long[chunks];
+            maxTimes = new long[chunks];
+            mins = new double[CHANNELS.length][chunks];
+            maxs = new double[CHANNELS.length][chunks];
+            nanCounts = new int[CHANNELS.length][chunks];
+
+            ByteBuffer footer = readFully(footerOffset, chunks * ColumnarWriter.ZONE_MAP_SIZE);
+            long total = 0;
+            int maxCount = 0;
+
+            for (int i = 0; i < chunks; i ++)
+            {
+                offsets[i] = footer.getLong();
+                counts[i] = footer.getInt();
+                minTimes[i] = footer.getLong();
+                maxTimes[i] = footer.getLong();
+
+                for (int c = 0; c < CHANNELS.length; c ++)
+                {
+                    mins[c][i] = footer.getDouble();
+                    maxs[c][i] = footer.getDouble();
+                    nanCounts[c][i] = footer.getInt();
+                }
+
+                total += counts[i];
+                maxCount = Math.max(maxCount, counts[i]);
+            }
+
+            readingCount = total;
+            times = new long[maxCount];
+            columns = new double[CHANNELS.length][maxCount];
+            readBuffer = ByteBuffer.allocate(maxCount * Long.BYTES);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            file.close();
+            throw ex;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Counts the readings in a time range that match a Predicate.
+     *
+     * @param from      the start of the range (inclusive) in milliseconds since the epoch
+     * @param to        the end of the range (exclusive) in milliseconds since the epoch
+     * @param predicate the Predicate
+     *
+     * @return the number of matching readings.
+     *
+     * @throws IOException if reading fails.
+     */
+    public synchronized long count(long from, long to, Predicate predicate) throws IOException
+    {
+        long count = 0;
+
+        for (int i = 0; i < chunks; i ++)
+        {
+            if ( ! mightMatch(i, from, to, predicate))
+            {
+                continue;
+            }
+
+            boolean timesMatch = (minTimes[i] >= from) && (maxTimes[i] < to);
+            boolean[] readColumn = new boolean[CHANNELS.length];
+            boolean readAny = ! timesMatch;
+
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                readColumn[c] = predicate.constrained[c] && ! allMatch(i, c, predicate);
+                readAny |= readColumn[c];
+            }
+
+            if ( ! readAny)
+            {
+                count += counts[i];
+                continue;
+            }
+
+            chunksRead ++;
+
+            if ( ! timesMatch)
+            {
+                readTimes(i);
+            }
+
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                if (readColumn[c])
+                {
+                    readColumn(i, c);
+                }
+            }
+
+            for (int r = 0; r < counts[i]; r ++)
+            {
+                if (( ! timesMatch) && ((times[r] < from) || (times[r] >= to)))
+                {
+                    continue;
+                }
+
+                if (matches(r, readColumn, predicate))
+                {
+                    count ++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads the readings in a time range that match a Predicate, in file order.
+     *
+     * @param from      the start of the range (inclusive) in milliseconds since the epoch
+     * @param to        the end of the range (exclusive) in milliseconds since the epoch
+     * @param predicate the Predicate
+     * @param handler   the Handler to receive each matching reading
+     *
+     * @return the number of matching readings.
+     *
+     * @throws IOException if reading fails.
+     */
+    public synchronized long scan(long from, long to, Predicate predicate, ReadingLog.Handler handler) throws IOException
+    {
+        long count = 0;
+        boolean[] readColumn = new boolean[CHANNELS.length];
+        Arrays.fill(readColumn, true);
+
+        for (int i = 0; i < chunks; i ++)
+        {
+            if ( ! mightMatch(i, from, to, predicate))
+            {
+                continue;
+            }
+
+            chunksRead ++;
+            readTimes(i);
+
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                readColumn(i, c);
+            }
+
+            for (int r = 0; r < counts[i]; r ++)
+            {
+                if ((times[r] >= from) && (times[r] < to) && matches(r, readColumn, predicate))
+                {
+                    for (int c = 0; c < CHANNELS.length; c ++)
+                    {
+                        values[c] = columns[c][r];
+                    }
+
+                    handler.reading(times[r], values);
+                    count ++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of chunks in the file.
+     *
+     * @return the number of chunks.
+     */
+    public int getChunkCount()
+    {
+        return chunks;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings in the file.
+     *
+     * @return the number of readings.
+     */
+    public long getReadingCount()
+    {
+        return readingCount;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of chunks that scans have had to read from the file (rather than skip or count from their zone maps), since opening.
+     *
+     * @return the number of chunks read.
+     */
+    public synchronized long getChunksRead()
+    {
+        return chunksRead;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private boolean mightMatch(int chunk, long from, long to, Predicate predicate)
+    {
+        if ((maxTimes[chunk] < from) || (minTimes[chunk] >= to))
+        {
+            return false;
+        }
+
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            if (predicate.constrained[c] && ((nanCounts[c][chunk] == counts[chunk])
+                    || (maxs[c][chunk] < predicate.lower[c]) || (mins[c][chunk] > predicate.upper[c])))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private boolean allMatch(int chunk, int channel, Predicate predicate)
+    {
+        return (nanCounts[channel][chunk] == 0) && (mins[channel][chunk] >= predicate.lower[channel])
+                && (maxs[channel][chunk] <= predicate.upper[channel]);
+    }
+
+
+    //-----------------------------------------------------------------------
+    private boolean matches(int row, boolean[] readColumn, Predicate predicate)
+    {
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            if (readColumn[c] && ! predicate.matches(c, columns[c][row]))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void readTimes(int chunk) throws IOException
+    {
+        readColumn(offsets[chunk], counts[chunk]);
+        readBuffer.asLongBuffer().get(times, 0, counts[chunk]);
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void readColumn(int chunk, int channel) throws IOException
+    {
+        readColumn(offsets[chunk] + (long) counts[chunk] * (Long.BYTES + channel * Double.BYTES), counts[chunk]);
+        readBuffer.asDoubleBuffer().get(columns[channel], 0, counts[chunk]);
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void readColumn(long position, int count) throws IOException
+    {
+        readBuffer.clear();
+        readBuffer.limit(count * Long.BYTES);
+
+        while (readBuffer.hasRemaining())
+        {
+            if (file.read(readBuffer, position + readBuffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of columnar chunk file.");
+            }
+        }
+
+        readBuffer.flip();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private ByteBuffer readFully(long position, int size) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while (buffer.hasRemaining())
+        {
+            if (file.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of columnar chunk file.");
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Writes readings to a columnar chunk file, for analytic scans with {@link ColumnarScanner}.
+ *
+ * <p>
+ * Readings are written in chunks. Within a chunk the times, and then each channel in the order of {@link Channel}, are stored as contiguous primitive
+ * columns. A footer holds a zone map for each chunk: the time range, and the minimum, maximum, and NaN count of each channel, so scans can skip
+ * chunks without reading them.
+ *
+ * <p>
+ * File layout: the chunks, then for each chunk its offset (8 bytes), reading count (4 bytes), minimum and maximum time (8 bytes each), and for each
+ * channel its minimum and maximum (8 bytes each) and NaN count (4 bytes). This is followed by the chunk count (4 bytes), the footer offset (8 bytes),
+ * and {@link #MAGIC} (4 bytes).
+ *
+ * @author Darian Cabot
+ */
+public final class ColumnarWriter implements Closeable
+{
+    /**
+     * Identifies a columnar chunk file ("CO2C").
+     */
+    public static final int MAGIC = 0x434f3243;
+
+    /**
+     * The default number of readings per chunk (a little over an hour at 2Hz).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    static final Channel[] CHANNELS = Channel.values();
+    static final int ZONE_MAP_SIZE = Long.BYTES + Integer.BYTES + 2 * Long.BYTES + CHANNELS.length * (2 * Double.BYTES + Integer.BYTES);
+    static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final FileChannel file;
+    private final int chunkSize;
+
+    private final long[] times;
+    private final double[][] columns;
+    private int count;
+
+    private ByteBuffer footer = ByteBuffer.allocate(ZONE_MAP_SIZE * 16);
+    private int chunks;
+    private long position;
+    private boolean closed;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates (or replaces) a columnar chunk file, with the default chunk size.
+     *
+     * @param path the file path
+     *
+     * @throws IOException if the file could not be created.
+     */
+    public ColumnarWriter(Path path) throws IOException
+    {
+        this(path, DEFAULT_CHUNK_SIZE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates (or replaces) a columnar chunk file.
+     *
+     * @param path      the file path
+     * @param chunkSize the number of readings per chunk
+     *
+     * @throws IOException if the file could not be created.
+     */
+    public ColumnarWriter(Path path, int chunkSize) throws IOException
+    {
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("Chunk size must be at least 1.");
+        }
+
+        this.chunkSize = chunkSize;
+        this.times = new long[chunkSize];
+        this.columns = new double[CHANNELS.length][chunkSize];
+
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Exports a time range of a reading log to a new columnar chunk file.
+     *
+     * @param log  the reading log
+     * @param from the start of the range (inclusive) in milliseconds since the epoch
+     * @param to   the end of the range (exclusive) in milliseconds since the epoch
+     * @param path the file path
+     *
+     * @return the number of readings exported.
+     *
+     * @throws IOException if reading or writing fails.
+     */
+    public static long export(ReadingLog log, long from, long to, Path path) throws IOException
+    {
+        try (ColumnarWriter writer = new ColumnarWriter(path))
+        {
+            return log.read(from, to, (time, values) ->
+            {
+                try
+                {
+                    writer.append(time, values);
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends a reading.
+     *
+     * @param time   the time of the reading in milliseconds since the epoch
+     * @param values the value of each channel, in the order of {@link Channel}, NaN if not numeric
+     *
+     * @throws IOException if writing fails.
+     */
+    public void append(long time, double[] values) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Columnar writer is closed.");
+        }
+
+        times[count] = time;
+
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            columns[c][count] = values[c];
+        }
+
+        if ( ++ count == chunkSize)
+        {
+            writeChunk();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes any remaining readings and the footer, and closes the file.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            writeChunk();
+
+            ensureFooter(TRAILER_SIZE);
+            footer.putInt(chunks).putLong(position).putInt(MAGIC);
+            footer.flip();
+            writeFully(footer);
+            file.force(true);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void writeChunk() throws IOException
+    {
+        if (count == 0)
+        {
+            return;
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(count * (Long.BYTES + CHANNELS.length * Double.BYTES));
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        for (int i = 0; i < count; i ++)
+        {
+            chunk.putLong(times[i]);
+            minTime = Math.min(minTime, times[i]);
+            maxTime = Math.max(maxTime, times[i]);
+        }
+
+        ensureFooter(ZONE_MAP_SIZE);
+        footer.putLong(position).putInt(count).putLong(minTime).putLong(maxTime);
+
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            double[] column = columns[c];
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int nanCount = 0;
+
+            for (int i = 0; i < count; i ++)
+            {
+                double value = column[i];
+                chunk.putDouble(value);
+
+                if (Double.isNaN(value))
+                {
+                    nanCount ++;
+                }
+                else
+                {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+
+            footer.putDouble(min).putDouble(max).putInt(nanCount);
+        }
+
+        chunk.flip();
+        writeFully(chunk);
+
+        chunks ++;
+        count = 0;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += file.write(buffer, position);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void ensureFooter(int size)
+    {
+        if (footer.remaining() < size)
+        {
+            int used = footer.position();
+            footer = ByteBuffer.wrap(Arrays.copyOf(footer.array(), footer.capacity() * 2 + size));
+            footer.position(used);
+        }
+    }
+
+}
@@ -24,7 +24,6 @@
 package com.dariancabot.extechco250;
 
 import com.dariancabot.extechco250.exceptions.ProtocolException;
-import java.util.Arrays;
 import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
@@ -40,14 +39,9 @@ public final class Communications implements SerialPortEventListener
 {
     private SerialPort serialPort;
     private final Decoder decoder;
-
-    private static final byte PACKET_END_BYTE_1 = 0x0d;
-    private static final byte PACKET_END_BYTE_2 = 0x0a;
-    private static final int PACKET_LENGTH = 45;
-
-    private final byte[] packetBuffer = new byte[PACKET_LENGTH + 1];
-    private boolean packetEndByte1 = false;
-    private int packetBufferPosition = 0;
+    private final PacketFramer packetFramer;
+    private final TrafficRecorder trafficRecorder;
+    private final Runnable portErrorHandler;
 
     /**
      * Used by {@link #bytesToHex(byte[])}
@@ -63,9 +57,43 @@ public final class Communications implements SerialPortEventListener
      * @param decoder    the Decoder to be used
      */
     public Communications(SerialPort serialPort, Decoder decoder)
+    {
+        this(serialPort, decoder, new TrafficRecorder());
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new Communications instance, recording the received bytes.
+     *
+     * @param serialPort      the SerialPort to be used
+     * @param decoder         the Decoder to be used
+     * @param trafficRecorder the TrafficRecorder to record received bytes to, and to dump on protocol errors
+     */
+    public Communications(SerialPort serialPort, Decoder decoder, TrafficRecorder trafficRecorder)
+    {
+        this(serialPort, decoder, trafficRecorder, () ->
+        {
+        });
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a new Communications instance, recording the received bytes and reporting Serial Port errors.
+     *
+     * @param serialPort       the SerialPort to be used
+     * @param decoder          the Decoder to be used
+     * @param trafficRecorder  the TrafficRecorder to record received bytes to, and to dump on protocol errors
+     * @param portErrorHandler called when reading the SerialPort fails (i.e. adapter unplugged), before the error is thrown
+     */
+    Communications(SerialPort serialPort, Decoder decoder, TrafficRecorder trafficRecorder, Runnable portErrorHandler)
     {
         this.serialPort = serialPort;
         this.decoder = decoder;
+        this.trafficRecorder = trafficRecorder;
+        this.portErrorHandler = portErrorHandler;
+        this.packetFramer = new PacketFramer(this::packetReceived);
     }
 
 
@@ -118,57 +146,21 @@ public final class Communications implements SerialPortEventListener
                         return;
                     }
 
-                    for (int byteCount = 0; byteCount < rxBuffer.length; byteCount ++)
-                    {
-                        packetBuffer[packetBufferPosition] = rxBuffer[byteCount];
-
-                        // Buffer overflow protection.
-                        if (packetBufferPosition >= PACKET_LENGTH)
-                        {
-                            // Reset for next packet
-                            Arrays.fill(packetBuffer, (byte) 0); // Clear the packet buffer.
-                            packetBufferPosition = 0;
-                            continue;
-                        }
-
-                        // First end byte already detected.
-                        if (packetEndByte1)
-                        {
-                            if (packetBuffer[packetBufferPosition] == PACKET_END_BYTE_2)
-                            {
-
-                                // We have a valid packet - get the relevent section.
-                                byte[] packet = Arrays.copyOfRange(packetBuffer, 0, packetBufferPosition + 1);
-
-                                // TODO: Comment this out for production...
-                                // Print valid packet in hex (debugging)...
-                                // System.out.println(bytesToHex(packet)); // Hex format.
-                                // System.out.println(new String(packet, 0, packet.length)); // ASCII format.
-                                //
-                                // Decode the packet.
-                                decoder.decodePacket(packet);
-
-                                // Reset buffer ready for the next packet...
-                                Arrays.fill(packetBuffer, (byte) 0); // Clear the packet buffer.
-                                packetBufferPosition = 0;
-                                continue;
-                            }
-                            else
-                            {
-                                packetEndByte1 = false;
-                            }
-                        }
-
-                        if (packetBuffer[packetBufferPosition] == PACKET_END_BYTE_1)
-                        {
-                            packetEndByte1 = true;
-                        }
-
-                        packetBufferPosition ++;
-                    }
+                    trafficRecorder.record(rxBuffer, 0, rxBuffer.length);
+                    packetFramer.accept(rxBuffer, 0, rxBuffer.length);
+                }
+                catch (SerialPortException e)
+                {
+                    // A port I/O error (i.e. adapter unplugged), not a protocol error, so the traffic is not dumped.
+                    portErrorHandler.run();
+
+                    ProtocolException pex = new ProtocolException("Error receiving serial data", e);
+                    throw pex;
                 }
-                catch (SerialPortException | ProtocolException e)
+                catch (ProtocolException e)
                 {
+                    trafficRecorder.protocolError(serialPort.getPortName(), e);
+
                     ProtocolException pex = new ProtocolException("Error receiving serial data", e);
                     throw pex;
                 }
@@ -181,6 +173,14 @@ public final class Communications implements SerialPortEventListener
     }
 
 
+    //-----------------------------------------------------------------------
+    private void packetReceived(byte[] packet)
+    {
+        // Decode the packet. For the raw bytes received, see the TrafficRecorder.
+        decoder.decodePacket(packet);
+    }
+
+
     //-----------------------------------------------------------------------
     /**
      * Converts a byte array into a hex String.
@@ -191,7 +191,7 @@ public final class Communications implements SerialPortEventListener
      *
      * @see http://stackoverflow.com/a/9855338
      */
-    private String bytesToHex(byte[] bytes)
+    static String bytesToHex(byte[] bytes)
     {
         char[] hexChars = new char[bytes.length * 3];
         for (int j = 0; j < bytes.length; j ++)
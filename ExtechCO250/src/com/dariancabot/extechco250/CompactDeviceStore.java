@@ -0,0 +1,779 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import com.dariancabot.extechco250.Data.Value.Statistics;
+import com.dariancabot.extechco250.Data.Value.Unit.Measurement;
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Compact storage of the latest values and statistics of many meters (i.e. 10,000 or more per JVM), as an alternative to a {@link Data} per meter.
+ *
+ * <p>
+ * All state lives in primitive arrays indexed by device id (struct-of-arrays): per device and channel the latest value, the measurement, and the
+ * sample count, minimum, maximum, and sum of the statistics. Packets are decoded straight into the arrays without creating Strings.
+ * {@link Device} and {@link Value} are flyweight views of one device and one channel, holding only the id; reading them does not copy the state.
+ *
+ * <p>
+ * Memory is fixed at the capacity given when created. Packets for different devices may be decoded on different threads at once; each device is
+ * guarded by one of a fixed set of locks, and views read without blocking, retrying under the lock if an update happens while reading.
+ *
+ * @author Darian Cabot
+ */
+public final class CompactDeviceStore
+{
+    private static final Channel[] CHANNELS = Channel.values();
+    private static final Measurement[] MEASUREMENTS = Measurement.values();
+    private static final int LOCK_STRIPES = 64;
+    private static final double[] POWERS_OF_TEN =
+    {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final LongSupplier clock;
+    private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+    private volatile int size; // Written only by addDevice, read without locking by checkId.
+
+    // Per device.
+    private final boolean[] statisticsEnabled;
+    private final long[] packets;
+    private final long[] durationStarts;
+    private final long[] durationEnds;
+
+    // Per device and channel, at device id * channels + channel.
+    private final double[] values;
+    private final byte[] measurements;
+    private final long[] samples;
+    private final double[] minimums;
+    private final double[] maximums;
+    private final long[] scaledSums; // Fixed-point, as Data.Value.Statistics.
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of devices
+     */
+    public CompactDeviceStore(int capacity)
+    {
+        this(capacity, System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of devices
+     * @param clock    a time source in milliseconds since the epoch
+     */
+    CompactDeviceStore(int capacity, LongSupplier clock)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+
+        this.clock = clock;
+
+        for (int i = 0; i < LOCK_STRIPES; i ++)
+        {
+            locks[i] = new StampedLock();
+        }
+
+        statisticsEnabled = new boolean[capacity];
+        packets = new long[capacity];
+        durationStarts = new long[capacity];
+        durationEnds = new long[capacity];
+
+        values = new double[capacity * CHANNELS.length];
+        measurements = new byte[capacity * CHANNELS.length];
+        samples = new long[capacity * CHANNELS.length];
+        minimums = new double[capacity * CHANNELS.length];
+        maximums = new double[capacity * CHANNELS.length];
+        scaledSums = new long[capacity * CHANNELS.length];
+
+        Arrays.fill(values, Double.NaN);
+        Arrays.fill(durationStarts, Long.MIN_VALUE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a device, with no values and statistics disabled.
+     *
+     * @return the id of the device.
+     *
+     * @throws IllegalStateException if the store is full.
+     */
+    public synchronized int addDevice()
+    {
+        if (size == statisticsEnabled.length)
+        {
+            throw new IllegalStateException("Store is full: " + size + " devices.");
+        }
+
+        return size ++;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of devices added.
+     *
+     * @return the number of devices.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum number of devices.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity()
+    {
+        return statisticsEnabled.length;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a flyweight view of a device.
+     *
+     * @param id the device id
+     *
+     * @return the Device view.
+     */
+    public Device getDevice(int id)
+    {
+        checkId(id);
+
+        return new Device(id);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Enables or disables the accumulation of statistics of a device. Disabling does not reset the statistics.
+     *
+     * @param id        the device id
+     * @param isEnabled true to enable, false to disable
+     */
+    public void setStatisticsEnabled(int id, boolean isEnabled)
+    {
+        checkId(id);
+
+        StampedLock lock = lock(id);
+        long stamp = lock.writeLock();
+
+        try
+        {
+            statisticsEnabled[id] = isEnabled;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Resets the statistics of a device. Does not change whether they are enabled.
+     *
+     * @param id the device id
+     */
+    public void resetStatistics(int id)
+    {
+        checkId(id);
+
+        StampedLock lock = lock(id);
+        long stamp = lock.writeLock();
+
+        try
+        {
+            int base = id * CHANNELS.length;
+            Arrays.fill(samples, base, base + CHANNELS.length, 0L);
+            Arrays.fill(scaledSums, base, base + CHANNELS.length, 0L);
+            durationStarts[id] = Long.MIN_VALUE;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a complete serial packet from a meter into the state of a device, applying the same checks as {@link Decoder#decodePacket(byte[])}.
+     *
+     * @param id     the device id
+     * @param packet the packet as a byte array, with or without line break bytes
+     *
+     * @return true if the packet was a line of values, false if it was the preamble.
+     *
+     * @throws ProtocolException If the packet is invalid or unable to decode.
+     */
+    public boolean decodePacket(int id, byte[] packet) throws ProtocolException
+    {
+        checkId(id);
+
+        int end = packet.length;
+
+        if ((end >= 2) && (packet[end - 2] == PacketFramer.PACKET_END_BYTE_1) && (packet[end - 1] == PacketFramer.PACKET_END_BYTE_2))
+        {
+            end -= 2;
+        }
+
+        if ( ! checksumValid(packet, end))
+        {
+            throw new ProtocolException("Decode error: Packet checksum is invalid.");
+        }
+
+        if (packet[0] == '$')
+        {
+            if ( ! Decoder.isCompatiblePreamble(Arrays.copyOf(packet, end)))
+            {
+                throw new ProtocolException("Decode error: Packet preamble does not match compatible Extech CO250 device.");
+            }
+
+            return false;
+        }
+
+        // Parse every field before updating, so a bad packet leaves the device unchanged.
+        double[] parsed = new double[CHANNELS.length];
+        byte[] units = new byte[CHANNELS.length];
+        boolean[] present = new boolean[CHANNELS.length];
+        int fieldStart = 0;
+        end -= 2; // Checksum characters.
+
+        while (fieldStart < end)
+        {
+            int fieldEnd = fieldStart;
+
+            while ((fieldEnd < end) && (packet[fieldEnd] != ':'))
+            {
+                fieldEnd ++;
+            }
+
+            parseField(packet, fieldStart, fieldEnd, parsed, units, present);
+            fieldStart = fieldEnd + 1;
+        }
+
+        long now = clock.getAsLong();
+        StampedLock lock = lock(id);
+        long stamp = lock.writeLock();
+
+        try
+        {
+            int base = id * CHANNELS.length;
+            boolean isEnabled = statisticsEnabled[id];
+            boolean isSampled = false;
+            packets[id] ++;
+
+            for (int c = 0; c < CHANNELS.length; c ++)
+            {
+                if ( ! present[c])
+                {
+                    continue;
+                }
+
+                int i = base + c;
+                double value = parsed[c];
+                values[i] = value;
+
+                if (units[c] != 0)
+                {
+                    measurements[i] = units[c];
+                }
+
+                if (isEnabled && ( ! Double.isNaN(value)))
+                {
+                    if (samples[i] == 0)
+                    {
+                        minimums[i] = value;
+                        maximums[i] = value;
+                        scaledSums[i] = Math.round(value * Statistics.SUM_SCALE);
+                    }
+                    else
+                    {
+                        minimums[i] = Math.min(minimums[i], value);
+                        maximums[i] = Math.max(maximums[i], value);
+                        scaledSums[i] += Math.round(value * Statistics.SUM_SCALE);
+                    }
+
+                    samples[i] ++;
+                    isSampled = true;
+                }
+            }
+
+            if (isSampled)
+            {
+                if (durationStarts[id] == Long.MIN_VALUE)
+                {
+                    durationStarts[id] = now;
+                }
+
+                durationEnds[id] = now;
+            }
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+
+        return true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Parses one field of a line of values, i.e. "C800ppm" or "T21.5C", the same as the {@link Decoder}.
+     */
+    private static void parseField(byte[] packet, int start, int end, double[] parsed, byte[] units, boolean[] present)
+    {
+        if (start >= end)
+        {
+            throw new ProtocolException("Decode error: Unknown value designator ''.");
+        }
+
+        int c;
+        int unitLength = 1;
+        Measurement measurement = Measurement.NONE;
+        byte last = packet[end - 1];
+
+        switch (packet[start])
+        {
+            case 'C':
+                c = Channel.CO2.ordinal();
+                unitLength = 3;
+                measurement = contains(packet, start, end, "ppm") ? Measurement.PPM : Measurement.NONE;
+                break;
+
+            case 'T':
+                c = Channel.DBT.ordinal();
+                measurement = temperature(last);
+                break;
+
+            case 'H':
+                c = Channel.RH.ordinal();
+                measurement = (last == '%') ? Measurement.PERCENT : Measurement.NONE;
+                break;
+
+            case 'd':
+                c = Channel.DPT.ordinal();
+                measurement = temperature(last);
+                break;
+
+            case 'w':
+                c = Channel.WBT.ordinal();
+                measurement = temperature(last);
+                break;
+
+            default:
+                throw new ProtocolException("Decode error: Unknown value designator '" + (char) packet[start] + "'.");
+        }
+
+        if (end - start - 1 < unitLength)
+        {
+            throw new ProtocolException("Decode error: Value too short for designator '" + (char) packet[start] + "'.");
+        }
+
+        parsed[c] = parseNumber(packet, start + 1, end - unitLength);
+        units[c] = (byte) measurement.ordinal();
+        present[c] = true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static Measurement temperature(byte unit)
+    {
+        return (unit == 'C') ? Measurement.CELCIUS : (unit == 'F') ? Measurement.FARENHEIT : Measurement.NONE;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static boolean contains(byte[] packet, int start, int end, String text)
+    {
+        for (int i = start; i <= end - text.length(); i ++)
+        {
+            int j = 0;
+
+            while ((j < text.length()) && (packet[i + j] == text.charAt(j)))
+            {
+                j ++;
+            }
+
+            if (j == text.length())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Parses a number with optional '-' and decimal, surrounded by optional spaces, without creating a String.
+     * <p>
+     * The result is the same as {@link Double#parseDouble(String)}: the digits and the power of ten are exact, so a single division rounds correctly.
+     *
+     * @return the number, or NaN if not numeric (i.e. "----" while the sensor warms up).
+     */
+    private static double parseNumber(byte[] packet, int start, int end)
+    {
+        while ((start < end) && (packet[start] == ' '))
+        {
+            start ++;
+        }
+
+        while ((end > start) && (packet[end - 1] == ' '))
+        {
+            end --;
+        }
+
+        boolean isNegative = (start < end) && (packet[start] == '-');
+        int i = isNegative ? start + 1 : start;
+        long digits = 0;
+        int integerDigits = 0;
+        int fractionDigits = -1;
+
+        for (; i < end; i ++)
+        {
+            byte b = packet[i];
+
+            if ((b >= '0') && (b <= '9'))
+            {
+                digits = digits * 10 + (b - '0');
+
+                if (fractionDigits < 0)
+                {
+                    integerDigits ++;
+                }
+                else
+                {
+                    fractionDigits ++;
+                }
+            }
+            else if ((b == '.') && (fractionDigits < 0) && (integerDigits > 0))
+            {
+                fractionDigits = 0;
+            }
+            else
+            {
+                return Double.NaN;
+            }
+        }
+
+        if ((integerDigits == 0) || (fractionDigits == 0) || (integerDigits + Math.max(fractionDigits, 0) > 15))
+        {
+            return Double.NaN;
+        }
+
+        double value = (fractionDigits > 0) ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+
+        return isNegative ? -value : value;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks the checksum of a line, the same as the {@link Decoder}.
+     */
+    private static boolean checksumValid(byte[] packet, int end)
+    {
+        if (end < 2)
+        {
+            return false;
+        }
+
+        int expected = (Character.digit(packet[end - 2], 16) << 4) + Character.digit(packet[end - 1], 16);
+        int sum = 0;
+
+        for (int i = 0; i < end - 2; i ++)
+        {
+            sum += packet[i];
+        }
+
+        return (byte) ( ~ sum + 1) == (byte) expected;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private StampedLock lock(int id)
+    {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void checkId(int id)
+    {
+        if ((id < 0) || (id >= size))
+        {
+            throw new IllegalArgumentException("Unknown device id: " + id);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads an element of an array consistently with updates of the device.
+     */
+    private double read(int id, double[] array, int index)
+    {
+        StampedLock lock = lock(id);
+        long stamp = lock.tryOptimisticRead();
+        double value = array[index];
+
+        if ( ! lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+
+            try
+            {
+                value = array[index];
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return value;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads an element of an array consistently with updates of the device.
+     */
+    private long read(int id, long[] array, int index)
+    {
+        StampedLock lock = lock(id);
+        long stamp = lock.tryOptimisticRead();
+        long value = array[index];
+
+        if ( ! lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+
+            try
+            {
+                value = array[index];
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return value;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A flyweight view of one device in the store.
+     */
+    public final class Device
+    {
+        private final int id;
+
+
+        private Device(int id)
+        {
+            this.id = id;
+        }
+
+
+        /**
+         * Gets the device id.
+         *
+         * @return the id.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+
+        /**
+         * Gets a flyweight view of the value of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the Value view.
+         */
+        public Value getValue(Channel channel)
+        {
+            return new Value(id, channel);
+        }
+
+
+        /**
+         * Gets the number of lines of values decoded.
+         *
+         * @return the number of packets.
+         */
+        public long getPackets()
+        {
+            return read(id, packets, id);
+        }
+
+
+        /**
+         * Gets the duration of statistics gathering, from the first sample to the latest reading.
+         *
+         * @return the length of time in milliseconds, or 0 if there are no samples.
+         */
+        public long getDurationMillis()
+        {
+            StampedLock lock = lock(id);
+            long stamp = lock.readLock();
+
+            try
+            {
+                return (durationStarts[id] == Long.MIN_VALUE) ? 0 : durationEnds[id] - durationStarts[id];
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A flyweight view of the value and statistics of one channel of one device, like {@link Data.Value}.
+     */
+    public final class Value
+    {
+        private final int id;
+        private final int index;
+
+
+        private Value(int id, Channel channel)
+        {
+            this.id = id;
+            this.index = id * CHANNELS.length + channel.ordinal();
+        }
+
+
+        /**
+         * Gets the latest value as a number.
+         *
+         * @return the value, or null if not numeric or not received yet.
+         */
+        public Double getValueDouble()
+        {
+            double value = read(id, values, index);
+
+            return Double.isNaN(value) ? null : value;
+        }
+
+
+        /**
+         * Gets the measurement unit of the latest value.
+         *
+         * @return the measurement.
+         */
+        public Measurement getMeasurement()
+        {
+            return MEASUREMENTS[measurements[index]];
+        }
+
+
+        /**
+         * Gets the number of samples used to calculate statistics.
+         *
+         * @return the number of samples.
+         */
+        public long getSamples()
+        {
+            return read(id, samples, index);
+        }
+
+
+        /**
+         * Gets the minimum value of all samples.
+         *
+         * @return the minimum value, or null if there are no samples.
+         */
+        public Double getMinimum()
+        {
+            return (getSamples() == 0) ? null : read(id, minimums, index);
+        }
+
+
+        /**
+         * Gets the maximum value of all samples.
+         *
+         * @return the maximum value, or null if there are no samples.
+         */
+        public Double getMaximum()
+        {
+            return (getSamples() == 0) ? null : read(id, maximums, index);
+        }
+
+
+        /**
+         * Gets the average of all samples.
+         *
+         * @return the average, or null if there are no samples.
+         */
+        public Double getAverage()
+        {
+            StampedLock lock = lock(id);
+            long stamp = lock.readLock();
+
+            try
+            {
+                return (samples[index] == 0) ? null : scaledSums[index] / Statistics.SUM_SCALE / samples[index];
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+
+    }
+
+}
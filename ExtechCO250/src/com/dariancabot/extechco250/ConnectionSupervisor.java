@@ -0,0 +1,465 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Supervises Extech CO250 Serial Port connections, re-connecting them when lost.
+ *
+ * <p>
+ * A connection is considered lost when the Serial Port reports an error, is no longer connected, or no data has been received for the silence
+ * timeout (the meter sends data at 2Hz). Port errors are acted on straight away; silence is checked periodically. Lost connections are re-opened
+ * with jittered exponential backoff, keeping the statistics enabled so they continue across the reconnect with the gap marked (see
+ * {@link Data.Value.Statistics#getGaps()}). Changes are notified to each meter's EventListeners.
+ *
+ * <p>
+ * All supervised meters are checked from a single scheduler thread.
+ *
+ * <p>
+ * Note: A meter that is intentionally disconnected must be removed with {@link #unsupervise(ExtechCO250)} first, otherwise it will be
+ * re-connected.
+ *
+ * @author Darian Cabot
+ */
+public final class ConnectionSupervisor
+{
+    private static final long DEFAULT_SILENCE_TIMEOUT = 5000; // Milliseconds.
+    private static final long DEFAULT_INITIAL_BACKOFF = 1000; // Milliseconds.
+    private static final long DEFAULT_MAX_BACKOFF = 60000; // Milliseconds.
+    private static final long CHECK_INTERVAL = 250; // Milliseconds.
+
+    private final LongSupplier nanoClock;
+    private final ScheduledExecutorService scheduler;
+    private final Map<ExtechCO250, Connection> connections = new ConcurrentHashMap<>();
+
+    private volatile long silenceTimeout = DEFAULT_SILENCE_TIMEOUT;
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+
+    /**
+     * The Serial Port connection of a supervised meter.
+     */
+    interface Port
+    {
+
+        /**
+         * Gets the name of the Serial Port.
+         *
+         * @return the name (i.e. "COM3"), or null if never connected.
+         */
+        String getName();
+
+
+        /**
+         * Gets the connection status.
+         *
+         * @return true if the Serial Port is connected.
+         */
+        boolean isConnected();
+
+
+        /**
+         * Closes a lost connection, ignoring any errors.
+         */
+        void drop();
+
+
+        /**
+         * Re-opens a lost connection.
+         *
+         * @return true if successful.
+         */
+        boolean reopen();
+
+
+        /**
+         * Sets the handler to be called when the Serial Port reports an error, on the thread receiving from the port.
+         *
+         * @param handler the handler, or null for none
+         */
+        void setErrorHandler(Runnable handler);
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Starts the scheduler thread.
+     */
+    public ConnectionSupervisor()
+    {
+        this(System::nanoTime, true);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param nanoClock   the time source, in nanoseconds
+     * @param isScheduled true to start the scheduler thread, false to only check when {@link #check()} is called
+     */
+    ConnectionSupervisor(LongSupplier nanoClock, boolean isScheduled)
+    {
+        this.nanoClock = nanoClock;
+
+        if (isScheduled)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ConnectionSupervisor"));
+            scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            scheduler = null;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts supervising a meter. The meter must have been connected with {@link ExtechCO250#connectSerialPort(String)}.
+     *
+     * @param device the meter to supervise
+     */
+    public void supervise(ExtechCO250 device)
+    {
+        supervise(device, new DevicePort(device));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts supervising a meter through its Serial Port connection.
+     *
+     * @param device the meter to supervise
+     * @param port   the meter's Serial Port connection
+     */
+    void supervise(ExtechCO250 device, Port port)
+    {
+        if (port.getName() == null)
+        {
+            throw new IllegalArgumentException("Meter must be connected before it can be supervised.");
+        }
+
+        connections.computeIfAbsent(device, d ->
+        {
+            Connection connection = new Connection(d, port);
+            d.addEventListener(connection);
+            port.setErrorHandler(connection::portError);
+
+            return connection;
+        });
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops supervising a meter. The meter is left in its current state.
+     *
+     * @param device the meter to stop supervising
+     */
+    public void unsupervise(ExtechCO250 device)
+    {
+        Connection connection = connections.remove(device);
+
+        if (connection != null)
+        {
+            device.removeEventListener(connection);
+            connection.port.setErrorHandler(null);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the time without receiving data after which a connection is considered lost.
+     *
+     * @param silenceTimeout the silence timeout in milliseconds
+     */
+    public void setSilenceTimeout(long silenceTimeout)
+    {
+        this.silenceTimeout = silenceTimeout;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the delays between re-connection attempts. The delay doubles with each failed attempt up to the maximum, and is randomly reduced by up to
+     * half so that many meters lost at once do not retry in step.
+     *
+     * @param initialBackoff the delay before the first attempt in milliseconds
+     * @param maxBackoff     the maximum delay between attempts in milliseconds
+     */
+    public void setBackoff(long initialBackoff, long maxBackoff)
+    {
+        if ((initialBackoff < 1) || (maxBackoff < initialBackoff))
+        {
+            throw new IllegalArgumentException("Backoff must be at least 1 ms, and maximum not less than initial.");
+        }
+
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of times a meter has been re-connected by this supervisor.
+     *
+     * @param device the supervised meter
+     *
+     * @return the number of re-connections, or 0 if not supervised.
+     */
+    public long getReconnectCount(ExtechCO250 device)
+    {
+        Connection connection = connections.get(device);
+
+        return (connection == null) ? 0 : connection.reconnectCount;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops the scheduler thread. Meters are left in their current state.
+     */
+    public void close()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+
+        for (ExtechCO250 device : connections.keySet())
+        {
+            unsupervise(device);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks all supervised connections. Runs on the scheduler thread.
+     */
+    void check()
+    {
+        long now = nanoClock.getAsLong();
+
+        for (Connection connection : connections.values())
+        {
+            try
+            {
+                connection.check(now);
+            }
+            catch (RuntimeException ex)
+            {
+                // Don't let one meter stop the supervision of the others.
+                System.err.println("Error supervising Serial Port " + connection.port.getName() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Calculates the delay before a re-connection attempt.
+     *
+     * @param attempt        the number of failed attempts so far
+     * @param initialBackoff the delay before the first attempt
+     * @param maxBackoff     the maximum delay
+     *
+     * @return the delay, between half and all of the exponential delay.
+     */
+    static long backoffDelay(int attempt, long initialBackoff, long maxBackoff)
+    {
+        long delay = maxBackoff;
+
+        if (attempt < 31)
+        {
+            delay = Math.min(maxBackoff, initialBackoff << attempt);
+        }
+
+        long half = delay / 2;
+
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The supervision state of a single meter.
+     */
+    private final class Connection implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final Port port;
+
+        private volatile long lastDataTime = nanoClock.getAsLong();
+        private volatile boolean hasPortError;
+        private boolean isLost;
+        private int attempts;
+        private long nextAttemptTime;
+        private volatile long reconnectCount;
+
+
+        Connection(ExtechCO250 device, Port port)
+        {
+            this.device = device;
+            this.port = port;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            lastDataTime = nanoClock.getAsLong();
+        }
+
+
+        /**
+         * Called on the thread receiving from the port when it reports an error. Checks straight away, rather than waiting for the silence timeout.
+         */
+        void portError()
+        {
+            hasPortError = true;
+
+            if (scheduler != null)
+            {
+                scheduler.execute(ConnectionSupervisor.this::check);
+            }
+        }
+
+
+        void check(long now)
+        {
+            if ( ! isLost)
+            {
+                if (hasPortError || ( ! port.isConnected()) || (now - lastDataTime > TimeUnit.MILLISECONDS.toNanos(silenceTimeout)))
+                {
+                    hasPortError = false;
+                    port.drop();
+
+                    for (Data.Value value : device.data.getValues())
+                    {
+                        value.statistics.markGap();
+                    }
+
+                    isLost = true;
+                    attempts = 0;
+                    nextAttemptTime = now + TimeUnit.MILLISECONDS.toNanos(backoffDelay(attempts, initialBackoff, maxBackoff));
+
+                    device.getDecoder().notifyEventListeners(EventListener::connectionLostEvent);
+                }
+            }
+            else if (now - nextAttemptTime >= 0)
+            {
+                Object event = FlightEvents.AVAILABLE ? FlightEvents.beginReconnect() : null;
+
+                hasPortError = false; // Errors while lost are from the old connection.
+                boolean isReconnected = port.reopen();
+
+                if (event != null)
+                {
+                    FlightEvents.endReconnect(event, port.getName(), attempts + 1, isReconnected);
+                }
+
+                if (isReconnected)
+                {
+                    isLost = false;
+                    lastDataTime = now;
+                    reconnectCount ++;
+
+                    device.getDecoder().notifyEventListeners(EventListener::connectionRestoredEvent);
+                }
+                else
+                {
+                    attempts ++;
+                    nextAttemptTime = now + TimeUnit.MILLISECONDS.toNanos(backoffDelay(attempts, initialBackoff, maxBackoff));
+                }
+            }
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The Serial Port connection of an {@link ExtechCO250}.
+     */
+    private static final class DevicePort implements Port
+    {
+        private final ExtechCO250 device;
+
+
+        DevicePort(ExtechCO250 device)
+        {
+            this.device = device;
+        }
+
+
+        @Override
+        public String getName()
+        {
+            return device.getPortName();
+        }
+
+
+        @Override
+        public boolean isConnected()
+        {
+            return device.isConnected();
+        }
+
+
+        @Override
+        public void drop()
+        {
+            device.dropSerialPort();
+        }
+
+
+        @Override
+        public boolean reopen()
+        {
+            return device.reconnectSerialPort();
+        }
+
+
+        @Override
+        public void setErrorHandler(Runnable handler)
+        {
+            device.setPortErrorHandler(handler);
+        }
+
+    }
+
+}
@@ -23,8 +23,14 @@
  */
 package com.dariancabot.extechco250;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
 
 
 /**
@@ -66,6 +72,108 @@ public final class Data
     public byte[] packet = null;
 
 
+    /**
+     * Gets all values of the reading on the meter.
+     * <p>
+     * The order is always CO2, dry-bulb temperature, relative humidity, dew-point temperature, wet-bulb temperature.
+     *
+     * @return an array of all values.
+     */
+    public Value[] getValues()
+    {
+        return new Value[]
+        {
+            co2Value, dbtValue, rhValue, dptValue, wbtValue
+        };
+    }
+
+
+    /**
+     * Gets the value of a channel of the reading on the meter.
+     *
+     * @param channel the channel.
+     *
+     * @return the value of the channel.
+     */
+    public Value getValue(Channel channel)
+    {
+        switch (channel)
+        {
+            case CO2:
+                return co2Value;
+            case DBT:
+                return dbtValue;
+            case RH:
+                return rhValue;
+            case DPT:
+                return dptValue;
+            default:
+                return wbtValue;
+        }
+    }
+
+
+    /**
+     * Starts keeping a history of the recent numeric values of all values, replacing any existing histories.
+     *
+     * @param capacity the maximum number of values kept per value (i.e. 7200 for an hour at 2Hz).
+     */
+    public void enableHistory(int capacity)
+    {
+        for (Value value : getValues())
+        {
+            value.enableHistory(capacity);
+        }
+    }
+
+
+    /**
+     * Sets the monotonic time source used to measure the statistics duration of all values (i.e. a virtual clock for accelerated replay).
+     *
+     * @param clock the time source, in nanoseconds
+     */
+    public void setClock(LongSupplier clock)
+    {
+        for (Value value : getValues())
+        {
+            value.statistics.setClock(clock);
+        }
+    }
+
+
+    /**
+     * The channels of a reading on the meter, in the same order as {@link #getValues()}.
+     */
+    public enum Channel
+    {
+        CO2("CO2"),
+        DBT("Dry-bulb temperature"),
+        RH("Relative humidity"),
+        DPT("Dew-point temperature"),
+        WBT("Wet-bulb temperature");
+
+        private final String name;
+
+
+        Channel(String name)
+        {
+            this.name = name;
+        }
+
+
+        /**
+         * Gets the name of the channel.
+         *
+         * @return the channel name.
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+    }
+
+
     /**
      * Value representation of the DMM.
      * <p>
@@ -87,6 +195,8 @@ public final class Data
          */
         public Statistics statistics = new Statistics();
 
+        private volatile History history;
+
 
         /**
          * The measurement unit.
@@ -204,19 +314,47 @@ public final class Data
         }
 
 
+        /**
+         * Statistics of the samples of a value.
+         * <p>
+         * The duration is measured with a monotonic time source ({@link System#nanoTime()} by default), so it is not affected by changes to the
+         * system clock. The time source can be replaced (i.e. with virtual time for accelerated replay) with {@link #setClock(LongSupplier)}.
+         * <p>
+         * The meter's readings are fixed-point decimals, so the sum is kept exactly as a scaled long. The average is then the same whatever order
+         * the values are added in, including when statistics decoded in parallel are added with {@link #addAll(Statistics)}.
+         */
         public static class Statistics
         {
 
-            private boolean isEnabled;
+            /**
+             * The scale of the fixed-point sum. The meter sends at most one decimal place, so this leaves headroom while a year of readings at 2 Hz
+             * still sums to well within a long.
+             */
+            static final double SUM_SCALE = 1000;
+
+            private volatile boolean isEnabled;
+            private final StampedLock lock = new StampedLock();
+            private LongSupplier clock = System::nanoTime;
 
             private long samples;
-            private Date durationStart = new Date();
+            private long gaps;
+            private long durationStart = System.currentTimeMillis();
+            private long durationStartNanos = clock.getAsLong();
             private long duration;
             private Double minimum;
             private Double maximum;
-            private final ArrayList<Double> averageValues = new ArrayList<>();
+            private long scaledSum;
             private Double average;
 
+            private long holdLimit = TimeUnit.SECONDS.toNanos(10);
+            private boolean holding;
+            private double holdValue;
+            private long holdStartNanos;
+            private long weightedTime;
+            private double integral;
+            private double[] bandLimits = new double[0];
+            private long[] bandTimes = new long[1];
+
 
             /**
              * Enable or disable the accumulation of statistical data.
@@ -228,6 +366,21 @@ public final class Data
             public void setEnabled(boolean isEnabled)
             {
                 this.isEnabled = isEnabled;
+
+                if ( ! isEnabled)
+                {
+                    // The time while disabled is not counted (i.e. outside occupied hours).
+                    long stamp = lock.writeLock();
+
+                    try
+                    {
+                        holding = false;
+                    }
+                    finally
+                    {
+                        lock.unlockWrite(stamp);
+                    }
+                }
             }
 
 
@@ -242,20 +395,59 @@ public final class Data
             }
 
 
+            /**
+             * Sets the monotonic time source used to measure the duration. The duration so far is kept.
+             *
+             * @param clock the time source, in nanoseconds (i.e. {@link System#nanoTime()} or a virtual clock)
+             */
+            public void setClock(LongSupplier clock)
+            {
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    long held = this.clock.getAsLong() - holdStartNanos;
+
+                    this.clock = clock;
+                    durationStartNanos = clock.getAsLong() - TimeUnit.MILLISECONDS.toNanos(duration);
+                    holdStartNanos = clock.getAsLong() - held;
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
             /**
              * Resets all statistics by clearing all counters, averages, and other values. Dues not change the "enabled" parameter.
              */
             public void reset()
             {
-                samples = 0;
+                long stamp = lock.writeLock();
 
-                durationStart = new Date();
-                duration = 0;
+                try
+                {
+                    samples = 0;
+                    gaps = 0;
+
+                    startDuration(clock.getAsLong());
+                    duration = 0;
 
-                minimum = null;
-                maximum = null;
-                average = null;
-                averageValues.clear();
+                    minimum = null;
+                    maximum = null;
+                    average = null;
+                    scaledSum = 0;
+
+                    holding = false;
+                    weightedTime = 0;
+                    integral = 0;
+                    Arrays.fill(bandTimes, 0L);
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
             }
 
 
@@ -271,38 +463,363 @@ public final class Data
                     return;
                 }
 
-                if (samples < 1)
+                long stamp = lock.writeLock();
+
+                try
                 {
-                    // Statistics need to be initialised...
-                    samples = 1;
-                    durationStart = new Date();
-                    duration = 500; // Start at half a second (refresh rate is 2Hz).
-                    minimum = value;
-                    maximum = value;
-                    average = value;
-                    averageValues.clear();
-                    averageValues.add(value);
+                    long now = clock.getAsLong();
+
+                    if (samples < 1)
+                    {
+                        // Statistics need to be initialised...
+                        samples = 1;
+                        startDuration(now);
+                        duration = 500; // Start at half a second (refresh rate is 2Hz).
+                        minimum = value;
+                        maximum = value;
+                        scaledSum = Math.round(value * SUM_SCALE);
+                        average = scaledSum / SUM_SCALE;
+                    }
+                    else
+                    {
+                        samples += 1L;
+
+                        duration = elapsedMillis(now);
+
+                        minimum = Math.min(minimum, value);
+                        maximum = Math.max(maximum, value);
+
+                        scaledSum += Math.round(value * SUM_SCALE);
+                        average = scaledSum / SUM_SCALE / samples;
+                    }
+
+                    hold(value, now);
                 }
-                else
+                finally
                 {
-                    samples += 1L;
+                    lock.unlockWrite(stamp);
+                }
+            }
 
-                    Date now = new Date();
-                    duration = (now.getTime() - durationStart.getTime()) / 1000L;
 
-                    minimum = Math.min(minimum, value);
-                    maximum = Math.max(maximum, value);
+            /**
+             * Adds the values of other statistics (i.e. decoded in parallel) by their count, extremes, and sum, under a single lock. The values have
+             * no timing, so the time-weighted statistics are not changed.
+             *
+             * @param other the statistics to add.
+             */
+            protected void addAll(Statistics other)
+            {
+                long count;
+                double otherMinimum;
+                double otherMaximum;
+                long otherScaledSum;
 
-                    averageValues.add(value);
-                    Double valueSum = 0d;
+                long otherStamp = other.lock.readLock();
 
-                    for (Double avgValue : averageValues)
+                try
+                {
+                    count = other.samples;
+
+                    if (count < 1)
                     {
-                        valueSum += avgValue;
+                        return;
                     }
 
-                    average = valueSum / averageValues.size();
+                    otherMinimum = other.minimum;
+                    otherMaximum = other.maximum;
+                    otherScaledSum = other.scaledSum;
+                }
+                finally
+                {
+                    other.lock.unlockRead(otherStamp);
+                }
+
+                if ( ! isEnabled)
+                {
+                    return;
+                }
+
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    long now = clock.getAsLong();
+
+                    if (samples < 1)
+                    {
+                        // Statistics need to be initialised...
+                        startDuration(now);
+                        duration = 500; // Start at half a second (refresh rate is 2Hz).
+                        minimum = otherMinimum;
+                        maximum = otherMaximum;
+                    }
+                    else
+                    {
+                        duration = elapsedMillis(now);
+
+                        minimum = Math.min(minimum, otherMinimum);
+                        maximum = Math.max(maximum, otherMaximum);
+                    }
+
+                    samples += count;
+                    scaledSum += otherScaledSum;
+                    average = scaledSum / SUM_SCALE / samples;
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
+            /**
+             * Marks a gap in the statistics, where samples were missed (i.e. due to a lost connection). Statistics continue to accumulate across
+             * the gap; the time-weighted statistics do not count the time of the gap.
+             */
+            protected void markGap()
+            {
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    if (isEnabled && (samples > 0))
+                    {
+                        gaps += 1L;
+                    }
+
+                    holding = false;
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
+            /**
+             * Gets the number of gaps in the statistics, where samples were missed due to a lost connection.
+             *
+             * @return the number of gaps.
+             */
+            public long getGaps()
+            {
+                return gaps;
+            }
+
+
+            /**
+             * Sets the longest time a reading is taken to last for the time-weighted statistics. When the next reading is later than this (i.e. after
+             * dropped packets), only this much time is counted. The default is 10 seconds.
+             *
+             * @param holdLimit the longest time, must be positive.
+             * @param unit      the unit of the time.
+             */
+            public void setHoldLimit(long holdLimit, TimeUnit unit)
+            {
+                if (holdLimit <= 0)
+                {
+                    throw new IllegalArgumentException("Hold limit must be positive: " + holdLimit);
+                }
+
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    this.holdLimit = unit.toNanos(holdLimit);
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
+            /**
+             * Sets the limits of the bands for the time-in-band histogram, clearing the time counted so far.
+             * <p>
+             * The limits split the values into one more band than there are limits: band 0 is below the first limit, band i is at or above limit i - 1
+             * and below limit i, and the last band is at or above the last limit. For example, limits of 800 and 1000 ppm count the time below 800,
+             * from 800 to below 1000, and at or above 1000 ppm.
+             *
+             * @param limits the limits, in ascending order.
+             */
+            public void setBands(double... limits)
+            {
+                for (int i = 0; i < limits.length; i ++)
+                {
+                    if (Double.isNaN(limits[i]) || ((i > 0) && (limits[i] <= limits[i - 1])))
+                    {
+                        throw new IllegalArgumentException("Band limits must be in ascending order: " + Arrays.toString(limits));
+                    }
+                }
+
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    bandLimits = limits.clone();
+                    bandTimes = new long[limits.length + 1];
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
+            /**
+             * Gets the limits of the bands for the time-in-band histogram.
+             *
+             * @return the limits, in ascending order (empty for a single band).
+             */
+            public double[] getBandLimits()
+            {
+                return bandLimits.clone();
+            }
+
+
+            /**
+             * Writes the accumulated statistics (not the enabled state) in a compact binary form, with the duration in milliseconds.
+             *
+             * @param out the DataOutput to write to.
+             *
+             * @throws IOException if writing fails.
+             */
+            protected void writeTo(DataOutput out) throws IOException
+            {
+                long stamp = lock.readLock();
+
+                try
+                {
+                    out.writeLong(samples);
+                    out.writeLong(gaps);
+                    out.writeLong(durationStart);
+                    out.writeLong(duration);
+                    out.writeDouble((minimum == null) ? Double.NaN : minimum);
+                    out.writeDouble((maximum == null) ? Double.NaN : maximum);
+                    out.writeDouble(scaledSum / SUM_SCALE);
+                    out.writeLong(weightedTime);
+                    out.writeDouble(integral);
+                    out.writeInt(bandTimes.length);
+
+                    for (long bandTime : bandTimes)
+                    {
+                        out.writeLong(bandTime);
+                    }
+                }
+                finally
+                {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+
+            /**
+             * Replaces the accumulated statistics with those read from {@link #writeTo(DataOutput)}. Does not change the "enabled" parameter.
+             * <p>
+             * If any samples were restored, the time since they were written is marked as a gap. The time-in-band histogram is only restored if it
+             * has the same number of bands as when written.
+             *
+             * @param in the DataInput to read from.
+             *
+             * @throws IOException if reading fails.
+             */
+            protected void readFrom(DataInput in) throws IOException
+            {
+                // Read before locking, so a slow stream does not block updates.
+                long newSamples = in.readLong();
+                long newGaps = in.readLong();
+                long newDurationStart = in.readLong();
+                long newDuration = in.readLong();
+                double newMinimum = in.readDouble();
+                double newMaximum = in.readDouble();
+                double newSum = in.readDouble();
+                long newWeightedTime = in.readLong();
+                double newIntegral = in.readDouble();
+                long[] newBandTimes = new long[in.readInt()];
+
+                for (int i = 0; i < newBandTimes.length; i ++)
+                {
+                    newBandTimes[i] = in.readLong();
+                }
+
+                long stamp = lock.writeLock();
+
+                try
+                {
+                    samples = newSamples;
+                    gaps = newGaps;
+                    durationStart = newDurationStart;
+                    duration = newDuration;
+                    scaledSum = Math.round(newSum * SUM_SCALE);
+
+                    holding = false;
+                    weightedTime = newWeightedTime;
+                    integral = newIntegral;
+
+                    if (newBandTimes.length == bandTimes.length)
+                    {
+                        System.arraycopy(newBandTimes, 0, bandTimes, 0, bandTimes.length);
+                    }
+                    else
+                    {
+                        Arrays.fill(bandTimes, 0L);
+                    }
+
+                    // Carry on from the wall-clock start, so the duration includes the time since writing (the only use of wall-clock time).
+                    long sinceStart = Math.max(duration, System.currentTimeMillis() - durationStart);
+                    durationStartNanos = clock.getAsLong() - TimeUnit.MILLISECONDS.toNanos(sinceStart);
+
+                    if (samples > 0)
+                    {
+                        minimum = newMinimum;
+                        maximum = newMaximum;
+                        average = scaledSum / SUM_SCALE / samples;
+                        gaps += 1L;
+                    }
+                    else
+                    {
+                        minimum = null;
+                        maximum = null;
+                        average = null;
+                    }
+                }
+                finally
+                {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+
+            /**
+             * Gets all statistics as one consistent view, taken at a single point between updates.
+             * <p>
+             * Reading the individual getters one after another can mix values from different updates if the statistics are being updated on another
+             * thread. This does not block updates; if an update happens while reading, the read is retried under a lock.
+             *
+             * @return a consistent Snapshot of the statistics.
+             */
+            public Snapshot snapshot()
+            {
+                long stamp = lock.tryOptimisticRead();
+                Snapshot snapshot = new Snapshot(samples, gaps, durationStart, duration, minimum, maximum, average, weightedTime, integral, bandTimes.clone());
+
+                if ( ! lock.validate(stamp))
+                {
+                    stamp = lock.readLock();
+
+                    try
+                    {
+                        snapshot = new Snapshot(samples, gaps, durationStart, duration, minimum, maximum, average, weightedTime, integral, bandTimes.clone());
+                    }
+                    finally
+                    {
+                        lock.unlockRead(stamp);
+                    }
                 }
+
+                return snapshot;
             }
 
 
@@ -324,16 +841,27 @@ public final class Data
              */
             public Date getDurationStart()
             {
-                return durationStart;
+                return new Date(durationStart);
             }
 
 
             /**
-             * Gets the duration of statistics gathering in seconds.
+             * Gets the duration of statistics gathering in whole seconds.
              *
              * @return the length of time in seconds.
              */
             public Long getDuration()
+            {
+                return duration / 1000L;
+            }
+
+
+            /**
+             * Gets the duration of statistics gathering in milliseconds.
+             *
+             * @return the length of time in milliseconds.
+             */
+            public long getDurationMillis()
             {
                 return duration;
             }
@@ -371,6 +899,345 @@ public final class Data
                 return average;
             }
 
+
+            /**
+             * Gets the average of all samples weighted by how long each lasted, up to the latest sample.
+             * <p>
+             * Unlike {@link #getAverage()}, this is not skewed by missed samples or by the time of gaps.
+             *
+             * @return the time-weighted average, or null if less than two samples have been timed.
+             */
+            public Double getTimeWeightedAverage()
+            {
+                long stamp = lock.readLock();
+
+                try
+                {
+                    return (weightedTime == 0) ? null : integral / weightedTime * 1e9;
+                }
+                finally
+                {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+
+            /**
+             * Gets the integral of all samples over time, up to the latest sample (i.e. the CO2 exposure in ppm-seconds).
+             *
+             * @return the integral, in value-seconds.
+             */
+            public double getIntegral()
+            {
+                return integral;
+            }
+
+
+            /**
+             * Gets the time counted by the time-weighted statistics, which excludes gaps and time while disabled.
+             *
+             * @return the length of time in milliseconds.
+             */
+            public long getWeightedDurationMillis()
+            {
+                return TimeUnit.NANOSECONDS.toMillis(weightedTime);
+            }
+
+
+            /**
+             * Gets the time spent in each band set with {@link #setBands(double...)}, up to the latest sample.
+             *
+             * @return the time in milliseconds of each band, from the lowest.
+             */
+            public long[] getTimeInBands()
+            {
+                long stamp = lock.readLock();
+
+                try
+                {
+                    long[] times = new long[bandTimes.length];
+
+                    for (int i = 0; i < times.length; i ++)
+                    {
+                        times[i] = TimeUnit.NANOSECONDS.toMillis(bandTimes[i]);
+                    }
+
+                    return times;
+                }
+                finally
+                {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+
+            /**
+             * Gets the fraction of the time counted in the bands that was spent in a band (i.e. the time CO2 was at or above 1000 ppm). The time is
+             * counted from when the bands were set, so the fractions of all bands sum to 1.
+             *
+             * @param band the band, from 0 for the lowest.
+             *
+             * @return the fraction of time, from 0 to 1, or NaN if no time has been counted.
+             */
+            public double getBandFraction(int band)
+            {
+                long stamp = lock.readLock();
+
+                try
+                {
+                    long total = 0;
+
+                    for (long bandTime : bandTimes)
+                    {
+                        total += bandTime;
+                    }
+
+                    return (total == 0) ? Double.NaN : (double) bandTimes[band] / total;
+                }
+                finally
+                {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+
+            /**
+             * Starts measuring the duration from a time of the clock. Must be called with the write lock held.
+             *
+             * @param now the time of the clock, in nanoseconds.
+             */
+            private void startDuration(long now)
+            {
+                durationStart = System.currentTimeMillis();
+                durationStartNanos = now;
+            }
+
+
+            /**
+             * Gets the time since the duration started, without allocating. Must be called with the write lock held.
+             *
+             * @param now the time of the clock, in nanoseconds.
+             *
+             * @return the time in milliseconds.
+             */
+            private long elapsedMillis(long now)
+            {
+                return TimeUnit.NANOSECONDS.toMillis(now - durationStartNanos);
+            }
+
+
+            /**
+             * Counts the time the held value lasted, then holds a new value. Must be called with the write lock held.
+             *
+             * @param value the new value.
+             * @param now   the time of the clock, in nanoseconds.
+             */
+            private void hold(double value, long now)
+            {
+                if (holding)
+                {
+                    long interval = Math.min(now - holdStartNanos, holdLimit);
+
+                    if (interval > 0)
+                    {
+                        weightedTime += interval;
+                        integral += holdValue * interval / 1e9;
+
+                        // Few bands, so a linear search is quicker than a binary one.
+                        int band = 0;
+
+                        while ((band < bandLimits.length) && (holdValue >= bandLimits[band]))
+                        {
+                            band ++;
+                        }
+
+                        bandTimes[band] += interval;
+                    }
+                }
+
+                holding = true;
+                holdValue = value;
+                holdStartNanos = now;
+            }
+
+
+            /**
+             * An immutable, consistent view of all statistics at one point in time.
+             * <p>
+             * Values are primitive; the minimum, maximum, and average are NaN when there are no samples.
+             */
+            public static final class Snapshot
+            {
+                private final long samples;
+                private final long gaps;
+                private final long durationStart;
+                private final long duration;
+                private final double minimum;
+                private final double maximum;
+                private final double average;
+                private final long weightedTime;
+                private final double integral;
+                private final long[] bandTimes;
+
+
+                private Snapshot(long samples, long gaps, long durationStart, long duration, Double minimum, Double maximum, Double average,
+                        long weightedTime, double integral, long[] bandTimes)
+                {
+                    this.samples = samples;
+                    this.gaps = gaps;
+                    this.durationStart = durationStart;
+                    this.duration = duration;
+
+                    // May be read inconsistently (and discarded) by an optimistic read, so must not assume non-null.
+                    this.minimum = (minimum == null) ? Double.NaN : minimum;
+                    this.maximum = (maximum == null) ? Double.NaN : maximum;
+                    this.average = (average == null) ? Double.NaN : average;
+                    this.weightedTime = weightedTime;
+                    this.integral = integral;
+                    this.bandTimes = bandTimes;
+                }
+
+
+                /**
+                 * Gets the number of samples used to calculate statistics.
+                 *
+                 * @return the number of samples.
+                 */
+                public long getSamples()
+                {
+                    return samples;
+                }
+
+
+                /**
+                 * Gets the number of gaps in the statistics, where samples were missed due to a lost connection.
+                 *
+                 * @return the number of gaps.
+                 */
+                public long getGaps()
+                {
+                    return gaps;
+                }
+
+
+                /**
+                 * Gets the date-time of when the statistics began, in milliseconds since the epoch.
+                 *
+                 * @return the date-time when statistics began.
+                 */
+                public long getDurationStart()
+                {
+                    return durationStart;
+                }
+
+
+                /**
+                 * Gets the duration of statistics gathering in whole seconds.
+                 *
+                 * @return the length of time in seconds.
+                 */
+                public long getDuration()
+                {
+                    return duration / 1000L;
+                }
+
+
+                /**
+                 * Gets the duration of statistics gathering in milliseconds.
+                 *
+                 * @return the length of time in milliseconds.
+                 */
+                public long getDurationMillis()
+                {
+                    return duration;
+                }
+
+
+                /**
+                 * Gets the minimum value of all samples.
+                 *
+                 * @return the minimum value, or NaN if there are no samples.
+                 */
+                public double getMinimum()
+                {
+                    return minimum;
+                }
+
+
+                /**
+                 * Gets the maximum value of all samples.
+                 *
+                 * @return the maximum value, or NaN if there are no samples.
+                 */
+                public double getMaximum()
+                {
+                    return maximum;
+                }
+
+
+                /**
+                 * Gets the average of all samples.
+                 *
+                 * @return the average of all samples, or NaN if there are no samples.
+                 */
+                public double getAverage()
+                {
+                    return average;
+                }
+
+
+                /**
+                 * Gets the average of all samples weighted by how long each lasted.
+                 *
+                 * @return the time-weighted average, or NaN if less than two samples have been timed.
+                 */
+                public double getTimeWeightedAverage()
+                {
+                    return (weightedTime == 0) ? Double.NaN : integral / weightedTime * 1e9;
+                }
+
+
+                /**
+                 * Gets the integral of all samples over time.
+                 *
+                 * @return the integral, in value-seconds.
+                 */
+                public double getIntegral()
+                {
+                    return integral;
+                }
+
+
+                /**
+                 * Gets the time counted by the time-weighted statistics, which excludes gaps and time while disabled.
+                 *
+                 * @return the length of time in milliseconds.
+                 */
+                public long getWeightedDurationMillis()
+                {
+                    return TimeUnit.NANOSECONDS.toMillis(weightedTime);
+                }
+
+
+                /**
+                 * Gets the time spent in each band of the time-in-band histogram.
+                 *
+                 * @return the time in milliseconds of each band, from the lowest.
+                 */
+                public long[] getTimeInBands()
+                {
+                    long[] times = new long[bandTimes.length];
+
+                    for (int i = 0; i < times.length; i ++)
+                    {
+                        times[i] = TimeUnit.NANOSECONDS.toMillis(bandTimes[i]);
+                    }
+
+                    return times;
+                }
+
+            }
+
         }
 
 
@@ -421,14 +1288,58 @@ public final class Data
             this.valueVerbatim = value;
             this.value = value.trim();
 
-            // Update statistics if value is numeric...
+            // Update statistics and history if value is numeric...
             if (isNumeric(this.value))
             {
-                statistics.update(Double.parseDouble(this.value));
+                double number = Double.parseDouble(this.value);
+                statistics.update(number);
+
+                History currentHistory = history;
+
+                if (currentHistory != null)
+                {
+                    currentHistory.add(number);
+                }
             }
         }
 
 
+        /**
+         * Starts keeping a history of the recent numeric values, replacing any existing history.
+         *
+         * @param capacity the maximum number of values kept.
+         *
+         * @return the History.
+         */
+        public History enableHistory(int capacity)
+        {
+            History newHistory = new History(capacity);
+            history = newHistory;
+
+            return newHistory;
+        }
+
+
+        /**
+         * Stops keeping a history of the recent values.
+         */
+        public void disableHistory()
+        {
+            history = null;
+        }
+
+
+        /**
+         * Gets the history of the recent numeric values.
+         *
+         * @return the History, or null if not enabled.
+         */
+        public History getHistory()
+        {
+            return history;
+        }
+
+
         /**
          * Gets the value represented as a String that resembles what is displayed on the LCD.
          *
@@ -462,11 +1373,11 @@ public final class Data
         /**
          * Gets the value as a Double if numerical, otherwise returns null.
          *
-         * @return a Double value if numerical, or null if not-numerical.
+         * @return a Double value if numerical, or null if not-numerical or not received yet.
          */
         public Double getValueDouble()
         {
-            if (isNumeric(value))
+            if ((value != null) && isNumeric(value))
             {
                 return Double.parseDouble(value);
             }
@@ -0,0 +1,336 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Filters the readings of a meter down to those that matter, so listeners downstream (i.e. persistence and export) see far fewer events.
+ *
+ * <p>
+ * A reading is passed on to the filter's EventListeners only when a channel has moved beyond its deadband since the last reading passed on, a
+ * channel has changed between numeric and non-numeric, or the heartbeat interval has passed (so listeners can tell a steady meter from a silent one).
+ * Other events (i.e. connection lost) are always passed on. The number of readings passed on and suppressed is recorded.
+ *
+ * <p>
+ * By default the deadband of every channel is 0, so only readings with a changed value are passed on, and the heartbeat is 60 seconds.
+ *
+ * @author Darian Cabot
+ */
+public final class DeadbandFilter
+{
+    private static final Channel[] CHANNELS = Channel.values();
+
+    private final ExtechCO250 device;
+    private final LongSupplier clock;
+    private final Input input = new Input();
+    private final List<EventListener> eventListeners = new CopyOnWriteArrayList<>();
+
+    private final double[] deadbands = new double[CHANNELS.length];
+    private volatile long heartbeat = 60000;
+
+    // Only used on the decoding thread.
+    private final double[] values = new double[CHANNELS.length];
+    private final double[] lastValues = new double[CHANNELS.length];
+    private volatile boolean hasLast;
+    private long lastTime;
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder heartbeats = new LongAdder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Starts filtering the readings of a meter.
+     *
+     * @param device the meter
+     */
+    public DeadbandFilter(ExtechCO250 device)
+    {
+        this(device, () -> System.nanoTime() / 1000000L);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Starts filtering the readings of a meter.
+     *
+     * @param device the meter
+     * @param clock  a monotonic time source in milliseconds
+     */
+    DeadbandFilter(ExtechCO250 device, LongSupplier clock)
+    {
+        this.device = device;
+        this.clock = clock;
+
+        device.addEventListener(input);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops filtering the readings of the meter. The filter's EventListeners are no longer notified.
+     */
+    public void close()
+    {
+        device.removeEventListener(input);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the meter being filtered.
+     *
+     * @return the meter.
+     */
+    public ExtechCO250 getDevice()
+    {
+        return device;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how far a channel must move from the last reading passed on before a reading is passed on again.
+     *
+     * @param channel  the channel
+     * @param deadband the deadband, in the channel's unit (0 to pass on any change)
+     */
+    public void setDeadband(Channel channel, double deadband)
+    {
+        if ( ! (deadband >= 0))
+        {
+            throw new IllegalArgumentException("Deadband must not be negative.");
+        }
+
+        deadbands[channel.ordinal()] = deadband;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the longest time between readings passed on, even if nothing has changed.
+     *
+     * @param heartbeat the heartbeat interval in milliseconds, or 0 to disable
+     */
+    public void setHeartbeat(long heartbeat)
+    {
+        this.heartbeat = heartbeat;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds an EventListener to be notified of the readings passed on by the filter.
+     *
+     * @param eventListener An EventListener Object to be notified
+     */
+    public void addEventListener(EventListener eventListener)
+    {
+        eventListeners.add(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes an EventListener previously added with {@link #addEventListener(EventListener)}.
+     *
+     * @param eventListener The EventListener Object to be removed
+     */
+    public void removeEventListener(EventListener eventListener)
+    {
+        eventListeners.remove(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings passed on, including heartbeats.
+     *
+     * @return the number of readings passed on.
+     */
+    public long getPassed()
+    {
+        return passed.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings passed on only because the heartbeat interval had passed.
+     *
+     * @return the number of heartbeats.
+     */
+    public long getHeartbeats()
+    {
+        return heartbeats.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings suppressed.
+     *
+     * @return the number of readings suppressed.
+     */
+    public long getSuppressed()
+    {
+        return suppressed.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the proportion of readings suppressed.
+     *
+     * @return the proportion of readings suppressed, between 0 and 1, or 0 if there have been no readings.
+     */
+    public double getSuppressionRatio()
+    {
+        long suppressedCount = suppressed.sum();
+        long total = suppressedCount + passed.sum();
+
+        return (total == 0) ? 0 : (double) suppressedCount / total;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Checks the current reading of the meter, and records it as the last reading passed on if it is to be.
+     *
+     * @return true if the reading is to be passed on.
+     */
+    private boolean accept()
+    {
+        long now = clock.getAsLong();
+        boolean changed = ! hasLast;
+
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            Double value = device.data.getValue(CHANNELS[c]).getValueDouble();
+            values[c] = (value == null) ? Double.NaN : value;
+
+            // NaN (not numeric) only matches NaN.
+            if ((Double.isNaN(values[c]) != Double.isNaN(lastValues[c])) || (Math.abs(values[c] - lastValues[c]) > deadbands[c]))
+            {
+                changed = true;
+            }
+        }
+
+        long interval = heartbeat;
+        boolean heartbeatDue = (interval > 0) && (now - lastTime >= interval);
+
+        if ( ! changed && ! heartbeatDue)
+        {
+            suppressed.increment();
+            return false;
+        }
+
+        System.arraycopy(values, 0, lastValues, 0, values.length);
+        hasLast = true;
+        lastTime = now;
+        passed.increment();
+
+        if ( ! changed)
+        {
+            heartbeats.increment();
+        }
+
+        return true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void notifyEventListeners(Consumer<EventListener> event)
+    {
+        for (EventListener eventListener : eventListeners)
+        {
+            event.accept(eventListener);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Receives the meter's events, and passes on those that get through the filter.
+     */
+    private final class Input implements EventListener
+    {
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            if (accept())
+            {
+                notifyEventListeners(EventListener::dataUpdateEvent);
+            }
+        }
+
+
+        @Override
+        public void connectionLostEvent()
+        {
+            notifyEventListeners(EventListener::connectionLostEvent);
+        }
+
+
+        @Override
+        public void connectionRestoredEvent()
+        {
+            // Pass on the first reading after the gap, whatever it is.
+            hasLast = false;
+            notifyEventListeners(EventListener::connectionRestoredEvent);
+        }
+
+
+        @Override
+        public void deviceStaleEvent(String portName)
+        {
+            notifyEventListeners(listener -> listener.deviceStaleEvent(portName));
+        }
+
+
+        @Override
+        public void anomalyEvent(Channel channel, AnomalyDetector.Anomaly anomaly, double value)
+        {
+            notifyEventListeners(listener -> listener.anomalyEvent(channel, anomaly, value));
+        }
+
+
+        @Override
+        public void airChangeRateEvent(VentilationEstimator.Estimate estimate)
+        {
+            notifyEventListeners(listener -> listener.airChangeRateEvent(estimate));
+        }
+
+    }
+
+}
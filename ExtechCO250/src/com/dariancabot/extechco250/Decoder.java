@@ -27,6 +27,9 @@ import com.dariancabot.extechco250.Data.Value.Unit.Measurement;
 import com.dariancabot.extechco250.exceptions.ProtocolException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 
 /**
@@ -37,12 +40,15 @@ import java.util.Arrays;
 public final class Decoder
 {
     private final Data data;
-    private EventListener eventListener;
+    private volatile EventListener eventListener;
+    private final List<EventListener> eventListeners = new CopyOnWriteArrayList<>();
+    private final List<PacketFramer.Handler> packetHandlers = new CopyOnWriteArrayList<>();
 
     private static final byte PACKET_PREAMBLE_START_BYTE = 0x24; // Dollar sign.
     private static final int PACKET_PREAMBLE_LENGTH = 20; // Preamble length excluding line break bytes.
     private static final byte PACKET_END_BYTE_1 = 0x0D;
     private static final byte PACKET_END_BYTE_2 = 0x0A;
+    private static final String PACKET_PREAMBLE = "CO2:Air:RH:DP:WBT";
 
 
     //-----------------------------------------------------------------------
@@ -68,18 +74,66 @@ public final class Decoder
      */
     public void decodePacket(byte[] packet) throws ProtocolException
     {
-        // Remove line break charcters (if found).
-        if ((packet.length >= 2)
-                && (packet[packet.length - 2] == PACKET_END_BYTE_1)
-                && (packet[packet.length - 1] == PACKET_END_BYTE_2))
+        // Pass on the raw packet first, so it is forwarded even if it fails to decode.
+        for (PacketFramer.Handler handler : packetHandlers)
         {
-            // Overwrite packet excluding the last 2 bytes.
-            packet = Arrays.copyOfRange(packet, 0, packet.length - 2);
+            handler.packetFramed(packet);
+        }
+
+        Object event = FlightEvents.AVAILABLE ? FlightEvents.beginPacketDecoded() : null;
+        String result = null;
+
+        boolean isReading;
+
+        try
+        {
+            isReading = decode(packet);
+            result = isReading ? "Reading" : "Preamble";
+        }
+        catch (RuntimeException ex)
+        {
+            result = ex.getMessage();
+            throw ex;
+        }
+        finally
+        {
+            if (event != null)
+            {
+                FlightEvents.endPacketDecoded(event, result, packet.length);
+            }
+        }
+
+        if (isReading)
+        {
+            // Notify using the event listeners if any are set.
+            notifyEventListeners(EventListener::dataUpdateEvent);
         }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a complete serial packet, updating the Data object.
+     *
+     * @param packet The packet as a byte array.
+     *
+     * @return true if the packet was a line of values, false if it was the preamble.
+     *
+     * @throws ProtocolException If the packet is invalid or unable to decode.
+     */
+    private boolean decode(byte[] packet) throws ProtocolException
+    {
+        // Remove line break charcters (if found).
+        packet = stripLineBreak(packet);
 
         // Verfiy the checksum.
         if ( ! checksumValid(packet))
         {
+            if (FlightEvents.AVAILABLE)
+            {
+                FlightEvents.checksumFailure(packet);
+            }
+
             ProtocolException ex = new ProtocolException("Decode error: Packet checksum is invalid.");
             throw ex;
         }
@@ -101,11 +155,13 @@ public final class Decoder
             // Check this line is as expected for CO250.
             String preamble = new String(packet, Charset.forName("US-ASCII"));
 
-            if ( ! preamble.contains("CO2:Air:RH:DP:WBT"))
+            if ( ! preamble.contains(PACKET_PREAMBLE))
             {
                 ProtocolException ex = new ProtocolException("Decode error: Packet preamble (" + preamble + ") does not match compatible Extech CO250 device.");
                 throw ex;
             }
+
+            return false;
         }
         else
         {
@@ -191,12 +247,55 @@ public final class Decoder
                 }
             }
 
-            // Notify using the event listener if one is set.
-            if (eventListener != null)
-            {
-                eventListener.dataUpdateEvent();
-            }
+            return true;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Determines if a packet is the preamble/description line sent by a compatible Extech CO250 meter.
+     *
+     * <p>
+     * This applies the same checks as {@link #decodePacket(byte[])}, without updating any Data or throwing an exception, so it may be used to identify
+     * a meter on an unknown Serial Port.
+     *
+     * @param packet The packet as a byte array, with or without line break bytes.
+     *
+     * @return true if the packet is a valid Extech CO250 preamble, otherwise false.
+     */
+    public static boolean isCompatiblePreamble(byte[] packet)
+    {
+        packet = stripLineBreak(packet);
+
+        if ((packet.length != PACKET_PREAMBLE_LENGTH) || (packet[0] != PACKET_PREAMBLE_START_BYTE) || ( ! checksumValid(packet)))
+        {
+            return false;
         }
+
+        return new String(packet, Charset.forName("US-ASCII")).contains(PACKET_PREAMBLE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes the line break bytes from the end of a packet (if found).
+     *
+     * @param packet The packet as a byte array.
+     *
+     * @return the packet without line break bytes.
+     */
+    private static byte[] stripLineBreak(byte[] packet)
+    {
+        if ((packet.length >= 2)
+                && (packet[packet.length - 2] == PACKET_END_BYTE_1)
+                && (packet[packet.length - 1] == PACKET_END_BYTE_2))
+        {
+            // Overwrite packet excluding the last 2 bytes.
+            return Arrays.copyOfRange(packet, 0, packet.length - 2);
+        }
+
+        return packet;
     }
 
 
@@ -208,7 +307,7 @@ public final class Decoder
      *
      * @return true if the checksum is correct, otherwise false.
      */
-    private boolean checksumValid(byte[] data)
+    private static boolean checksumValid(byte[] data)
     {
         int intChecksum = 0;
 
@@ -246,4 +345,97 @@ public final class Decoder
         this.eventListener = eventListener;
     }
 
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds an EventListener to be notified when data is received over the Serial Port, in addition to the one set with
+     * {@link #setEventListener(EventListener)}.
+     *
+     * @param eventListener An EventListener Object to be notified when data is received
+     */
+    public void addEventListener(EventListener eventListener)
+    {
+        eventListeners.add(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes an EventListener previously added with {@link #addEventListener(EventListener)}.
+     *
+     * @param eventListener The EventListener Object to be removed
+     */
+    public void removeEventListener(EventListener eventListener)
+    {
+        eventListeners.remove(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a Handler to be passed each raw packet before it is decoded, including packets that fail to decode. The Handler must not modify the
+     * packet.
+     *
+     * @param handler the Handler to be added
+     */
+    void addPacketHandler(PacketFramer.Handler handler)
+    {
+        packetHandlers.add(handler);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a Handler previously added with {@link #addPacketHandler(PacketFramer.Handler)}.
+     *
+     * @param handler the Handler to be removed
+     */
+    void removePacketHandler(PacketFramer.Handler handler)
+    {
+        packetHandlers.remove(handler);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Notifies all EventListeners of an event. Added listeners are notified first, then the listener set with
+     * {@link #setEventListener(EventListener)}.
+     *
+     * @param event the event to be passed to each EventListener
+     */
+    void notifyEventListeners(Consumer<EventListener> event)
+    {
+        for (EventListener listener : eventListeners)
+        {
+            dispatch(listener, event);
+        }
+
+        EventListener listener = eventListener;
+
+        if (listener != null)
+        {
+            dispatch(listener, event);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static void dispatch(EventListener listener, Consumer<EventListener> event)
+    {
+        Object dispatch = FlightEvents.AVAILABLE ? FlightEvents.beginListenerDispatch() : null;
+
+        try
+        {
+            event.accept(listener);
+        }
+        finally
+        {
+            // Recorded even if the EventListener throws, as those are the ones worth seeing.
+            if (dispatch != null)
+            {
+                FlightEvents.endListenerDispatch(dispatch, listener.getClass());
+            }
+        }
+    }
+
 }
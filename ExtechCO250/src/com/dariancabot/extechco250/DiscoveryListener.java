@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+
+/**
+ * The DiscoveryListener interface is used to notify of Extech CO250 meters appearing on, or disappearing from, the host system Serial Ports.
+ *
+ * @author Darian Cabot
+ * @see PortDiscovery
+ */
+public interface DiscoveryListener
+{
+
+    /**
+     * This method is called when a Serial Port is identified as having an Extech CO250 meter attached.
+     *
+     * @param portName the name of the Serial Port (i.e. "COM3")
+     */
+    public void deviceFoundEvent(String portName);
+
+
+    /**
+     * This method is called when a Serial Port previously identified as having an Extech CO250 meter attached is no longer present on the host system.
+     *
+     * @param portName the name of the Serial Port (i.e. "COM3")
+     */
+    public void deviceLostEvent(String portName);
+
+}
@@ -40,4 +40,67 @@ public interface EventListener
      */
     public void dataUpdateEvent();
 
+
+    /**
+     * This method is called when the connection to the DMM has been lost, either due to a Serial Port error or no data being received.
+     *
+     * <p>
+     * Only called for connections monitored by a {@link ConnectionSupervisor}. Does nothing by default.
+     */
+    public default void connectionLostEvent()
+    {
+    }
+
+
+    /**
+     * This method is called when the connection to the DMM has been re-established after being lost.
+     *
+     * <p>
+     * Only called for connections monitored by a {@link ConnectionSupervisor}. Does nothing by default.
+     */
+    public default void connectionRestoredEvent()
+    {
+    }
+
+
+    /**
+     * This method is called when the DMM has stopped sending data, having missed the expected number of packets.
+     *
+     * <p>
+     * Only called for meters monitored by a {@link StaleWatchdog}. Called once each time the meter goes quiet. Does nothing by default.
+     *
+     * @param portName the name of the Serial Port the meter is connected to (i.e. "COM3")
+     */
+    public default void deviceStaleEvent(String portName)
+    {
+    }
+
+
+    /**
+     * This method is called when a reading from the DMM looks like a sensor fault or an unusual event (i.e. a sudden CO2 spike).
+     *
+     * <p>
+     * Only called for meters monitored by an {@link AnomalyDetector}, after {@link #dataUpdateEvent()}. Does nothing by default.
+     *
+     * @param channel the channel of the reading
+     * @param anomaly the kind of anomaly
+     * @param value   the value of the reading
+     */
+    public default void anomalyEvent(Data.Channel channel, AnomalyDetector.Anomaly anomaly, double value)
+    {
+    }
+
+
+    /**
+     * This method is called with a new estimate of the air change rate of the room, while the CO2 decays after occupancy drops.
+     *
+     * <p>
+     * Only called for meters monitored by a {@link VentilationEstimator}, after {@link #dataUpdateEvent()}. Does nothing by default.
+     *
+     * @param estimate the estimate of the air change rate
+     */
+    public default void airChangeRateEvent(VentilationEstimator.Estimate estimate)
+    {
+    }
+
 }
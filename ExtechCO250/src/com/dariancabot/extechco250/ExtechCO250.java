@@ -42,9 +42,11 @@ public final class ExtechCO250
     private Communications communications;
     private SerialPort serialPort;
     private final Decoder decoder;
+    private final TrafficRecorder trafficRecorder = new TrafficRecorder();
 
     private String[] portNames;
-    private boolean isConnected;
+    private volatile boolean isConnected;
+    private volatile Runnable portErrorHandler;
 
     /**
      * Stores all of the readings data, both most recent and statistical.
@@ -67,6 +69,8 @@ public final class ExtechCO250
     //-----------------------------------------------------------------------
     /**
      * Gets the found available Serial Port on the host system.
+     * <p>
+     * This rescans on every call and does not identify which ports have a meter attached. To find meters, use {@link PortDiscovery}.
      *
      * @return a String array of available Serial Ports, empty array if none found.
      */
@@ -133,11 +137,11 @@ public final class ExtechCO250
             {
                 serialPort.closePort();
                 isConnected = false;
-                data.co2Value.statistics.setEnabled(false);
-                data.dbtValue.statistics.setEnabled(false);
-                data.rhValue.statistics.setEnabled(false);
-                data.dptValue.statistics.setEnabled(false);
-                data.wbtValue.statistics.setEnabled(false);
+
+                for (Data.Value value : data.getValues())
+                {
+                    value.statistics.setEnabled(false);
+                }
             }
             catch (SerialPortException spe)
             {
@@ -147,6 +151,100 @@ public final class ExtechCO250
     }
 
 
+    //-----------------------------------------------------------------------
+    /**
+     * Re-opens the Serial Port connection after it has been lost, using the same port as the last connection.
+     * <p>
+     * Unlike {@link #connectSerialPort(String)}, this does not change the enabled state of the statistics, so they continue across the reconnect.
+     *
+     * @return true if connection successful, otherwise false.
+     */
+    public boolean reconnectSerialPort()
+    {
+        if (( ! isConnected) && (serialPort != null))
+        {
+            serialPort = new SerialPort(serialPort.getPortName());
+            initialiseSerialReader();
+
+            return openSerialPort();
+        }
+
+        return false;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Closes a lost Serial Port connection, ignoring any errors.
+     * <p>
+     * The statistics remain enabled so they continue after {@link #reconnectSerialPort()}; the caller marks the gap.
+     */
+    void dropSerialPort()
+    {
+        if (isConnected)
+        {
+            isConnected = false;
+
+            try
+            {
+                serialPort.closePort();
+            }
+            catch (SerialPortException spe)
+            {
+                // The port has most likely gone already (i.e. adapter unplugged).
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the handler to be called when the Serial Port reports an error (i.e. adapter unplugged), on the thread receiving from the port.
+     *
+     * @param handler the handler, or null for none
+     */
+    void setPortErrorHandler(Runnable handler)
+    {
+        this.portErrorHandler = handler;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void portError()
+    {
+        Runnable handler = portErrorHandler;
+
+        if (handler != null)
+        {
+            handler.run();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the connection status.
+     *
+     * @return true if the Serial Port is connected.
+     */
+    public boolean isConnected()
+    {
+        return isConnected;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the name of the Serial Port used for the current or last connection.
+     *
+     * @return the Serial Port name (i.e. "COM3"), or null if never connected.
+     */
+    public String getPortName()
+    {
+        return (serialPort == null) ? null : serialPort.getPortName();
+    }
+
+
     //-----------------------------------------------------------------------
     private void initialiseSerialReader()
     {
@@ -156,12 +254,29 @@ public final class ExtechCO250
             return;
         }
 
-        communications = new Communications(serialPort, decoder);
+        communications = new Communications(serialPort, decoder, trafficRecorder, this::portError);
     }
 
 
     //-----------------------------------------------------------------------
     private boolean connectSerialPort()
+    {
+        if ( ! openSerialPort())
+        {
+            return false;
+        }
+
+        for (Data.Value value : data.getValues())
+        {
+            value.statistics.setEnabled(true);
+        }
+
+        return true;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private boolean openSerialPort()
     {
         try
         {
@@ -174,17 +289,26 @@ public final class ExtechCO250
             System.out.println("Connected to serial port: " + serialPort.getPortName() + ".");
 
             isConnected = true;
-            data.co2Value.statistics.setEnabled(true);
-            data.dbtValue.statistics.setEnabled(true);
-            data.rhValue.statistics.setEnabled(true);
-            data.dptValue.statistics.setEnabled(true);
-            data.wbtValue.statistics.setEnabled(true);
 
             return true;
         }
         catch (SerialPortException ex)
         {
             System.err.println(ex);
+
+            // Don't leave a half-configured port open.
+            if (serialPort.isOpened())
+            {
+                try
+                {
+                    serialPort.closePort();
+                }
+                catch (SerialPortException cex)
+                {
+                    System.err.println("Error closing Serial Port: " + cex.getMessage());
+                }
+            }
+
             return false;
         }
     }
@@ -201,4 +325,53 @@ public final class ExtechCO250
         this.decoder.setEventListener(eventListener);
     }
 
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds an EventListener to be notified when data is received over the Serial Port, in addition to the one set with
+     * {@link #setEventListener(EventListener)}.
+     *
+     * @param eventListener An EventListener Object to be notified when data is received
+     */
+    public void addEventListener(EventListener eventListener)
+    {
+        this.decoder.addEventListener(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes an EventListener previously added with {@link #addEventListener(EventListener)}.
+     *
+     * @param eventListener The EventListener Object to be removed
+     */
+    public void removeEventListener(EventListener eventListener)
+    {
+        this.decoder.removeEventListener(eventListener);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the Decoder used by this meter.
+     *
+     * @return the Decoder
+     */
+    Decoder getDecoder()
+    {
+        return decoder;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the recorder of the raw bytes received from the meter, which keeps the last bytes across reconnects for diagnosing protocol problems.
+     *
+     * @return the TrafficRecorder
+     */
+    public TrafficRecorder getTrafficRecorder()
+    {
+        return trafficRecorder;
+    }
+
 }
@@ -0,0 +1,468 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Aggregates readings across many meters, for named groups (i.e. a building or floor) and arbitrary collections of meters.
+ *
+ * <p>
+ * Each registered meter keeps a mergeable partial {@link Summary} per channel, and each group keeps a Summary per channel; both are updated
+ * incrementally as each reading is decoded. Summaries for any other collection of meters are combined from the partial summaries in parallel on a
+ * fork/join pool.
+ *
+ * @author Darian Cabot
+ */
+public final class FleetAggregator
+{
+    private static final int MERGE_THRESHOLD = 64; // Meters merged sequentially per fork/join task.
+
+    private static final Channel[] CHANNELS = Channel.values();
+
+    private final ForkJoinPool pool;
+    private final Map<ExtechCO250, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, Summary[]> groups = new ConcurrentHashMap<>();
+
+    // Readings are added under the read lock (concurrently); rebuilding groups takes the write lock.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Uses the common fork/join pool.
+     */
+    public FleetAggregator()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param pool the fork/join pool used to combine summaries
+     */
+    public FleetAggregator(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates an empty Summary with a histogram layout suitable for a channel.
+     *
+     * @param channel the channel
+     *
+     * @return a new empty Summary.
+     */
+    public static Summary newSummary(Channel channel)
+    {
+        switch (channel)
+        {
+            case CO2:
+                return new Summary(0, 10000, 400); // 25 ppm bins.
+            case RH:
+                return new Summary(0, 100, 200); // 0.5 % bins.
+            default:
+                return new Summary(-20, 60, 320); // 0.25 degree bins.
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Registers a meter, and the groups it belongs to. Readings are aggregated from when the meter is registered.
+     *
+     * @param device     the meter
+     * @param groupNames the names of the groups the meter belongs to (i.e. "Building A", "Building A/Level 3")
+     */
+    public void register(ExtechCO250 device, String... groupNames)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            if (members.containsKey(device))
+            {
+                throw new IllegalArgumentException("Meter is already registered.");
+            }
+
+            Summary[][] memberGroups = new Summary[groupNames.length][];
+
+            for (int i = 0; i < groupNames.length; i ++)
+            {
+                memberGroups[i] = groups.computeIfAbsent(groupNames[i], name -> newSummaries());
+            }
+
+            Member member = new Member(device, groupNames.clone(), memberGroups);
+            members.put(device, member);
+            device.addEventListener(member);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Unregisters a meter. Its readings are removed from its groups.
+     *
+     * @param device the meter
+     */
+    public void unregister(ExtechCO250 device)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            Member member = members.remove(device);
+
+            if (member == null)
+            {
+                return;
+            }
+
+            device.removeEventListener(member);
+
+            // Summaries can't be subtracted from, so rebuild the groups from the remaining meters.
+            for (String groupName : member.groupNames)
+            {
+                Summary[] group = groups.get(groupName);
+                List<Member> remaining = new ArrayList<>();
+
+                for (Member other : members.values())
+                {
+                    if (other.isInGroup(groupName))
+                    {
+                        remaining.add(other);
+                    }
+                }
+
+                if (remaining.isEmpty())
+                {
+                    groups.remove(groupName);
+                    continue;
+                }
+
+                for (Channel channel : CHANNELS)
+                {
+                    Summary rebuilt = pool.invoke(new MergeTask(remaining, 0, remaining.size(), channel));
+
+                    synchronized (group[channel.ordinal()])
+                    {
+                        group[channel.ordinal()].clear();
+                        group[channel.ordinal()].merge(rebuilt);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Clears all meter and group summaries, to start a new aggregation period.
+     */
+    public void reset()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            for (Member member : members.values())
+            {
+                for (Summary summary : member.partials)
+                {
+                    synchronized (summary)
+                    {
+                        summary.clear();
+                    }
+                }
+            }
+
+            for (Summary[] group : groups.values())
+            {
+                for (Summary summary : group)
+                {
+                    synchronized (summary)
+                    {
+                        summary.clear();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the summary of a channel for a single meter.
+     *
+     * @param device  the meter
+     * @param channel the channel
+     *
+     * @return a copy of the Summary, or null if the meter is not registered.
+     */
+    public Summary getDeviceSummary(ExtechCO250 device, Channel channel)
+    {
+        Member member = members.get(device);
+
+        if (member == null)
+        {
+            return null;
+        }
+
+        Summary summary = member.partials[channel.ordinal()];
+
+        synchronized (summary)
+        {
+            return new Summary(summary);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the summary of a channel for a group. This is maintained incrementally, so is O(1).
+     *
+     * @param groupName the name of the group
+     * @param channel   the channel
+     *
+     * @return a copy of the Summary, or null if there is no such group.
+     */
+    public Summary getGroupSummary(String groupName, Channel channel)
+    {
+        Summary[] group = groups.get(groupName);
+
+        if (group == null)
+        {
+            return null;
+        }
+
+        Summary summary = group[channel.ordinal()];
+
+        synchronized (summary)
+        {
+            return new Summary(summary);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Combines the summaries of a channel for any collection of registered meters, in parallel.
+     *
+     * @param devices the meters; meters that are not registered are ignored
+     * @param channel the channel
+     *
+     * @return the combined Summary.
+     */
+    public Summary aggregate(Collection<ExtechCO250> devices, Channel channel)
+    {
+        List<Member> selected = new ArrayList<>(devices.size());
+
+        for (ExtechCO250 device : devices)
+        {
+            Member member = members.get(device);
+
+            if (member != null)
+            {
+                selected.add(member);
+            }
+        }
+
+        return pool.invoke(new MergeTask(selected, 0, selected.size(), channel));
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static Summary[] newSummaries()
+    {
+        Summary[] summaries = new Summary[CHANNELS.length];
+
+        for (Channel channel : CHANNELS)
+        {
+            summaries[channel.ordinal()] = newSummary(channel);
+        }
+
+        return summaries;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Merges the partial summaries of a range of meters, splitting large ranges in two.
+     */
+    private static final class MergeTask extends RecursiveTask<Summary>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Member> members;
+        private final int from;
+        private final int to;
+        private final Channel channel;
+
+
+        MergeTask(List<Member> members, int from, int to, Channel channel)
+        {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+            this.channel = channel;
+        }
+
+
+        @Override
+        protected Summary compute()
+        {
+            if (to - from <= MERGE_THRESHOLD)
+            {
+                Summary result = newSummary(channel);
+
+                for (int i = from; i < to; i ++)
+                {
+                    Summary partial = members.get(i).partials[channel.ordinal()];
+
+                    synchronized (partial)
+                    {
+                        result.merge(partial);
+                    }
+                }
+
+                return result;
+            }
+
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(members, from, middle, channel);
+            left.fork();
+
+            Summary result = new MergeTask(members, middle, to, channel).compute();
+            result.merge(left.join());
+
+            return result;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A registered meter, updating its partial summaries and groups as readings are decoded.
+     */
+    private final class Member implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final String[] groupNames;
+        private final Summary[][] groups;
+        private final Summary[] partials = newSummaries();
+
+
+        Member(ExtechCO250 device, String[] groupNames, Summary[][] groups)
+        {
+            this.device = device;
+            this.groupNames = groupNames;
+            this.groups = groups;
+        }
+
+
+        boolean isInGroup(String groupName)
+        {
+            for (String name : groupNames)
+            {
+                if (name.equals(groupName))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            lock.readLock().lock();
+
+            try
+            {
+                for (Channel channel : CHANNELS)
+                {
+                    Double value = device.data.getValue(channel).getValueDouble();
+
+                    if (value == null)
+                    {
+                        continue;
+                    }
+
+                    Summary partial = partials[channel.ordinal()];
+
+                    synchronized (partial)
+                    {
+                        partial.add(value);
+                    }
+
+                    for (Summary[] group : groups)
+                    {
+                        Summary summary = group[channel.ordinal()];
+
+                        synchronized (summary)
+                        {
+                            summary.add(value);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+    }
+
+}
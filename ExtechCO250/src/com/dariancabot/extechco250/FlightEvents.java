@@ -0,0 +1,312 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.nio.charset.StandardCharsets;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * JDK Flight Recorder events for the acquisition pipeline, so recordings show serial traffic alongside GC pauses and thread activity.
+ *
+ * <p>
+ * Events are enabled and configured by name through the JFR settings (i.e. a .jfc file or {@code -XX:StartFlightRecording}), and are disabled by
+ * default. When disabled, creating and committing an event is removed by the JIT, so the pipeline costs nothing extra. Fields that take work to fill
+ * are only set once the event is known to be recorded.
+ *
+ * <p>
+ * The JFR API is only in Java 8u262 and later, so the pipeline never refers to the event classes directly: it checks {@link #AVAILABLE} and then
+ * calls the static methods here, which are the only code linked against {@code jdk.jfr}. On an older runtime nothing here is called, and the
+ * events are simply not recorded.
+ *
+ * @author Darian Cabot
+ */
+final class FlightEvents
+{
+    private static final String PREFIX = "com.dariancabot.extechco250.";
+    private static final String CATEGORY = "Extech CO250";
+
+    /**
+     * Whether the JFR API is available in this runtime. Checked once; when false, none of the methods may be called.
+     */
+    static final boolean AVAILABLE = isAvailable();
+
+
+    private FlightEvents()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static boolean isAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError ex)
+        {
+            return false;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records a {@link PacketFramed} event.
+     *
+     * @param length the length of the packet
+     */
+    static void packetFramed(int length)
+    {
+        PacketFramed event = new PacketFramed();
+
+        if (event.isEnabled())
+        {
+            event.length = length;
+            event.commit();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts timing a {@link PacketDecoded} event.
+     *
+     * @return the event, to be passed to {@link #endPacketDecoded(Object, String, int)}.
+     */
+    static Object beginPacketDecoded()
+    {
+        PacketDecoded event = new PacketDecoded();
+        event.begin();
+
+        return event;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records a {@link PacketDecoded} event, if enabled.
+     *
+     * @param event  the event from {@link #beginPacketDecoded()}
+     * @param result the result: Reading, Preamble, or the error message
+     * @param length the length of the packet
+     */
+    static void endPacketDecoded(Object event, String result, int length)
+    {
+        PacketDecoded decoded = (PacketDecoded) event;
+
+        if (decoded.shouldCommit())
+        {
+            decoded.result = result;
+            decoded.length = length;
+            decoded.commit();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records a {@link ChecksumFailure} event.
+     *
+     * @param packet the packet, excluding line break bytes
+     */
+    static void checksumFailure(byte[] packet)
+    {
+        ChecksumFailure event = new ChecksumFailure();
+
+        if (event.isEnabled())
+        {
+            event.packet = new String(packet, StandardCharsets.US_ASCII);
+            event.commit();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts timing a {@link ListenerDispatch} event.
+     *
+     * @return the event, to be passed to {@link #endListenerDispatch(Object, Class)}.
+     */
+    static Object beginListenerDispatch()
+    {
+        ListenerDispatch event = new ListenerDispatch();
+        event.begin();
+
+        return event;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records a {@link ListenerDispatch} event, if enabled.
+     *
+     * @param event    the event from {@link #beginListenerDispatch()}
+     * @param listener the class of the EventListener
+     */
+    static void endListenerDispatch(Object event, Class<?> listener)
+    {
+        ListenerDispatch dispatch = (ListenerDispatch) event;
+
+        if (dispatch.shouldCommit())
+        {
+            dispatch.listener = listener;
+            dispatch.commit();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts timing a {@link Reconnect} event.
+     *
+     * @return the event, to be passed to {@link #endReconnect(Object, String, int, boolean)}.
+     */
+    static Object beginReconnect()
+    {
+        Reconnect event = new Reconnect();
+        event.begin();
+
+        return event;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records a {@link Reconnect} event, if enabled.
+     *
+     * @param event      the event from {@link #beginReconnect()}
+     * @param port       the name of the Serial Port
+     * @param attempt    the attempt number, from 1
+     * @param successful whether the attempt succeeded
+     */
+    static void endReconnect(Object event, String port, int attempt, boolean successful)
+    {
+        Reconnect reconnect = (Reconnect) event;
+
+        if (reconnect.shouldCommit())
+        {
+            reconnect.port = port;
+            reconnect.attempt = attempt;
+            reconnect.successful = successful;
+            reconnect.commit();
+        }
+    }
+
+
+    /**
+     * A complete packet split from the serial byte stream by the {@link PacketFramer}.
+     */
+    @Name(PREFIX + "PacketFramed")
+    @Label("Packet Framed")
+    @Category(CATEGORY)
+    @Description("A complete CR/LF terminated packet split from the serial byte stream")
+    @StackTrace(false)
+    static final class PacketFramed extends Event
+    {
+        @Label("Length")
+        @DataAmount
+        int length;
+    }
+
+
+    /**
+     * A packet decoded by the {@link Decoder}, timed from the start of decoding until the Data is updated (not including listeners).
+     */
+    @Name(PREFIX + "PacketDecoded")
+    @Label("Packet Decoded")
+    @Category(CATEGORY)
+    @Description("Decoding of a packet into the meter's Data, with the result")
+    @StackTrace(false)
+    static final class PacketDecoded extends Event
+    {
+        @Label("Length")
+        @DataAmount
+        int length;
+
+        @Label("Result")
+        @Description("Reading, Preamble, or the error message")
+        String result;
+    }
+
+
+    /**
+     * A packet with an invalid checksum (i.e. corrupted on the serial line).
+     */
+    @Name(PREFIX + "ChecksumFailure")
+    @Label("Checksum Failure")
+    @Category(CATEGORY)
+    @Description("A packet rejected because its checksum is invalid")
+    @StackTrace(false)
+    static final class ChecksumFailure extends Event
+    {
+        @Label("Packet")
+        String packet;
+    }
+
+
+    /**
+     * A call of an EventListener by the {@link Decoder}, timed.
+     */
+    @Name(PREFIX + "ListenerDispatch")
+    @Label("Listener Dispatch")
+    @Category(CATEGORY)
+    @Description("A call of an EventListener, i.e. a slow listener holding up the serial thread")
+    @StackTrace(false)
+    static final class ListenerDispatch extends Event
+    {
+        @Label("Listener")
+        Class<?> listener;
+    }
+
+
+    /**
+     * An attempt by the {@link ConnectionSupervisor} to reconnect a lost meter, timed.
+     */
+    @Name(PREFIX + "Reconnect")
+    @Label("Reconnect")
+    @Category(CATEGORY)
+    @Description("An attempt to reconnect a lost meter")
+    @StackTrace(false)
+    static final class Reconnect extends Event
+    {
+        @Label("Port")
+        String port;
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Successful")
+        boolean successful;
+    }
+
+}
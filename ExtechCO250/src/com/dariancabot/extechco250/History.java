@@ -0,0 +1,299 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+
+/**
+ * A fixed-capacity history of the recent samples of a value, kept as primitive times and values in a ring buffer.
+ *
+ * <p>
+ * Samples are added by the decoding thread. Any number of readers can take a {@link View} of the last N samples or the last T seconds; a View reads
+ * straight from the ring buffer without copying. As samples are only ever overwritten oldest first, a View stays valid until the oldest of its
+ * samples is overwritten, which {@link View#isValid()} checks without blocking the writer (like an optimistic read of a StampedLock).
+ *
+ * @author Darian Cabot
+ */
+public final class History
+{
+    private final int capacity;
+    private final LongSupplier clock;
+    private final StampedLock lock = new StampedLock();
+
+    // One spare slot, so all of the capacity can be viewed while the next sample is being written.
+    private final long[] times;
+    private final double[] values;
+    private volatile long count;
+
+
+    /**
+     * A consistent view of a range of samples, oldest first. Reads directly from the History's ring buffer.
+     */
+    public static final class View implements Series
+    {
+        private final History history;
+        private final long first;
+        private final int size;
+        private final long stamp;
+
+
+        private View(History history, long first, int size, long stamp)
+        {
+            this.history = history;
+            this.first = first;
+            this.size = size;
+            this.stamp = stamp;
+        }
+
+
+        /**
+         * Gets the number of samples in the view.
+         *
+         * @return the number of samples.
+         */
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+
+        /**
+         * Gets the time of a sample.
+         *
+         * @param index the index of the sample, 0 being the oldest
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        @Override
+        public long getTime(int index)
+        {
+            return history.times[history.slot(first + checkIndex(index))];
+        }
+
+
+        /**
+         * Gets the value of a sample.
+         *
+         * @param index the index of the sample, 0 being the oldest
+         *
+         * @return the value.
+         */
+        @Override
+        public double getValue(int index)
+        {
+            return history.values[history.slot(first + checkIndex(index))];
+        }
+
+
+        /**
+         * Checks that none of the samples in the view have been overwritten. Call after reading, and discard what was read if false.
+         *
+         * @return true if everything read from the view so far is consistent.
+         */
+        public boolean isValid()
+        {
+            // Validating the stamp also orders the reads before it; if there have been writes since, check the oldest sample is still there.
+            return history.lock.validate(stamp) || (history.count - first <= history.capacity);
+        }
+
+
+        private int checkIndex(int index)
+        {
+            if ((index < 0) || (index >= size))
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+
+            return index;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of samples kept
+     */
+    public History(int capacity)
+    {
+        this(capacity, System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of samples kept
+     * @param clock    the time source for added samples, in milliseconds since the epoch
+     */
+    History(int capacity, LongSupplier clock)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+
+        this.capacity = capacity;
+        this.clock = clock;
+        this.times = new long[capacity + 1];
+        this.values = new double[capacity + 1];
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a sample at the current time.
+     *
+     * @param value the value
+     */
+    void add(double value)
+    {
+        add(clock.getAsLong(), value);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a sample, overwriting the oldest if full. Must only be called by one thread at a time.
+     *
+     * @param time  the time in milliseconds since the epoch
+     * @param value the value
+     */
+    void add(long time, double value)
+    {
+        long stamp = lock.writeLock();
+
+        try
+        {
+            int slot = slot(count);
+            times[slot] = time;
+            values[slot] = value;
+            count = count + 1;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum number of samples kept.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the total number of samples added, including those no longer kept.
+     *
+     * @return the number of samples added.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a view of the most recent samples.
+     *
+     * @param samples the maximum number of samples
+     *
+     * @return a View of up to the given number of samples.
+     */
+    public View last(int samples)
+    {
+        long stamp = lock.tryOptimisticRead();
+        long end = count;
+        int size = (int) Math.min(Math.min(samples, capacity), end);
+
+        return new View(this, end - Math.max(0, size), Math.max(0, size), stamp);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets a view of the samples within a time of the most recent sample.
+     *
+     * @param duration the length of time
+     * @param unit     the unit of the duration
+     *
+     * @return a View of the samples no older than the duration before the most recent sample.
+     */
+    public View last(long duration, TimeUnit unit)
+    {
+        View all = last(capacity);
+
+        if (all.size() == 0)
+        {
+            return all;
+        }
+
+        long from = all.getTime(all.size() - 1) - unit.toMillis(duration);
+
+        // Binary search for the first sample at or after the start time.
+        int low = 0;
+        int high = all.size() - 1;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (all.getTime(middle) < from)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        // If samples were overwritten while searching, the result is still a valid range of the newest samples, just possibly shorter.
+        return new View(this, all.first + low, all.size() - low, all.stamp);
+    }
+
+
+    //-----------------------------------------------------------------------
+    private int slot(long index)
+    {
+        return (int) (index % times.length);
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Arrays;
+
+
+/**
+ * Downsamples long series for plotting, with the Largest-Triangle-Three-Buckets (LTTB) algorithm.
+ *
+ * <p>
+ * The samples are divided into buckets, and from each bucket the sample forming the largest triangle with the sample chosen from the previous bucket
+ * and the average of the next bucket is kept. This keeps the peaks and troughs that make a plot look right, unlike averaging or taking every Nth
+ * sample. The first and last samples are always kept.
+ *
+ * <p>
+ * {@link #downsample(Series, int, long[], double[])} downsamples a whole series in a single linear pass. {@link Incremental} keeps a downsampled
+ * series up to date as samples arrive, with buckets of a fixed length of time, so only the newest two buckets are ever recalculated.
+ *
+ * @author Darian Cabot
+ */
+public final class LttbDownsampler
+{
+
+    private LttbDownsampler()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Downsamples a series.
+     *
+     * @param series    the series
+     * @param threshold the maximum number of samples to keep (at least 3)
+     * @param times     receives the times of the kept samples; must have room for the threshold or the series size, whichever is smaller
+     * @param values    receives the values of the kept samples; must have room for the threshold or the series size, whichever is smaller
+     *
+     * @return the number of samples kept.
+     */
+    public static int downsample(Series series, int threshold, long[] times, double[] values)
+    {
+        if (threshold < 3)
+        {
+            throw new IllegalArgumentException("Threshold must be at least 3.");
+        }
+
+        int size = series.size();
+
+        if (size <= threshold)
+        {
+            for (int i = 0; i < size; i ++)
+            {
+                times[i] = series.getTime(i);
+                values[i] = series.getValue(i);
+            }
+
+            return size;
+        }
+
+        // Times relative to the first sample, so they can be used as doubles without losing precision.
+        long base = series.getTime(0);
+        double every = (double) (size - 2) / (threshold - 2);
+        int count = 0;
+        int a = 0;
+
+        times[count] = base;
+        values[count ++] = series.getValue(0);
+
+        for (int i = 0; i < threshold - 2; i ++)
+        {
+            // Average of the next bucket (the last sample for the last bucket).
+            int averageStart = (int) ((i + 1) * every) + 1;
+            int averageEnd = Math.min((int) ((i + 2) * every) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+
+            for (int j = averageStart; j < averageEnd; j ++)
+            {
+                averageX += series.getTime(j) - base;
+                averageY += series.getValue(j);
+            }
+
+            averageX /= (averageEnd - averageStart);
+            averageY /= (averageEnd - averageStart);
+
+            // Sample of this bucket with the largest triangle.
+            int start = (int) (i * every) + 1;
+            int end = (int) ((i + 1) * every) + 1;
+            double ax = series.getTime(a) - base;
+            double ay = series.getValue(a);
+            double maxArea = -1;
+            int chosen = start;
+
+            for (int j = start; j < end; j ++)
+            {
+                double area = triangleArea(ax, ay, series.getTime(j) - base, series.getValue(j), averageX, averageY);
+
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+
+            times[count] = series.getTime(chosen);
+            values[count ++] = series.getValue(chosen);
+            a = chosen;
+        }
+
+        times[count] = series.getTime(size - 1);
+        values[count ++] = series.getValue(size - 1);
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets twice the area of a triangle (the factor does not matter for comparisons).
+     */
+    private static double triangleArea(double ax, double ay, double bx, double by, double cx, double cy)
+    {
+        return Math.abs((ax - cx) * (by - ay) - (ax - bx) * (cy - ay));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Keeps a series downsampled with LTTB as samples arrive, using buckets of a fixed length of time (i.e. 1,000 points for the last day is a
+     * bucket length of 86.4 seconds).
+     *
+     * <p>
+     * A bucket's sample is chosen once the bucket after it is complete, and never changes after that, so adding a sample is O(1) amortised. Only the
+     * samples of the newest two buckets are kept, plus the chosen samples up to the capacity.
+     */
+    public static final class Incremental
+    {
+        private final long bucketLength;
+        private final int capacity;
+
+        // Chosen samples, oldest first in a ring.
+        private final long[] chosenTimes;
+        private final double[] chosenValues;
+        private long chosenCount;
+
+        // The bucket waiting for the next to complete, and the bucket being filled.
+        private Bucket pending = new Bucket();
+        private Bucket current = new Bucket();
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param bucketLength the length of time of each bucket in milliseconds
+         * @param capacity     the maximum number of chosen samples kept
+         */
+        public Incremental(long bucketLength, int capacity)
+        {
+            if ((bucketLength < 1) || (capacity < 1))
+            {
+                throw new IllegalArgumentException("Bucket length and capacity must be at least 1.");
+            }
+
+            this.bucketLength = bucketLength;
+            this.capacity = capacity;
+            this.chosenTimes = new long[capacity];
+            this.chosenValues = new double[capacity];
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Adds a sample. Times must not go backwards; an earlier time is added to the newest bucket.
+         *
+         * @param time  the time in milliseconds since the epoch
+         * @param value the value
+         */
+        public synchronized void add(long time, double value)
+        {
+            long bucket = Math.floorDiv(time, bucketLength);
+
+            if (current.size == 0)
+            {
+                current.index = bucket;
+            }
+            else if (bucket > current.index)
+            {
+                // The current bucket is complete, so the pending bucket's sample can be chosen.
+                if (pending.size > 0)
+                {
+                    int chosen = choose(pending, current.averageTime(), current.averageValue());
+                    addChosen(pending.times[chosen], pending.values[chosen]);
+                }
+
+                Bucket swap = pending;
+                pending = current;
+                current = swap;
+                current.clear(bucket);
+
+                if (chosenCount == 0)
+                {
+                    // The very first bucket is represented by its first sample, like the first sample of a whole series.
+                    addChosen(pending.times[0], pending.values[0]);
+                    pending.clear(pending.index);
+                }
+            }
+
+            current.add(time, value);
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the maximum number of samples {@link #getPoints(long, long[], double[])} can return.
+         *
+         * @return the maximum number of samples.
+         */
+        public int getMaxPoints()
+        {
+            return capacity + 2;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the downsampled series from a time, including a provisional sample for the newest buckets and the newest sample.
+         *
+         * @param from   the earliest time in milliseconds since the epoch
+         * @param times  receives the times of the samples; must have room for {@link #getMaxPoints()}
+         * @param values receives the values of the samples; must have room for {@link #getMaxPoints()}
+         *
+         * @return the number of samples.
+         */
+        public synchronized int getPoints(long from, long[] times, double[] values)
+        {
+            int count = 0;
+
+            // Binary search for the first chosen sample at or after the start time.
+            long first = Math.max(0, chosenCount - capacity);
+            long last = chosenCount;
+
+            while (first < last)
+            {
+                long middle = (first + last) >>> 1;
+
+                if (chosenTimes[slot(middle)] < from)
+                {
+                    first = middle + 1;
+                }
+                else
+                {
+                    last = middle;
+                }
+            }
+
+            for (long i = first; i < chosenCount; i ++)
+            {
+                times[count] = chosenTimes[slot(i)];
+                values[count ++] = chosenValues[slot(i)];
+            }
+
+            // Provisional sample of the pending bucket, using the incomplete current bucket.
+            if (pending.size > 0)
+            {
+                int chosen = choose(pending, current.averageTime(), current.averageValue());
+
+                if (pending.times[chosen] >= from)
+                {
+                    times[count] = pending.times[chosen];
+                    values[count ++] = pending.values[chosen];
+                }
+            }
+
+            // The first sample while still in the first bucket, then the newest sample.
+            if ((chosenCount == 0) && (current.size > 1) && (current.times[0] >= from))
+            {
+                times[count] = current.times[0];
+                values[count ++] = current.values[0];
+            }
+
+            if ((current.size > 0) && (current.times[current.size - 1] >= from))
+            {
+                times[count] = current.times[current.size - 1];
+                values[count ++] = current.values[current.size - 1];
+            }
+
+            return count;
+        }
+
+
+        //-----------------------------------------------------------------------
+        private int choose(Bucket bucket, double averageTime, double averageValue)
+        {
+            // The triangle is formed with the last chosen sample (there is always one once a bucket is pending).
+            long base = bucket.times[0];
+            double ax = chosenTimes[slot(chosenCount - 1)] - base;
+            double ay = chosenValues[slot(chosenCount - 1)];
+            double cx = averageTime - base;
+            double maxArea = -1;
+            int chosen = 0;
+
+            for (int j = 0; j < bucket.size; j ++)
+            {
+                double area = triangleArea(ax, ay, bucket.times[j] - base, bucket.values[j], cx, averageValue);
+
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+
+            return chosen;
+        }
+
+
+        //-----------------------------------------------------------------------
+        private void addChosen(long time, double value)
+        {
+            int slot = slot(chosenCount);
+            chosenTimes[slot] = time;
+            chosenValues[slot] = value;
+            chosenCount ++;
+        }
+
+
+        //-----------------------------------------------------------------------
+        private int slot(long index)
+        {
+            return (int) (index % capacity);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The samples of one time bucket, with their running sums for the average.
+     */
+    private static final class Bucket
+    {
+        private long index;
+        private long[] times = new long[64];
+        private double[] values = new double[64];
+        private int size;
+        private double timeSum;
+        private double valueSum;
+
+
+        void add(long time, double value)
+        {
+            if (size == times.length)
+            {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            // Sum times relative to the first sample, so they do not lose precision as doubles.
+            timeSum += (size == 0) ? 0 : time - times[0];
+            valueSum += value;
+            times[size] = time;
+            values[size ++] = value;
+        }
+
+
+        double averageTime()
+        {
+            return times[0] + timeSum / size;
+        }
+
+
+        double averageValue()
+        {
+            return valueSum / size;
+        }
+
+
+        void clear(long newIndex)
+        {
+            index = newIndex;
+            size = 0;
+            timeSum = 0;
+            valueSum = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Arrays;
+
+
+/**
+ * Splits a raw byte stream from the meter into CR/LF terminated packets.
+ *
+ * <p>
+ * Bytes may be fed in arbitrary sized pieces; each complete packet (including the line break bytes) is passed to the {@link Handler}. Packets
+ * longer than the maximum length are silently discarded.
+ *
+ * @author Darian Cabot
+ */
+final class PacketFramer
+{
+    static final byte PACKET_END_BYTE_1 = 0x0d;
+    static final byte PACKET_END_BYTE_2 = 0x0a;
+    static final int PACKET_LENGTH = 45;
+
+    private final Handler handler;
+
+    private final byte[] packetBuffer = new byte[PACKET_LENGTH + 1];
+    private boolean packetEndByte1 = false;
+    private int packetBufferPosition = 0;
+
+
+    /**
+     * Receives packets from a {@link PacketFramer}.
+     */
+    interface Handler
+    {
+
+        /**
+         * Called for each complete packet.
+         *
+         * @param packet the packet bytes, including the line break bytes
+         */
+        void packetFramed(byte[] packet);
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param handler the Handler to be notified of complete packets
+     */
+    PacketFramer(Handler handler)
+    {
+        this.handler = handler;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Feeds received bytes into the framer.
+     *
+     * @param bytes  the received bytes
+     * @param offset the offset of the first byte to use
+     * @param length the number of bytes to use
+     */
+    void accept(byte[] bytes, int offset, int length)
+    {
+        for (int byteCount = offset; byteCount < offset + length; byteCount ++)
+        {
+            packetBuffer[packetBufferPosition] = bytes[byteCount];
+
+            // Buffer overflow protection.
+            if (packetBufferPosition >= PACKET_LENGTH)
+            {
+                reset();
+                continue;
+            }
+
+            // First end byte already detected.
+            if (packetEndByte1)
+            {
+                if (packetBuffer[packetBufferPosition] == PACKET_END_BYTE_2)
+                {
+                    // We have a valid packet - get the relevent section.
+                    byte[] packet = Arrays.copyOfRange(packetBuffer, 0, packetBufferPosition + 1);
+
+                    // Reset buffer ready for the next packet before handing over, in case the handler throws.
+                    reset();
+
+                    if (FlightEvents.AVAILABLE)
+                    {
+                        FlightEvents.packetFramed(packet.length);
+                    }
+
+                    handler.packetFramed(packet);
+                    continue;
+                }
+                else
+                {
+                    packetEndByte1 = false;
+                }
+            }
+
+            if (packetBuffer[packetBufferPosition] == PACKET_END_BYTE_1)
+            {
+                packetEndByte1 = true;
+            }
+
+            packetBufferPosition ++;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Discards any partially received packet.
+     */
+    void reset()
+    {
+        Arrays.fill(packetBuffer, (byte) 0); // Clear the packet buffer.
+        packetBufferPosition = 0;
+        packetEndByte1 = false;
+    }
+
+}
@@ -0,0 +1,564 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import jssc.SerialPort;
+import jssc.SerialPortException;
+
+
+/**
+ * Discovers Extech CO250 meters attached to the host system Serial Ports.
+ *
+ * <p>
+ * Candidate ports are probed in parallel, each for up to the probe timeout, and identified as a meter when a valid preamble line is received (see
+ * {@link Decoder#isCompatiblePreamble(byte[])}). Results are cached so only newly appeared ports are probed on subsequent scans. Ports can be watched
+ * for being added or removed, with changes notified to a {@link DiscoveryListener}.
+ *
+ * <p>
+ * Ports found without a meter are probed again after the retry interval, so a meter that was switched off (or sent no preamble in time) is found
+ * later. Ports that could not be probed (i.e. already open by another process or timed out) are not cached and will be probed again on the next
+ * scan. Use {@link #forget(String)} to have a cached port probed again.
+ *
+ * @author Darian Cabot
+ */
+public final class PortDiscovery
+{
+    private static final int DEFAULT_PROBE_TIMEOUT = 3000; // Milliseconds.
+    private static final int DEFAULT_MAX_PARALLEL_PROBES = 32;
+    private static final int PROBE_GRACE_TIME = 1000; // Milliseconds, allowance for opening and closing ports.
+    private static final int PROBE_POLL_INTERVAL = 20; // Milliseconds.
+    private static final long DEFAULT_RETRY_INTERVAL = 60000; // Milliseconds.
+
+    private final PortLister portLister;
+    private final PortProbe portProbe;
+    private final ExecutorService probeExecutor;
+    private final int maxParallelProbes;
+    private final LongSupplier nanoClock;
+    private ScheduledExecutorService watchExecutor;
+
+    private final Map<String, Boolean> portCache = new ConcurrentHashMap<>();
+    private final Map<String, Long> retryTimes = new ConcurrentHashMap<>(); // When ports cached without a meter are probed again.
+    private volatile int probeTimeout = DEFAULT_PROBE_TIMEOUT;
+    private volatile long retryInterval = DEFAULT_RETRY_INTERVAL;
+    private volatile DiscoveryListener discoveryListener;
+
+
+    /**
+     * Lists the Serial Ports present on the host system.
+     */
+    interface PortLister
+    {
+
+        String[] getPortNames();
+
+    }
+
+
+    /**
+     * Determines if an Extech CO250 meter is attached to a Serial Port.
+     */
+    interface PortProbe
+    {
+
+        boolean probe(String portName, int timeout) throws Exception;
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public PortDiscovery()
+    {
+        this(DEFAULT_MAX_PARALLEL_PROBES);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param maxParallelProbes the maximum number of ports to probe at the same time
+     */
+    public PortDiscovery(int maxParallelProbes)
+    {
+        this(jssc.SerialPortList::getPortNames, PortDiscovery::probeSerialPort, maxParallelProbes);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param portLister the PortLister used to find ports
+     * @param portProbe  the PortProbe used to identify meters
+     */
+    PortDiscovery(PortLister portLister, PortProbe portProbe)
+    {
+        this(portLister, portProbe, DEFAULT_MAX_PARALLEL_PROBES);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param portLister        the PortLister used to find ports
+     * @param portProbe         the PortProbe used to identify meters
+     * @param maxParallelProbes the maximum number of ports to probe at the same time
+     */
+    PortDiscovery(PortLister portLister, PortProbe portProbe, int maxParallelProbes)
+    {
+        this(portLister, portProbe, maxParallelProbes, System::nanoTime);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param portLister        the PortLister used to find ports
+     * @param portProbe         the PortProbe used to identify meters
+     * @param maxParallelProbes the maximum number of ports to probe at the same time
+     * @param nanoClock         the time source for the retry interval, in nanoseconds
+     */
+    PortDiscovery(PortLister portLister, PortProbe portProbe, int maxParallelProbes, LongSupplier nanoClock)
+    {
+        if (maxParallelProbes < 1)
+        {
+            throw new IllegalArgumentException("Maximum parallel probes must be at least 1.");
+        }
+
+        this.portLister = portLister;
+        this.portProbe = portProbe;
+        this.maxParallelProbes = maxParallelProbes;
+        this.nanoClock = nanoClock;
+        this.probeExecutor = Executors.newFixedThreadPool(maxParallelProbes, new DaemonThreadFactory("PortDiscovery-probe"));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Scans the host system Serial Ports, probing any not yet known in parallel.
+     *
+     * <p>
+     * Each probe is given the probe timeout (plus a small allowance) from when it starts, so ports queued behind the maximum parallel probes are
+     * probed in full. Blocks for about the probe timeout for each batch of new ports up to the maximum parallel probes.
+     *
+     * @return a sorted String array of Serial Ports with a meter attached, empty array if none found.
+     */
+    public synchronized String[] discover()
+    {
+        String[] portNames = portLister.getPortNames();
+        Set<String> present = new HashSet<>(Arrays.asList(portNames));
+        List<String> lost = new ArrayList<>();
+        List<String> found = new ArrayList<>();
+
+        // Forget ports that have been removed.
+        for (Iterator<Map.Entry<String, Boolean>> it = portCache.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, Boolean> entry = it.next();
+
+            if ( ! present.contains(entry.getKey()))
+            {
+                it.remove();
+                retryTimes.remove(entry.getKey());
+
+                if (entry.getValue())
+                {
+                    lost.add(entry.getKey());
+                }
+            }
+        }
+
+        // Ports without a meter are probed again once their retry interval has passed.
+        long now = nanoClock.getAsLong();
+
+        for (Iterator<Map.Entry<String, Long>> it = retryTimes.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, Long> entry = it.next();
+
+            if (now - entry.getValue() >= 0)
+            {
+                it.remove();
+                portCache.remove(entry.getKey());
+            }
+        }
+
+        // Probe new ports in parallel.
+        final int timeout = probeTimeout;
+        Map<String, Probe> probes = new LinkedHashMap<>();
+
+        for (String portName : portNames)
+        {
+            if ( ! portCache.containsKey(portName))
+            {
+                Probe probe = new Probe(portName, timeout);
+                probe.future = probeExecutor.submit(probe);
+                probes.put(portName, probe);
+            }
+        }
+
+        // Each probe has its own deadline once started; the overall deadline only guards against probes that never start (i.e. stuck threads).
+        long probeTime = TimeUnit.MILLISECONDS.toNanos(timeout + PROBE_GRACE_TIME);
+        int batches = (probes.size() + maxParallelProbes - 1) / maxParallelProbes;
+        long deadline = System.nanoTime() + probeTime * batches;
+
+        for (Map.Entry<String, Probe> probe : probes.entrySet())
+        {
+            try
+            {
+                boolean isDevice = probe.getValue().get(probeTime, deadline);
+                portCache.put(probe.getKey(), isDevice);
+
+                if (isDevice)
+                {
+                    found.add(probe.getKey());
+                }
+                else
+                {
+                    retryTimes.put(probe.getKey(), nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(retryInterval));
+                }
+            }
+            catch (TimeoutException | ExecutionException ex)
+            {
+                // Not cached, try again next scan.
+                probe.getValue().future.cancel(true);
+            }
+            catch (InterruptedException ex)
+            {
+                for (Probe cancel : probes.values())
+                {
+                    cancel.future.cancel(true);
+                }
+
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Notify using the discovery listener if one is set.
+        DiscoveryListener listener = discoveryListener;
+
+        if (listener != null)
+        {
+            for (String portName : lost)
+            {
+                listener.deviceLostEvent(portName);
+            }
+
+            for (String portName : found)
+            {
+                listener.deviceFoundEvent(portName);
+            }
+        }
+
+        return getDevicePortNames();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the Serial Ports known to have a meter attached, without scanning.
+     *
+     * @return a sorted String array of Serial Ports with a meter attached, empty array if none known.
+     */
+    public String[] getDevicePortNames()
+    {
+        List<String> devicePortNames = new ArrayList<>();
+
+        for (Map.Entry<String, Boolean> entry : portCache.entrySet())
+        {
+            if (entry.getValue())
+            {
+                devicePortNames.add(entry.getKey());
+            }
+        }
+
+        String[] result = devicePortNames.toArray(new String[devicePortNames.size()]);
+        Arrays.sort(result);
+
+        return result;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Determines if a Serial Port is known to have a meter attached, without scanning.
+     *
+     * @param portName the name of the Serial Port (i.e. "COM3")
+     *
+     * @return true if a meter is known to be attached, otherwise false.
+     */
+    public boolean isDevice(String portName)
+    {
+        return Boolean.TRUE.equals(portCache.get(portName));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a Serial Port from the cache so that it is probed again on the next scan.
+     *
+     * @param portName the name of the Serial Port (i.e. "COM3")
+     */
+    public void forget(String portName)
+    {
+        portCache.remove(portName);
+        retryTimes.remove(portName);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the time to listen for a preamble on each probed port. The meter must send a preamble line within this time to be identified.
+     *
+     * @param probeTimeout the probe timeout in milliseconds
+     */
+    public void setProbeTimeout(int probeTimeout)
+    {
+        if (probeTimeout < 1)
+        {
+            throw new IllegalArgumentException("Probe timeout must be at least 1 ms.");
+        }
+
+        this.probeTimeout = probeTimeout;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the time after which a port found without a meter is probed again, so a meter that was switched off when first scanned is found.
+     *
+     * @param retryInterval the retry interval in milliseconds (default 1 minute)
+     */
+    public void setRetryInterval(long retryInterval)
+    {
+        if (retryInterval < 0)
+        {
+            throw new IllegalArgumentException("Retry interval must not be negative.");
+        }
+
+        this.retryInterval = retryInterval;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts scanning the host system Serial Ports periodically on a background thread. Changes are notified to the DiscoveryListener.
+     *
+     * @param interval the time between scans in milliseconds
+     */
+    public synchronized void startWatching(long interval)
+    {
+        if (watchExecutor != null)
+        {
+            return;
+        }
+
+        watchExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("PortDiscovery-watch"));
+        watchExecutor.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                discover();
+            }
+            catch (RuntimeException ex)
+            {
+                System.err.println("Error discovering Serial Ports: " + ex.getMessage());
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops scanning the host system Serial Ports periodically.
+     */
+    public synchronized void stopWatching()
+    {
+        if (watchExecutor != null)
+        {
+            watchExecutor.shutdownNow();
+            watchExecutor = null;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops watching and releases the probe threads. The PortDiscovery can not be used afterwards.
+     */
+    public void close()
+    {
+        stopWatching();
+        probeExecutor.shutdownNow();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets a DiscoveryListener to be notified when meters are found or lost.
+     *
+     * @param discoveryListener A DiscoveryListener Object to be notified
+     */
+    public void setDiscoveryListener(DiscoveryListener discoveryListener)
+    {
+        this.discoveryListener = discoveryListener;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A probe of one port, timed from when it starts running.
+     */
+    private final class Probe implements Callable<Boolean>
+    {
+        private final String portName;
+        private final int timeout;
+        private volatile long startTime;
+        private volatile boolean isStarted;
+        private Future<Boolean> future;
+
+
+        Probe(String portName, int timeout)
+        {
+            this.portName = portName;
+            this.timeout = timeout;
+        }
+
+
+        @Override
+        public Boolean call() throws Exception
+        {
+            startTime = System.nanoTime();
+            isStarted = true;
+
+            return portProbe.probe(portName, timeout);
+        }
+
+
+        /**
+         * Waits for the result, for up to the probe time from when the probe started, or the overall deadline if it has not started.
+         */
+        boolean get(long probeTime, long deadline) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            while (true)
+            {
+                long now = System.nanoTime();
+
+                // Until started, poll for the start time.
+                long end = isStarted ? (startTime + probeTime) : (now + TimeUnit.MILLISECONDS.toNanos(PROBE_POLL_INTERVAL));
+                end = Math.min(end, deadline);
+
+                try
+                {
+                    return future.get(Math.max(0, end - now), TimeUnit.NANOSECONDS);
+                }
+                catch (TimeoutException ex)
+                {
+                    if ((isStarted && (System.nanoTime() - (startTime + probeTime) >= 0)) || (System.nanoTime() - deadline >= 0))
+                    {
+                        throw ex;
+                    }
+                }
+            }
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens a Serial Port and listens for an Extech CO250 preamble line.
+     *
+     * @param portName the name of the Serial Port (i.e. "COM3")
+     * @param timeout  the time to listen in milliseconds
+     *
+     * @return true if a preamble line was received, otherwise false.
+     *
+     * @throws SerialPortException  if the port could not be opened or read
+     * @throws InterruptedException if the probe was cancelled
+     */
+    private static boolean probeSerialPort(String portName, int timeout) throws SerialPortException, InterruptedException
+    {
+        final boolean[] found = {false};
+        PacketFramer packetFramer = new PacketFramer(packet ->
+        {
+            if (Decoder.isCompatiblePreamble(packet))
+            {
+                found[0] = true;
+            }
+        });
+
+        SerialPort serialPort = new SerialPort(portName);
+        serialPort.openPort();
+
+        try
+        {
+            serialPort.setParams(9600, 8, 1, 0);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            while (( ! found[0]) && (System.nanoTime() < deadline))
+            {
+                byte[] rxBuffer = serialPort.readBytes();
+
+                if (rxBuffer == null)
+                {
+                    Thread.sleep(PROBE_POLL_INTERVAL);
+                }
+                else
+                {
+                    packetFramer.accept(rxBuffer, 0, rxBuffer.length);
+                }
+            }
+
+            return found[0];
+        }
+        finally
+        {
+            serialPort.closePort();
+        }
+    }
+
+}
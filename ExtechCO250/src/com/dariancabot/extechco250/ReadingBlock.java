@@ -0,0 +1,600 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A compressed block format for stored readings, based on the Facebook Gorilla time-series encoding.
+ *
+ * <p>
+ * Timestamps are stored as delta-of-deltas; at a steady 2Hz most take a single bit. Each channel is stored either as the zig-zag delta of the value
+ * scaled to one decimal place (used when every value in the block is exactly representable that way, as CO250 readings are), or otherwise as the XOR
+ * of consecutive IEEE 754 values. Both are lossless, including NaN.
+ *
+ * <p>
+ * Block layout: version (1 byte), reading count (4 bytes), channel count (1 byte), channel modes (1 byte each), then the bit stream. The bit stream
+ * holds, for each reading, the timestamp then each channel value.
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingBlock
+{
+    private static final byte VERSION = 1;
+    private static final byte MODE_XOR = 0;
+    private static final byte MODE_DECIMAL = 1;
+    private static final double DECIMAL_SCALE = 10;
+    private static final double DECIMAL_LIMIT = 1L << 52;
+
+
+    private ReadingBlock()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Collects readings and encodes them into a block.
+     */
+    public static final class Encoder
+    {
+        private final int channels;
+        private long[] times = new long[256];
+        private double[][] values;
+        private int count;
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param channels the number of channels in each reading (i.e. 5 for all channels)
+         */
+        public Encoder(int channels)
+        {
+            if ((channels < 1) || (channels > Byte.MAX_VALUE))
+            {
+                throw new IllegalArgumentException("Channels must be between 1 and " + Byte.MAX_VALUE + ".");
+            }
+
+            this.channels = channels;
+            this.values = new double[channels][times.length];
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Adds a reading to the block.
+         *
+         * @param time   the time of the reading in milliseconds since the epoch
+         * @param values the value of each channel
+         */
+        public void add(long time, double[] values)
+        {
+            if (count == times.length)
+            {
+                times = Arrays.copyOf(times, count * 2);
+
+                for (int c = 0; c < channels; c ++)
+                {
+                    this.values[c] = Arrays.copyOf(this.values[c], count * 2);
+                }
+            }
+
+            times[count] = time;
+
+            for (int c = 0; c < channels; c ++)
+            {
+                this.values[c][count] = values[c];
+            }
+
+            count ++;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the number of readings added since the last reset.
+         *
+         * @return the number of readings.
+         */
+        public int size()
+        {
+            return count;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Removes all readings, so the Encoder can be used for the next block.
+         */
+        public void reset()
+        {
+            count = 0;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Encodes the readings added since the last reset.
+         *
+         * @return the encoded block.
+         */
+        public byte[] encode()
+        {
+            byte[] modes = new byte[channels];
+
+            for (int c = 0; c < channels; c ++)
+            {
+                modes[c] = isDecimal(values[c]) ? MODE_DECIMAL : MODE_XOR;
+            }
+
+            BitOutput out = new BitOutput(16 + count * (1 + channels));
+
+            long previousTime = 0;
+            long previousDelta = 0;
+            long[] previous = new long[channels];
+            int[] leading = new int[channels];
+            int[] trailing = new int[channels];
+            Arrays.fill(leading, -1);
+
+            for (int i = 0; i < count; i ++)
+            {
+                // Timestamp.
+                if (i == 0)
+                {
+                    out.write(times[0], 64);
+                }
+                else
+                {
+                    long delta = times[i] - previousTime;
+                    writeZigZag(out, delta - previousDelta);
+                    previousDelta = delta;
+                }
+
+                previousTime = times[i];
+
+                // Channel values.
+                for (int c = 0; c < channels; c ++)
+                {
+                    double value = values[c][i];
+
+                    if (modes[c] == MODE_DECIMAL)
+                    {
+                        long scaled = Math.round(value * DECIMAL_SCALE);
+
+                        if (i == 0)
+                        {
+                            out.write(scaled, 64);
+                        }
+                        else
+                        {
+                            writeZigZag(out, scaled - previous[c]);
+                        }
+
+                        previous[c] = scaled;
+                    }
+                    else
+                    {
+                        long bits = Double.doubleToRawLongBits(value);
+
+                        if (i == 0)
+                        {
+                            out.write(bits, 64);
+                        }
+                        else
+                        {
+                            long xor = bits ^ previous[c];
+
+                            if (xor == 0)
+                            {
+                                out.write(0, 1);
+                            }
+                            else
+                            {
+                                int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+                                int trail = Long.numberOfTrailingZeros(xor);
+
+                                if ((leading[c] >= 0) && (lead >= leading[c]) && (trail >= trailing[c]))
+                                {
+                                    // Fits in the previous meaningful bits window.
+                                    out.write(0b10, 2);
+                                    out.write(xor >>> trailing[c], 64 - leading[c] - trailing[c]);
+                                }
+                                else
+                                {
+                                    int length = 64 - lead - trail;
+                                    out.write(0b11, 2);
+                                    out.write(lead, 5);
+                                    out.write(length - 1, 6);
+                                    out.write(xor >>> trail, length);
+                                    leading[c] = lead;
+                                    trailing[c] = trail;
+                                }
+                            }
+                        }
+
+                        previous[c] = bits;
+                    }
+                }
+            }
+
+            byte[] bits = out.toByteArray();
+            ByteBuffer block = ByteBuffer.allocate(6 + channels + bits.length);
+            block.put(VERSION).putInt(count).put((byte) channels).put(modes).put(bits);
+
+            return block.array();
+        }
+
+
+        //-----------------------------------------------------------------------
+        private boolean isDecimal(double[] channelValues)
+        {
+            for (int i = 0; i < count; i ++)
+            {
+                double value = channelValues[i];
+
+                if (( ! (Math.abs(value) < DECIMAL_LIMIT)) || (Math.rint(value * DECIMAL_SCALE) / DECIMAL_SCALE != value)
+                        || (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0d)))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Writes a signed value with a variable length prefix: '0' for zero, then 7, 12, or 20 bit zig-zag values, or 64 bits.
+         */
+        private static void writeZigZag(BitOutput out, long value)
+        {
+            long zigZag = (value << 1) ^ (value >> 63);
+
+            if (zigZag == 0)
+            {
+                out.write(0, 1);
+            }
+            else if ((zigZag >>> 7) == 0)
+            {
+                out.write(0b10, 2);
+                out.write(zigZag, 7);
+            }
+            else if ((zigZag >>> 12) == 0)
+            {
+                out.write(0b110, 3);
+                out.write(zigZag, 12);
+            }
+            else if ((zigZag >>> 20) == 0)
+            {
+                out.write(0b1110, 4);
+                out.write(zigZag, 20);
+            }
+            else
+            {
+                out.write(0b1111, 4);
+                out.write(zigZag, 64);
+            }
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a block one reading at a time, without decoding the whole block up front.
+     */
+    public static final class Decoder
+    {
+        private final int count;
+        private final byte[] modes;
+        private final BitInput in;
+        private final double[] values;
+
+        private int position;
+        private long time;
+        private long delta;
+        private final long[] previous;
+        private final int[] leading;
+        private final int[] trailing;
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param block the encoded block
+         */
+        public Decoder(byte[] block)
+        {
+            this(block, 0, block.length);
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param buffer the buffer containing the encoded block
+         * @param offset the offset of the block in the buffer
+         * @param length the length of the block
+         */
+        public Decoder(byte[] buffer, int offset, int length)
+        {
+            ByteBuffer header = ByteBuffer.wrap(buffer, offset, length);
+
+            if (header.get() != VERSION)
+            {
+                throw new IllegalArgumentException("Unsupported reading block version.");
+            }
+
+            count = header.getInt();
+            modes = new byte[header.get()];
+            header.get(modes);
+
+            in = new BitInput(buffer, header.position(), offset + length);
+            values = new double[modes.length];
+            previous = new long[modes.length];
+            leading = new int[modes.length];
+            trailing = new int[modes.length];
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the number of readings in the block.
+         *
+         * @return the number of readings.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the number of channels in each reading.
+         *
+         * @return the number of channels.
+         */
+        public int getChannels()
+        {
+            return modes.length;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Decodes the next reading.
+         *
+         * @return true if a reading was decoded, false if there are no more readings.
+         */
+        public boolean next()
+        {
+            if (position >= count)
+            {
+                return false;
+            }
+
+            if (position == 0)
+            {
+                time = in.read(64);
+            }
+            else
+            {
+                delta += readZigZag();
+                time += delta;
+            }
+
+            for (int c = 0; c < modes.length; c ++)
+            {
+                if (modes[c] == MODE_DECIMAL)
+                {
+                    previous[c] = (position == 0) ? in.read(64) : previous[c] + readZigZag();
+                    values[c] = previous[c] / DECIMAL_SCALE;
+                }
+                else
+                {
+                    if (position == 0)
+                    {
+                        previous[c] = in.read(64);
+                    }
+                    else if (in.read(1) != 0)
+                    {
+                        if (in.read(1) != 0)
+                        {
+                            leading[c] = (int) in.read(5);
+                            int length = (int) in.read(6) + 1;
+                            trailing[c] = 64 - leading[c] - length;
+                        }
+
+                        previous[c] ^= in.read(64 - leading[c] - trailing[c]) << trailing[c];
+                    }
+
+                    values[c] = Double.longBitsToDouble(previous[c]);
+                }
+            }
+
+            position ++;
+
+            return true;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the time of the current reading.
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets a channel value of the current reading.
+         *
+         * @param channel the channel number
+         *
+         * @return the value.
+         */
+        public double getValue(int channel)
+        {
+            return values[channel];
+        }
+
+
+        //-----------------------------------------------------------------------
+        private long readZigZag()
+        {
+            int bits;
+
+            if (in.read(1) == 0)
+            {
+                return 0;
+            }
+            else if (in.read(1) == 0)
+            {
+                bits = 7;
+            }
+            else if (in.read(1) == 0)
+            {
+                bits = 12;
+            }
+            else if (in.read(1) == 0)
+            {
+                bits = 20;
+            }
+            else
+            {
+                bits = 64;
+            }
+
+            long zigZag = in.read(bits);
+
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes bits, most significant first, to a growable byte array.
+     */
+    private static final class BitOutput
+    {
+        private byte[] bytes;
+        private long bitPosition;
+
+
+        BitOutput(int initialCapacity)
+        {
+            bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+
+        void write(long value, int bits)
+        {
+            if (bitPosition + bits > (long) bytes.length * 8)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytes.length + 16));
+            }
+
+            for (int i = bits - 1; i >= 0;)
+            {
+                int index = (int) (bitPosition >>> 3);
+                int free = 8 - (int) (bitPosition & 7);
+                int take = Math.min(free, i + 1);
+                int chunk = (int) ((value >>> (i + 1 - take)) & ((1 << take) - 1));
+
+                bytes[index] |= (byte) (chunk << (free - take));
+                bitPosition += take;
+                i -= take;
+            }
+        }
+
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, (int) ((bitPosition + 7) >>> 3));
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads bits, most significant first, from a byte array.
+     */
+    private static final class BitInput
+    {
+        private final byte[] bytes;
+        private final long end;
+        private long bitPosition;
+
+
+        BitInput(byte[] bytes, int offset, int end)
+        {
+            this.bytes = bytes;
+            this.bitPosition = (long) offset * 8;
+            this.end = (long) end * 8;
+        }
+
+
+        long read(int bits)
+        {
+            if (bitPosition + bits > end)
+            {
+                throw new IllegalArgumentException("Reading block is truncated.");
+            }
+
+            long value = 0;
+
+            for (int i = bits; i > 0;)
+            {
+                int index = (int) (bitPosition >>> 3);
+                int available = 8 - (int) (bitPosition & 7);
+                int take = Math.min(available, i);
+                int chunk = ((bytes[index] & 0xff) >>> (available - take)) & ((1 << take) - 1);
+
+                value = (value << take) | chunk;
+                bitPosition += take;
+                i -= take;
+            }
+
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,532 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+
+/**
+ * An append-only on-disk log of a meter's readings, with a sparse time index for fast range reads.
+ *
+ * <p>
+ * Each reading is a fixed-size record of the time and the value of each channel (NaN if not numeric). Every {@link #INDEX_INTERVAL} records, the
+ * time and file offset of the record are appended to an index file, which is also held in memory. A range read finds the starting offset with a
+ * binary search of the index (O(log n)), seeks straight to it, and then only reads sequentially.
+ *
+ * <p>
+ * Files are named after the meter's key: {@code <key>.log} and {@code <key>.idx}, with any character other than a letter or digit replaced by
+ * '_' (so "/dev/ttyUSB0" is kept in the directory as "_dev_ttyUSB0.log"). On opening, a partially written trailing record (i.e. after a crash) is
+ * discarded, and any index entries missing from the end are rebuilt.
+ * <p>
+ * Times must not go backwards; a time earlier than the last record is logged as the last record's time, to keep the log ordered.
+ *
+ * @author Darian Cabot
+ */
+public final class ReadingLog implements Closeable
+{
+    /**
+     * The number of records between index entries.
+     */
+    public static final int INDEX_INTERVAL = 256;
+
+    private static final Channel[] CHANNELS = Channel.values();
+    private static final int RECORD_SIZE = Long.BYTES + CHANNELS.length * Double.BYTES;
+    private static final int INDEX_ENTRY_SIZE = 2 * Long.BYTES;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 1024;
+
+    private final FileChannel log;
+    private final FileChannel index;
+    private final LongSupplier clock;
+
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+    private final double[] values = new double[CHANNELS.length];
+
+    private long[] indexTimes = new long[64];
+    private long[] indexOffsets = new long[64];
+    private int indexSize;
+
+    private long records;
+    private long lastTime = Long.MIN_VALUE;
+
+    private ExtechCO250 device;
+    private DeadbandFilter filter;
+    private EventListener recorder;
+
+
+    /**
+     * Receives the readings of a range read.
+     */
+    public interface Handler
+    {
+
+        /**
+         * Called for each reading in the range, oldest first.
+         *
+         * @param time   the time of the reading in milliseconds since the epoch
+         * @param values the value of each channel, in the order of {@link Channel}, NaN if not numeric. Only valid during the call.
+         */
+        void reading(long time, double[] values);
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens (or creates) the log of a meter.
+     *
+     * @param directory the directory the log files are kept in
+     * @param key       a unique key for the meter (i.e. the Serial Port name), used to name the files
+     *
+     * @throws IOException if the files could not be opened.
+     */
+    public ReadingLog(Path directory, String key) throws IOException
+    {
+        this(directory, key, System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Opens (or creates) the log of a meter.
+     *
+     * @param directory the directory the log files are kept in
+     * @param key       a unique key for the meter, used to name the files
+     * @param clock     the time source for recorded readings, in milliseconds since the epoch
+     *
+     * @throws IOException if the files could not be opened.
+     */
+    ReadingLog(Path directory, String key, LongSupplier clock) throws IOException
+    {
+        this.clock = clock;
+
+        // The key is often a device path, which must not name files outside the directory.
+        String name = key.replaceAll("[^A-Za-z0-9]", "_");
+
+        log = FileChannel.open(directory.resolve(name + ".log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(directory.resolve(name + ".idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try
+        {
+            recover();
+        }
+        catch (IOException ex)
+        {
+            log.close();
+            index.close();
+            throw ex;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts logging each reading of a meter as it is decoded.
+     *
+     * @param device the meter
+     */
+    public synchronized void record(ExtechCO250 device)
+    {
+        if (this.device != null)
+        {
+            throw new IllegalStateException("Already recording a meter.");
+        }
+
+        this.device = device;
+        this.recorder = () -> appendQuietly(device.data);
+        device.addEventListener(recorder);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts logging the readings of a meter that get through a {@link DeadbandFilter}, so unchanged readings are not stored.
+     *
+     * @param filter the filter of the meter
+     */
+    public synchronized void record(DeadbandFilter filter)
+    {
+        if (this.device != null)
+        {
+            throw new IllegalStateException("Already recording a meter.");
+        }
+
+        this.device = filter.getDevice();
+        this.filter = filter;
+        this.recorder = () -> appendQuietly(filter.getDevice().data);
+        filter.addEventListener(recorder);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends a reading from a meter's Data, at the current time.
+     *
+     * @param data the meter's Data
+     *
+     * @throws IOException if writing fails.
+     */
+    public synchronized void append(Data data) throws IOException
+    {
+        for (Channel channel : CHANNELS)
+        {
+            Double value = data.getValue(channel).getValueDouble();
+            values[channel.ordinal()] = (value == null) ? Double.NaN : value;
+        }
+
+        append(clock.getAsLong(), values);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Appends a reading.
+     *
+     * @param time   the time of the reading in milliseconds since the epoch
+     * @param values the value of each channel, in the order of {@link Channel}
+     *
+     * @throws IOException if writing fails.
+     */
+    public synchronized void append(long time, double[] values) throws IOException
+    {
+        time = Math.max(time, lastTime);
+
+        if (records % INDEX_INTERVAL == 0)
+        {
+            addIndexEntry(time, records * RECORD_SIZE, true);
+        }
+
+        if (writeBuffer.remaining() < RECORD_SIZE)
+        {
+            flushBuffer();
+        }
+
+        writeBuffer.putLong(time);
+
+        for (int c = 0; c < CHANNELS.length; c ++)
+        {
+            writeBuffer.putDouble(values[c]);
+        }
+
+        records ++;
+        lastTime = time;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads the readings in a time range.
+     *
+     * @param from    the start of the range (inclusive) in milliseconds since the epoch
+     * @param to      the end of the range (exclusive) in milliseconds since the epoch
+     * @param handler the Handler to receive each reading
+     *
+     * @return the number of readings in the range.
+     *
+     * @throws IOException if reading fails.
+     */
+    public synchronized long read(long from, long to, Handler handler) throws IOException
+    {
+        flushBuffer();
+
+        long position = indexSize == 0 ? 0 : indexOffsets[Math.max(0, floorIndex(from))];
+        long end = records * RECORD_SIZE;
+        long count = 0;
+        double[] readValues = new double[CHANNELS.length];
+        ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        while (position < end)
+        {
+            readBuffer.clear();
+            readBuffer.limit((int) Math.min(readBuffer.capacity(), end - position));
+
+            while (readBuffer.hasRemaining())
+            {
+                if (log.read(readBuffer, position + readBuffer.position()) < 0)
+                {
+                    throw new IOException("Unexpected end of reading log.");
+                }
+            }
+
+            position += readBuffer.limit();
+            readBuffer.flip();
+
+            while (readBuffer.hasRemaining())
+            {
+                long time = readBuffer.getLong();
+
+                for (int c = 0; c < readValues.length; c ++)
+                {
+                    readValues[c] = readBuffer.getDouble();
+                }
+
+                if (time >= to)
+                {
+                    return count;
+                }
+
+                if (time >= from)
+                {
+                    handler.reading(time, readValues);
+                    count ++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of readings in the log.
+     *
+     * @return the number of readings.
+     */
+    public synchronized long getCount()
+    {
+        return records;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes buffered readings to the files, and forces them to the storage device.
+     *
+     * @throws IOException if writing fails.
+     */
+    public synchronized void flush() throws IOException
+    {
+        flushBuffer();
+        log.force(false);
+        index.force(false);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops recording, flushes, and closes the files.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (filter != null)
+        {
+            filter.removeEventListener(recorder);
+            filter = null;
+        }
+        else if (device != null)
+        {
+            device.removeEventListener(recorder);
+        }
+
+        device = null;
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            log.close();
+            index.close();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Finds the last index entry at or before a time.
+     *
+     * @param time the time in milliseconds since the epoch
+     *
+     * @return the index entry position, or -1 if the time is before the first entry.
+     */
+    private int floorIndex(long time)
+    {
+        int low = 0;
+        int high = indexSize - 1;
+        int result = -1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+
+            // Use the entry strictly before the time, as records with equal times may precede an entry with that time.
+            if (indexTimes[middle] < time)
+            {
+                result = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return result;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void addIndexEntry(long time, long offset, boolean write) throws IOException
+    {
+        if (indexSize == indexTimes.length)
+        {
+            indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+
+        indexTimes[indexSize] = time;
+        indexOffsets[indexSize] = offset;
+
+        if (write)
+        {
+            indexBuffer.clear();
+            indexBuffer.putLong(time).putLong(offset).flip();
+
+            while (indexBuffer.hasRemaining())
+            {
+                index.write(indexBuffer, (long) indexSize * INDEX_ENTRY_SIZE + indexBuffer.position());
+            }
+        }
+
+        indexSize ++;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void flushBuffer() throws IOException
+    {
+        writeBuffer.flip();
+        long position = records * RECORD_SIZE - writeBuffer.remaining();
+
+        while (writeBuffer.hasRemaining())
+        {
+            position += log.write(writeBuffer, position);
+        }
+
+        writeBuffer.clear();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Loads the index, discarding any partial trailing record or index entry, and rebuilds missing index entries from the log.
+     *
+     * @throws IOException if reading fails.
+     */
+    private void recover() throws IOException
+    {
+        records = log.size() / RECORD_SIZE;
+        log.truncate(records * RECORD_SIZE);
+
+        // Load the index in one sequential read, keeping only entries that point at complete records.
+        long entries = index.size() / INDEX_ENTRY_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % INDEX_ENTRY_SIZE);
+        long position = 0;
+
+        while (position < entries * INDEX_ENTRY_SIZE)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), entries * INDEX_ENTRY_SIZE - position));
+
+            while (buffer.hasRemaining())
+            {
+                index.read(buffer, position + buffer.position());
+            }
+
+            position += buffer.limit();
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+            {
+                long time = buffer.getLong();
+                long offset = buffer.getLong();
+
+                if (offset < records * RECORD_SIZE)
+                {
+                    addIndexEntry(time, offset, false);
+                }
+            }
+        }
+
+        index.truncate((long) indexSize * INDEX_ENTRY_SIZE);
+
+        // Rebuild index entries for records logged after the last complete entry.
+        long next = (long) indexSize * INDEX_INTERVAL;
+        ByteBuffer time = ByteBuffer.allocate(Long.BYTES);
+
+        for (long record = next; record < records; record += INDEX_INTERVAL)
+        {
+            time.clear();
+
+            while (time.hasRemaining())
+            {
+                log.read(time, record * RECORD_SIZE + time.position());
+            }
+
+            addIndexEntry(time.getLong(0), record * RECORD_SIZE, true);
+        }
+
+        // Get the last time, so it does not go backwards.
+        if (records > 0)
+        {
+            time.clear();
+
+            while (time.hasRemaining())
+            {
+                log.read(time, (records - 1) * RECORD_SIZE + time.position());
+            }
+
+            lastTime = time.getLong(0);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void appendQuietly(Data data)
+    {
+        try
+        {
+            append(data);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error writing reading log: " + ex.getMessage());
+        }
+    }
+
+}
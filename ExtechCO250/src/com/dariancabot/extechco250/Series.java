@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+
+/**
+ * A series of timed samples, read by index without boxing (i.e. a {@link History.View}).
+ *
+ * @author Darian Cabot
+ */
+public interface Series
+{
+
+    /**
+     * Gets the number of samples in the series.
+     *
+     * @return the number of samples.
+     */
+    public int size();
+
+
+    /**
+     * Gets the time of a sample.
+     *
+     * @param index the index of the sample, 0 being the oldest
+     *
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTime(int index);
+
+
+    /**
+     * Gets the value of a sample.
+     *
+     * @param index the index of the sample, 0 being the oldest
+     *
+     * @return the value.
+     */
+    public double getValue(int index);
+
+
+    /**
+     * Gets a series backed by arrays (i.e. readings read from a {@link ReadingLog}).
+     *
+     * @param times  the times of the samples
+     * @param values the values of the samples
+     * @param size   the number of samples used from the start of the arrays
+     *
+     * @return a Series.
+     */
+    public static Series of(long[] times, double[] values, int size)
+    {
+        if ((size > times.length) || (size > values.length))
+        {
+            throw new IllegalArgumentException("Size is larger than the arrays.");
+        }
+
+        return new Series()
+        {
+            @Override
+            public int size()
+            {
+                return size;
+            }
+
+
+            @Override
+            public long getTime(int index)
+            {
+                return times[index];
+            }
+
+
+            @Override
+            public double getValue(int index)
+            {
+                return values[index];
+            }
+        };
+    }
+
+}
@@ -0,0 +1,693 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Publishes the latest reading and statistics of each registered meter in a memory-mapped file, so other local processes (i.e. an HMI, logger, or BMS
+ * bridge) can read them with no IPC and no system calls. Use a {@link Reader} to read the file from another JVM.
+ *
+ * <p>
+ * Each meter has a fixed slot, rewritten as each reading is decoded. Slots are guarded by a sequence lock (seqlock): the writer makes the sequence odd,
+ * writes the slot, then makes it even again. A reader reads the sequence, the slot, then the sequence again, and retries if the sequence was odd or
+ * has changed, so it never sees a half-written reading and never blocks the writer.
+ *
+ * <p>
+ * File layout, little-endian:
+ * <pre>
+ * Header (64 bytes):   0 magic "CO2M" (int 0x434f324d), 4 version (int 1), 8 slot count (int), 12 slot size (int 256), 16 reserved.
+ * Slot (256 bytes, at 64 + slot * 256):
+ *                      0 sequence (long, 0 if never used, odd while being written)
+ *                      8 time of the reading (long, milliseconds since the epoch)
+ *                     16 key length (int), 20 key (32 bytes of UTF-8, i.e. the Serial Port name)
+ *                     56 per channel in the order of {@link Channel}, 40 bytes each: value, minimum, maximum, average (doubles, NaN if none),
+ *                        samples (long)
+ * </pre>
+ *
+ * @author Darian Cabot
+ */
+public final class SharedReadingFile implements Closeable
+{
+    static final int MAGIC = 0x434f324d; // "CO2M"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 256;
+    static final int MAX_KEY_LENGTH = 32;
+
+    private static final int SEQUENCE = 0;
+    private static final int TIME = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int KEY = 20;
+    private static final int CHANNELS_OFFSET = 56;
+    private static final int CHANNEL_SIZE = 40;
+
+    private static final Channel[] CHANNELS = Channel.values();
+
+    private final FileChannel file;
+    private final ByteBuffer buffer;
+    private final LongSupplier clock;
+    private final Map<ExtechCO250, Publisher> publishers = new ConcurrentHashMap<>();
+    private final boolean[] used;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Creates or replaces the file, with all slots empty.
+     *
+     * @param path  the file, usually on a memory backed file system (i.e. /dev/shm)
+     * @param slots the maximum number of meters
+     *
+     * @throws IOException if the file could not be created.
+     */
+    public SharedReadingFile(Path path, int slots) throws IOException
+    {
+        this(path, slots, System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Creates or replaces the file, with all slots empty.
+     *
+     * @param path  the file
+     * @param slots the maximum number of meters
+     * @param clock a time source in milliseconds since the epoch
+     *
+     * @throws IOException if the file could not be created.
+     */
+    SharedReadingFile(Path path, int slots, LongSupplier clock) throws IOException
+    {
+        if (slots < 1)
+        {
+            throw new IllegalArgumentException("Slots must be at least 1.");
+        }
+
+        this.clock = clock;
+        this.used = new boolean[slots];
+
+        int size = HEADER_SIZE + slots * SLOT_SIZE;
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try
+        {
+            file.truncate(0);
+            MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            file.close();
+            throw ex;
+        }
+
+        // The header last, so a reader never sees a valid header over a file being set up.
+        buffer.putInt(8, slots);
+        buffer.putInt(12, SLOT_SIZE);
+        buffer.putInt(4, VERSION);
+        Fences.store();
+        buffer.putInt(0, MAGIC);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts publishing the readings of a meter in a free slot.
+     *
+     * @param key    a unique key for the meter (i.e. the Serial Port name), up to 32 bytes of UTF-8
+     * @param device the meter
+     *
+     * @return the slot.
+     *
+     * @throws IllegalStateException if there is no free slot.
+     */
+    public synchronized int register(String key, ExtechCO250 device)
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        if (keyBytes.length > MAX_KEY_LENGTH)
+        {
+            throw new IllegalArgumentException("Key is longer than " + MAX_KEY_LENGTH + " bytes: " + key);
+        }
+
+        if (publishers.containsKey(device))
+        {
+            throw new IllegalArgumentException("Meter is already registered: " + key);
+        }
+
+        int slot = 0;
+
+        while ((slot < used.length) && used[slot])
+        {
+            slot ++;
+        }
+
+        if (slot == used.length)
+        {
+            throw new IllegalStateException("No free slot: " + used.length + " meters registered.");
+        }
+
+        used[slot] = true;
+
+        Publisher publisher = new Publisher(device, HEADER_SIZE + slot * SLOT_SIZE, keyBytes);
+        publishers.put(device, publisher);
+        publisher.publish();
+        device.addEventListener(publisher);
+
+        return slot;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops publishing the readings of a meter, and empties its slot.
+     *
+     * @param device the meter
+     */
+    public synchronized void unregister(ExtechCO250 device)
+    {
+        Publisher publisher = publishers.remove(device);
+
+        if (publisher != null)
+        {
+            device.removeEventListener(publisher);
+            publisher.clear();
+            used[(publisher.offset - HEADER_SIZE) / SLOT_SIZE] = false;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops publishing all meters and closes the file. Readers keep the last readings published.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (Publisher publisher : publishers.values())
+        {
+            publisher.device.removeEventListener(publisher);
+        }
+
+        publishers.clear();
+        file.close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a meter's slot as each reading is decoded. Readings of one meter are decoded on one thread at a time, so each slot has a single writer.
+     */
+    private final class Publisher implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final int offset;
+        private final byte[] key;
+
+
+        Publisher(ExtechCO250 device, int offset, byte[] key)
+        {
+            this.device = device;
+            this.offset = offset;
+            this.key = key;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            publish();
+        }
+
+
+        synchronized void publish()
+        {
+            long sequence = buffer.getLong(offset + SEQUENCE);
+            buffer.putLong(offset + SEQUENCE, sequence + 1);
+            Fences.store();
+
+            buffer.putLong(offset + TIME, clock.getAsLong());
+            buffer.putInt(offset + KEY_LENGTH, key.length);
+
+            for (int i = 0; i < key.length; i ++)
+            {
+                buffer.put(offset + KEY + i, key[i]);
+            }
+
+            for (Channel channel : CHANNELS)
+            {
+                Data.Value value = device.data.getValue(channel);
+                Data.Value.Statistics.Snapshot statistics = value.statistics.snapshot();
+                Double number = value.getValueDouble();
+                int position = offset + CHANNELS_OFFSET + channel.ordinal() * CHANNEL_SIZE;
+
+                buffer.putDouble(position, (number == null) ? Double.NaN : number);
+                buffer.putDouble(position + 8, statistics.getMinimum());
+                buffer.putDouble(position + 16, statistics.getMaximum());
+                buffer.putDouble(position + 24, statistics.getAverage());
+                buffer.putLong(position + 32, statistics.getSamples());
+            }
+
+            Fences.store();
+            buffer.putLong(offset + SEQUENCE, sequence + 2);
+        }
+
+
+        synchronized void clear()
+        {
+            long sequence = buffer.getLong(offset + SEQUENCE);
+            buffer.putLong(offset + SEQUENCE, sequence + 1);
+            Fences.store();
+
+            for (int i = TIME; i < SLOT_SIZE; i += 8)
+            {
+                buffer.putLong(offset + i, 0L);
+            }
+
+            Fences.store();
+            buffer.putLong(offset + SEQUENCE, 0L);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Reads the latest readings from a file published by a {@link SharedReadingFile}, possibly in another process.
+     *
+     * <p>
+     * Reads come straight from the memory-mapped file without system calls, and only retry while the writer is rewriting the same slot.
+     */
+    public static final class Reader implements Closeable
+    {
+        private final FileChannel file;
+        private final ByteBuffer buffer;
+        private final int slots;
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Constructor. Opens a file published by a SharedReadingFile.
+         *
+         * @param path the file
+         *
+         * @throws IOException if the file could not be opened, or is not a valid shared reading file.
+         */
+        public Reader(Path path) throws IOException
+        {
+            file = FileChannel.open(path, StandardOpenOption.READ);
+
+            try
+            {
+                ByteBuffer header = file.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(file.size(), HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+
+                if ((header.limit() < HEADER_SIZE) || (header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION) || (header.getInt(12) != SLOT_SIZE))
+                {
+                    throw new IOException("Not a compatible shared reading file: " + path);
+                }
+
+                Fences.load();
+                slots = header.getInt(8);
+                buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + (long) slots * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                file.close();
+                throw ex;
+            }
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Gets the number of slots in the file.
+         *
+         * @return the number of slots.
+         */
+        public int getSlotCount()
+        {
+            return slots;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Finds the slot of a meter.
+         *
+         * @param key the unique key of the meter
+         *
+         * @return the slot, or -1 if not found.
+         */
+        public int find(String key)
+        {
+            Reading reading = new Reading();
+
+            for (int slot = 0; slot < slots; slot ++)
+            {
+                if (read(slot, reading) && reading.getKey().equals(key))
+                {
+                    return slot;
+                }
+            }
+
+            return -1;
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Reads a consistent copy of a slot.
+         *
+         * @param slot    the slot
+         * @param reading the Reading to copy into, which may be reused between reads
+         *
+         * @return true if the slot is in use, false if empty.
+         */
+        public boolean read(int slot, Reading reading)
+        {
+            if ((slot < 0) || (slot >= slots))
+            {
+                throw new IllegalArgumentException("Slot out of range: " + slot);
+            }
+
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+
+            for (int attempt = 0;; attempt ++)
+            {
+                long sequence = buffer.getLong(offset + SEQUENCE);
+
+                if (sequence == 0)
+                {
+                    return false;
+                }
+
+                if ((sequence & 1) == 0)
+                {
+                    Fences.load();
+
+                    reading.time = buffer.getLong(offset + TIME);
+                    reading.keyLength = Math.min(Math.max(buffer.getInt(offset + KEY_LENGTH), 0), MAX_KEY_LENGTH);
+
+                    for (int i = 0; i < reading.keyLength; i ++)
+                    {
+                        reading.key[i] = buffer.get(offset + KEY + i);
+                    }
+
+                    for (int c = 0; c < CHANNELS.length; c ++)
+                    {
+                        int position = offset + CHANNELS_OFFSET + c * CHANNEL_SIZE;
+                        reading.values[c] = buffer.getDouble(position);
+                        reading.minimums[c] = buffer.getDouble(position + 8);
+                        reading.maximums[c] = buffer.getDouble(position + 16);
+                        reading.averages[c] = buffer.getDouble(position + 24);
+                        reading.samples[c] = buffer.getLong(position + 32);
+                    }
+
+                    Fences.load();
+
+                    if (buffer.getLong(offset + SEQUENCE) == sequence)
+                    {
+                        reading.sequence = sequence;
+                        reading.keyString = null;
+                        return true;
+                    }
+                }
+
+                if (attempt > 100)
+                {
+                    Thread.yield(); // The writer may have been descheduled mid-write.
+                }
+            }
+        }
+
+
+        //-----------------------------------------------------------------------
+        /**
+         * Closes the file.
+         *
+         * @throws IOException if closing the file fails.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            file.close();
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A copy of a slot, read by a {@link Reader}. Mutable so it can be reused for every read without allocating.
+     */
+    public static final class Reading
+    {
+        private long sequence;
+        private long time;
+        private final byte[] key = new byte[MAX_KEY_LENGTH];
+        private int keyLength;
+        private String keyString;
+        private final double[] values = new double[CHANNELS.length];
+        private final double[] minimums = new double[CHANNELS.length];
+        private final double[] maximums = new double[CHANNELS.length];
+        private final double[] averages = new double[CHANNELS.length];
+        private final long[] samples = new long[CHANNELS.length];
+
+
+        /**
+         * Gets the sequence number of the slot, which changes each time the slot is written.
+         *
+         * @return the sequence number.
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+
+        /**
+         * Gets the time the reading was published.
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+
+        /**
+         * Gets the unique key of the meter.
+         *
+         * @return the key (i.e. the Serial Port name).
+         */
+        public String getKey()
+        {
+            if (keyString == null)
+            {
+                keyString = new String(key, 0, keyLength, StandardCharsets.UTF_8);
+            }
+
+            return keyString;
+        }
+
+
+        /**
+         * Gets the latest value of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the value, or NaN if not numeric or not received yet.
+         */
+        public double getValue(Channel channel)
+        {
+            return values[channel.ordinal()];
+        }
+
+
+        /**
+         * Gets the minimum value of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the minimum, or NaN if there are no samples.
+         */
+        public double getMinimum(Channel channel)
+        {
+            return minimums[channel.ordinal()];
+        }
+
+
+        /**
+         * Gets the maximum value of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the maximum, or NaN if there are no samples.
+         */
+        public double getMaximum(Channel channel)
+        {
+            return maximums[channel.ordinal()];
+        }
+
+
+        /**
+         * Gets the average value of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the average, or NaN if there are no samples.
+         */
+        public double getAverage(Channel channel)
+        {
+            return averages[channel.ordinal()];
+        }
+
+
+        /**
+         * Gets the number of samples of the statistics of a channel.
+         *
+         * @param channel the channel
+         *
+         * @return the number of samples.
+         */
+        public long getSamples(Channel channel)
+        {
+            return samples[channel.ordinal()];
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Memory fences for the seqlock. Plain ByteBuffer accesses may otherwise be reordered by the JIT or CPU.
+     *
+     * <p>
+     * Java 8 has no public fence API, so these use sun.misc.Unsafe when available, otherwise a volatile access (which orders accesses in practice).
+     */
+    private static final class Fences
+    {
+        private static final MethodHandle LOAD_FENCE;
+        private static final MethodHandle STORE_FENCE;
+        private static volatile int fence;
+
+
+        static
+        {
+            MethodHandle load;
+            MethodHandle store;
+
+            try
+            {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+
+                load = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class)).bindTo(unsafe);
+                store = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", MethodType.methodType(void.class)).bindTo(unsafe);
+            }
+            catch (ReflectiveOperationException | RuntimeException ex)
+            {
+                try
+                {
+                    load = MethodHandles.lookup().findStatic(Fences.class, "volatileLoad", MethodType.methodType(void.class));
+                    store = MethodHandles.lookup().findStatic(Fences.class, "volatileStore", MethodType.methodType(void.class));
+                }
+                catch (ReflectiveOperationException fex)
+                {
+                    throw new ExceptionInInitializerError(fex);
+                }
+            }
+
+            LOAD_FENCE = load;
+            STORE_FENCE = store;
+        }
+
+
+        private Fences()
+        {
+        }
+
+
+        static void load()
+        {
+            try
+            {
+                LOAD_FENCE.invokeExact();
+            }
+            catch (Throwable ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+
+        static void store()
+        {
+            try
+            {
+                STORE_FENCE.invokeExact();
+            }
+            catch (Throwable ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+
+        private static void volatileLoad()
+        {
+            int ignored = fence;
+        }
+
+
+        private static void volatileStore()
+        {
+            fence ++;
+        }
+
+    }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Detects meters that have stopped sending data, using a hashed timing wheel so that thousands of meters can be watched from one thread.
+ *
+ * <p>
+ * A meter is stale when it has missed the configured number of packets (the meter sends data at 2Hz), and this is notified once to the meter's
+ * EventListeners with {@link EventListener#deviceStaleEvent(String)}. Watching restarts when the next packet is received.
+ *
+ * <p>
+ * Arming the watchdog on each packet is O(1) and allocation free; it only records the new deadline. Timers are moved to the wheel slot of their
+ * latest deadline lazily, by the wheel thread, when their old slot expires.
+ *
+ * @author Darian Cabot
+ */
+public final class StaleWatchdog
+{
+    private static final long PACKET_INTERVAL = 500; // Milliseconds, refresh rate is 2Hz.
+    private static final long DEFAULT_TICK_DURATION = 100; // Milliseconds.
+    private static final int WHEEL_SIZE = 512; // Must be a power of 2.
+
+    private final LongSupplier nanoClock;
+    private final long timeout;
+    private final long tickDuration;
+    private final long startTime;
+
+    private final Timer[] wheel = new Timer[WHEEL_SIZE];
+    private long currentTick;
+
+    private final Map<ExtechCO250, Timer> timers = new ConcurrentHashMap<>();
+    private final AtomicReference<Timer> pending = new AtomicReference<>();
+    private ScheduledExecutorService scheduler;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param missedPackets the number of consecutive packets that must be missed for a meter to be stale
+     */
+    public StaleWatchdog(int missedPackets)
+    {
+        this(missedPackets, DEFAULT_TICK_DURATION, System::nanoTime);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param missedPackets the number of consecutive packets that must be missed for a meter to be stale
+     * @param tickDuration  the resolution of the wheel in milliseconds
+     * @param nanoClock     the time source, in nanoseconds
+     */
+    StaleWatchdog(int missedPackets, long tickDuration, LongSupplier nanoClock)
+    {
+        if (missedPackets < 1)
+        {
+            throw new IllegalArgumentException("Missed packets must be at least 1.");
+        }
+
+        this.nanoClock = nanoClock;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(missedPackets * PACKET_INTERVAL);
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.startTime = nanoClock.getAsLong();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts the wheel thread.
+     */
+    public synchronized void start()
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("StaleWatchdog"));
+            scheduler.scheduleAtFixedRate(() -> advance(nanoClock.getAsLong()), tickDuration, tickDuration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops the wheel thread. Meters remain watched if started again.
+     */
+    public synchronized void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts watching a meter. The first deadline is counted from now.
+     *
+     * @param device the meter to watch
+     */
+    public void watch(ExtechCO250 device)
+    {
+        timers.computeIfAbsent(device, d ->
+        {
+            Timer timer = new Timer(d);
+            d.addEventListener(timer);
+            timer.dataUpdateEvent();
+
+            return timer;
+        });
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops watching a meter.
+     *
+     * @param device the meter to stop watching
+     */
+    public void unwatch(ExtechCO250 device)
+    {
+        Timer timer = timers.remove(device);
+
+        if (timer != null)
+        {
+            device.removeEventListener(timer);
+            timer.isCancelled = true;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of meters currently stale.
+     *
+     * @return the number of stale meters.
+     */
+    public int getStaleCount()
+    {
+        int count = 0;
+
+        for (Timer timer : timers.values())
+        {
+            if (timer.state.get() == Timer.STALE)
+            {
+                count ++;
+            }
+        }
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Advances the wheel to the given time, expiring timers in each passed slot. Only called from the wheel thread.
+     *
+     * @param now the current time in nanoseconds
+     */
+    synchronized void advance(long now)
+    {
+        long targetTick = tickOf(now);
+
+        // Insert timers that have been armed again after going stale.
+        Timer timer = pending.getAndSet(null);
+
+        while (timer != null)
+        {
+            Timer next = timer.nextPending;
+            timer.nextPending = null;
+
+            if ( ! timer.isCancelled)
+            {
+                schedule(timer, Math.max(currentTick + 1, tickOf(timer.deadline)));
+            }
+
+            timer = next;
+        }
+
+        while (currentTick < targetTick)
+        {
+            currentTick ++;
+            expireSlot(now);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void expireSlot(long now)
+    {
+        Timer timer = wheel[(int) (currentTick & (WHEEL_SIZE - 1))];
+
+        while (timer != null)
+        {
+            Timer next = timer.next;
+
+            if (timer.isCancelled)
+            {
+                unlink(timer);
+            }
+            else if (timer.expiryTick <= currentTick)
+            {
+                long deadline = timer.deadline;
+
+                if (deadline - now <= 0)
+                {
+                    unlink(timer);
+                    timer.state.set(Timer.STALE);
+
+                    // Check again, in case it was armed while going stale.
+                    if (timer.deadline - now <= 0)
+                    {
+                        String portName = timer.device.getPortName();
+                        timer.device.getDecoder().notifyEventListeners(listener -> listener.deviceStaleEvent(portName));
+                    }
+                    else if (timer.state.compareAndSet(Timer.STALE, Timer.ARMED))
+                    {
+                        schedule(timer, Math.max(currentTick + 1, tickOf(timer.deadline)));
+                    }
+                }
+                else
+                {
+                    // Armed since it was inserted, move to the slot of the latest deadline.
+                    unlink(timer);
+                    schedule(timer, Math.max(currentTick + 1, tickOf(deadline)));
+                }
+            }
+
+            timer = next;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private long tickOf(long time)
+    {
+        return (time - startTime + tickDuration - 1) / tickDuration;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void schedule(Timer timer, long tick)
+    {
+        int slot = (int) (tick & (WHEEL_SIZE - 1));
+
+        timer.expiryTick = tick;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = wheel[slot];
+
+        if (wheel[slot] != null)
+        {
+            wheel[slot].prev = timer;
+        }
+
+        wheel[slot] = timer;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void unlink(Timer timer)
+    {
+        if (timer.prev == null)
+        {
+            wheel[timer.slot] = timer.next;
+        }
+        else
+        {
+            timer.prev.next = timer.next;
+        }
+
+        if (timer.next != null)
+        {
+            timer.next.prev = timer.prev;
+        }
+
+        timer.prev = null;
+        timer.next = null;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The watchdog timer of a single meter. Lives in at most one wheel slot list, or the pending stack, at a time.
+     */
+    private final class Timer implements EventListener
+    {
+        static final int ARMED = 0; // In the wheel, or pending insertion.
+        static final int STALE = 1; // Not in the wheel.
+
+        private final ExtechCO250 device;
+        private final AtomicInteger state = new AtomicInteger(STALE);
+        private volatile long deadline;
+        private volatile boolean isCancelled;
+
+        // Owned by the wheel thread.
+        private Timer prev;
+        private Timer next;
+        private long expiryTick;
+        private int slot;
+
+        // Pending stack link.
+        private Timer nextPending;
+
+
+        Timer(ExtechCO250 device)
+        {
+            this.device = device;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            deadline = nanoClock.getAsLong() + timeout;
+
+            // Revive a stale (or new) timer by handing it to the wheel thread.
+            if ((state.get() == STALE) && (state.getAndSet(ARMED) == STALE))
+            {
+                Timer head;
+
+                do
+                {
+                    head = pending.get();
+                    nextPending = head;
+                }
+                while ( ! pending.compareAndSet(head, this));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Saves and restores the statistics of many meters to a local file, so that long running statistics survive a restart.
+ *
+ * <p>
+ * Meters are registered by a unique key (i.e. the Serial Port name). The file is written in a compact binary form to a temporary file, then moved into
+ * place so a crash never leaves a partial checkpoint. Restoring is a single sequential read; entries for keys that are not registered are skipped.
+ *
+ * <p>
+ * File format (big-endian): magic, version, count, then per meter the key (modified UTF-8) and the statistics of each value in the order of
+ * {@link Data#getValues()}.
+ *
+ * @author Darian Cabot
+ */
+public final class StatisticsCheckpoint
+{
+    private static final int MAGIC = 0x434f3253; // "CO2S"
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Map<String, Data> devices = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    private Thread shutdownHook;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param file the checkpoint file
+     */
+    public StatisticsCheckpoint(Path file)
+    {
+        this.file = file;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Registers a meter's Data to be saved and restored.
+     *
+     * @param key  a unique key for the meter (i.e. the Serial Port name)
+     * @param data the meter's Data
+     */
+    public void register(String key, Data data)
+    {
+        devices.put(key, data);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops a meter's Data being saved. Its statistics are not written to subsequent checkpoints.
+     *
+     * @param key the unique key of the meter
+     */
+    public void unregister(String key)
+    {
+        devices.remove(key);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the statistics of all registered meters to the checkpoint file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save() throws IOException
+    {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE)))
+        {
+            // Take a copy so the count matches the entries if meters are registered concurrently.
+            Map<String, Data> snapshot = new LinkedHashMap<>(devices);
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(snapshot.size());
+
+            for (Map.Entry<String, Data> entry : snapshot.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+
+                for (Data.Value value : entry.getValue().getValues())
+                {
+                    value.statistics.writeTo(out);
+                }
+            }
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Restores the statistics of all registered meters from the checkpoint file. Meters that are not in the file are left unchanged.
+     *
+     * @return the number of meters restored, 0 if there is no checkpoint file.
+     *
+     * @throws IOException if the file could not be read, or is not a valid checkpoint.
+     */
+    public synchronized int restore() throws IOException
+    {
+        int restored = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)))
+        {
+            if ((in.readInt() != MAGIC) || (in.readShort() != VERSION))
+            {
+                throw new IOException("Not a compatible statistics checkpoint file: " + file);
+            }
+
+            int count = in.readInt();
+            Data discard = new Data();
+
+            for (int i = 0; i < count; i ++)
+            {
+                Data data = devices.get(in.readUTF());
+
+                if (data == null)
+                {
+                    data = discard; // Not registered, read and skip.
+                }
+                else
+                {
+                    restored ++;
+                }
+
+                for (Data.Value value : data.getValues())
+                {
+                    value.statistics.readFrom(in);
+                }
+            }
+        }
+        catch (NoSuchFileException ex)
+        {
+            return 0;
+        }
+
+        return restored;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts saving periodically on a background thread, and on JVM shutdown.
+     *
+     * @param interval the time between checkpoints in milliseconds
+     */
+    public synchronized void start(long interval)
+    {
+        if (scheduler != null)
+        {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("StatisticsCheckpoint"));
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, interval, interval, TimeUnit.MILLISECONDS);
+
+        shutdownHook = new Thread(this::saveQuietly, "StatisticsCheckpoint-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops saving periodically, and saves a final checkpoint.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public void stop() throws IOException
+    {
+        synchronized (this)
+        {
+            if (scheduler == null)
+            {
+                return;
+            }
+
+            scheduler.shutdownNow();
+            scheduler = null;
+
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException ex)
+            {
+                // Already shutting down, the hook will save.
+                return;
+            }
+        }
+
+        save();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void saveQuietly()
+    {
+        try
+        {
+            save();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error saving statistics checkpoint: " + ex.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,520 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Serves the raw packet stream of one meter to any number of TCP subscribers, so tools that expect a Serial Port (through a virtual port) can share
+ * a meter that only one process can open.
+ *
+ * <p>
+ * Each packet received from the meter (including the preamble, and packets that fail to decode) is copied once into a read-only buffer which is
+ * shared by all subscribers, and written to them by a single thread using one NIO Selector. The meter's connection is never held up by a subscriber.
+ * Anything sent by subscribers is ignored.
+ *
+ * <p>
+ * A subscriber that does not keep up builds a queue of unsent packets. When the queue exceeds the maximum, the subscriber is either disconnected
+ * ({@link Policy#DISCONNECT}, the default) or has its unsent packets dropped in favour of the newest ({@link Policy#COALESCE}). Packets are only ever
+ * dropped whole, so subscribers always receive complete packets.
+ *
+ * @author Darian Cabot
+ */
+public final class StreamServer implements Closeable
+{
+    private static final int DEFAULT_MAX_QUEUED_BYTES = 64 * 1024;
+    private static final long ACCEPT_RETRY_DELAY = 1000; // Milliseconds.
+
+    private final ExtechCO250 device;
+    private final PacketFramer.Handler handler = this::packetFramed;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+
+    // Only used on the selector thread.
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(1024);
+    private long acceptRetryTime;
+    private boolean isAcceptPaused;
+
+    private volatile boolean running = true;
+    private volatile int maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private volatile Policy policy = Policy.DISCONNECT;
+    private volatile int subscriberCount;
+
+    private final LongAdder droppedSubscribers = new LongAdder();
+    private final LongAdder droppedPackets = new LongAdder();
+
+
+    /**
+     * What to do with a subscriber that does not keep up.
+     */
+    public enum Policy
+    {
+        /**
+         * Disconnect the subscriber.
+         */
+        DISCONNECT,
+        /**
+         * Drop the unsent packets, keeping the newest.
+         */
+        COALESCE
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Starts serving the packets of the meter.
+     *
+     * @param device  the meter
+     * @param address the local address to listen on (i.e. a loopback address, port 0 for any free port)
+     *
+     * @throws IOException if the address could not be bound.
+     */
+    public StreamServer(ExtechCO250 device, InetSocketAddress address) throws IOException
+    {
+        this.device = device;
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+
+        try
+        {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            server.close();
+            selector.close();
+            throw ex;
+        }
+
+        thread = new DaemonThreadFactory("StreamServer").newThread(this::run);
+        thread.start();
+
+        device.getDecoder().addPacketHandler(handler);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the address the server is listening on.
+     *
+     * @return the address.
+     *
+     * @throws IOException if the server is closed.
+     */
+    public InetSocketAddress getLocalAddress() throws IOException
+    {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the maximum number of unsent bytes queued for a subscriber before the {@link Policy} applies.
+     *
+     * @param bytes the number of bytes (default 64 KiB)
+     */
+    public void setMaxQueuedBytes(int bytes)
+    {
+        if (bytes < PacketFramer.PACKET_LENGTH + 1)
+        {
+            throw new IllegalArgumentException("Maximum queued bytes must hold at least one packet: " + bytes);
+        }
+
+        this.maxQueuedBytes = bytes;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets what to do with a subscriber that does not keep up.
+     *
+     * @param policy the Policy (default {@link Policy#DISCONNECT})
+     */
+    public void setPolicy(Policy policy)
+    {
+        this.policy = policy;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of connected subscribers.
+     *
+     * @return the number of subscribers.
+     */
+    public int getSubscriberCount()
+    {
+        return subscriberCount;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of subscribers disconnected for not keeping up.
+     *
+     * @return the number of subscribers.
+     */
+    public long getDroppedSubscribers()
+    {
+        return droppedSubscribers.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of packets dropped for subscribers not keeping up, with {@link Policy#COALESCE}.
+     *
+     * @return the number of packets, counted once for each subscriber.
+     */
+    public long getDroppedPackets()
+    {
+        return droppedPackets.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops serving, and disconnects all subscribers.
+     *
+     * @throws IOException if closing the server fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        device.getDecoder().removePacketHandler(handler);
+
+        running = false;
+        selector.wakeup();
+
+        try
+        {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        server.close();
+        selector.close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Called for each packet from the meter, on the thread receiving from the meter.
+     *
+     * @param packet the packet bytes
+     */
+    private void packetFramed(byte[] packet)
+    {
+        if ( ! running)
+        {
+            return; // Closed, or the selector thread has stopped; nothing would take the packet off the queue.
+        }
+
+        pending.add(ByteBuffer.wrap(packet.clone()).asReadOnlyBuffer());
+        selector.wakeup();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The selector thread.
+     */
+    private void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select(isAcceptPaused ? ACCEPT_RETRY_DELAY : 0);
+
+                if (isAcceptPaused && (System.nanoTime() - acceptRetryTime >= 0))
+                {
+                    isAcceptPaused = false;
+                    server.keyFor(selector).interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if ( ! key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                        continue;
+                    }
+
+                    Subscriber subscriber = (Subscriber) key.attachment();
+
+                    if (key.isReadable())
+                    {
+                        subscriber.read();
+                    }
+
+                    if (key.isValid() && key.isWritable())
+                    {
+                        subscriber.flush();
+                    }
+                }
+
+                ByteBuffer packet;
+
+                while ((packet = pending.poll()) != null)
+                {
+                    for (Subscriber subscriber : new ArrayList<>(subscribers))
+                    {
+                        subscriber.send(packet.duplicate());
+                    }
+                }
+            }
+
+            for (Subscriber subscriber : new ArrayList<>(subscribers))
+            {
+                subscriber.close();
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            System.err.println("Stream server stopped: " + ex);
+        }
+        finally
+        {
+            running = false;
+            device.getDecoder().removePacketHandler(handler);
+            pending.clear();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void accept()
+    {
+        SocketChannel channel;
+
+        while ((channel = acceptNext()) != null)
+        {
+            try
+            {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                subscribers.add(new Subscriber(channel));
+                subscriberCount = subscribers.size();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Error accepting subscriber: " + ex.getMessage());
+
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException closeEx)
+                {
+                    // Already failed; nothing more to do.
+                }
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Accepts a subscriber. If accepting fails (i.e. out of file descriptors), accepting pauses for the retry delay rather than failing the server or
+     * spinning on the pending connection.
+     *
+     * @return the subscriber's channel, or null if there are none to accept.
+     */
+    private SocketChannel acceptNext()
+    {
+        try
+        {
+            return server.accept();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error accepting subscribers, retrying in " + ACCEPT_RETRY_DELAY + " ms: " + ex.getMessage());
+
+            isAcceptPaused = true;
+            acceptRetryTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_RETRY_DELAY);
+            server.keyFor(selector).interestOps(0);
+
+            return null;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A connected subscriber. Only used on the selector thread.
+     */
+    private final class Subscriber
+    {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        private int queuedBytes;
+
+
+        Subscriber(SocketChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+
+        void send(ByteBuffer packet)
+        {
+            if (queuedBytes + packet.remaining() > maxQueuedBytes)
+            {
+                if (policy == Policy.DISCONNECT)
+                {
+                    droppedSubscribers.increment();
+                    close();
+                    return;
+                }
+
+                coalesce();
+            }
+
+            queue.add(packet);
+            queuedBytes += packet.remaining();
+            flush();
+        }
+
+
+        /**
+         * Drops the unsent packets, apart from a packet already partly sent.
+         */
+        private void coalesce()
+        {
+            ByteBuffer head = queue.peek();
+            boolean isPartlySent = (head != null) && (head.position() > 0);
+            int keep = isPartlySent ? 1 : 0;
+
+            while (queue.size() > keep)
+            {
+                queuedBytes -= queue.removeLast().remaining();
+                droppedPackets.increment();
+            }
+        }
+
+
+        void flush()
+        {
+            try
+            {
+                while ( ! queue.isEmpty())
+                {
+                    ByteBuffer head = queue.peek();
+                    int count = channel.write(head);
+                    queuedBytes -= count;
+
+                    if (head.hasRemaining())
+                    {
+                        break;
+                    }
+
+                    queue.poll();
+                }
+
+                key.interestOps(queue.isEmpty() ? SelectionKey.OP_READ : (SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+            }
+            catch (IOException ex)
+            {
+                close();
+            }
+        }
+
+
+        void read()
+        {
+            try
+            {
+                discard.clear();
+
+                if (channel.read(discard) < 0)
+                {
+                    close();
+                }
+            }
+            catch (IOException ex)
+            {
+                close();
+            }
+        }
+
+
+        void close()
+        {
+            subscribers.remove(this);
+            subscriberCount = subscribers.size();
+            queue.clear();
+            key.cancel();
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Error closing subscriber: " + ex.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Arrays;
+
+
+/**
+ * A mergeable summary of values: count, sum, minimum, maximum, and a fixed-bin histogram sketch for approximate quantiles.
+ *
+ * <p>
+ * Summaries with the same histogram layout can be merged in any order with the same result as adding all values to one summary, so partial
+ * summaries can be kept per meter and combined for any group of meters.
+ * <p>
+ * Not thread safe; callers must synchronize.
+ *
+ * @author Darian Cabot
+ */
+public final class Summary
+{
+    private final double lower;
+    private final double binWidth;
+    private final long[] bins;
+    private long underflow;
+    private long overflow;
+
+    private long count;
+    private double sum;
+    private double minimum = Double.POSITIVE_INFINITY;
+    private double maximum = Double.NEGATIVE_INFINITY;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param lower    the lower bound of the histogram
+     * @param upper    the upper bound of the histogram
+     * @param binCount the number of equal width histogram bins between the bounds
+     */
+    public Summary(double lower, double upper, int binCount)
+    {
+        if ((binCount < 1) || ( ! (upper > lower)))
+        {
+            throw new IllegalArgumentException("Summary needs at least one bin, and upper greater than lower.");
+        }
+
+        this.lower = lower;
+        this.binWidth = (upper - lower) / binCount;
+        this.bins = new long[binCount];
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Copy constructor.
+     *
+     * @param other the Summary to copy
+     */
+    public Summary(Summary other)
+    {
+        this.lower = other.lower;
+        this.binWidth = other.binWidth;
+        this.bins = other.bins.clone();
+        this.underflow = other.underflow;
+        this.overflow = other.overflow;
+        this.count = other.count;
+        this.sum = other.sum;
+        this.minimum = other.minimum;
+        this.maximum = other.maximum;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates an empty Summary with the same histogram layout.
+     *
+     * @return a new empty Summary.
+     */
+    public Summary newEmpty()
+    {
+        Summary empty = new Summary(this);
+        empty.clear();
+
+        return empty;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a value.
+     *
+     * @param value the value to add
+     */
+    public void add(double value)
+    {
+        count ++;
+        sum += value;
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+
+        double bin = Math.floor((value - lower) / binWidth);
+
+        if (bin < 0)
+        {
+            underflow ++;
+        }
+        else if (bin >= bins.length)
+        {
+            overflow ++;
+        }
+        else
+        {
+            bins[(int) bin] ++;
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Merges another Summary into this one.
+     *
+     * @param other the Summary to merge, which must have the same histogram layout
+     */
+    public void merge(Summary other)
+    {
+        if ((other.lower != lower) || (other.binWidth != binWidth) || (other.bins.length != bins.length))
+        {
+            throw new IllegalArgumentException("Summaries must have the same histogram layout to be merged.");
+        }
+
+        for (int i = 0; i < bins.length; i ++)
+        {
+            bins[i] += other.bins[i];
+        }
+
+        underflow += other.underflow;
+        overflow += other.overflow;
+        count += other.count;
+        sum += other.sum;
+        minimum = Math.min(minimum, other.minimum);
+        maximum = Math.max(maximum, other.maximum);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes all values.
+     */
+    public void clear()
+    {
+        Arrays.fill(bins, 0);
+        underflow = 0;
+        overflow = 0;
+        count = 0;
+        sum = 0;
+        minimum = Double.POSITIVE_INFINITY;
+        maximum = Double.NEGATIVE_INFINITY;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of values.
+     *
+     * @return the number of values.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the sum of all values.
+     *
+     * @return the sum of all values.
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the minimum of all values.
+     *
+     * @return the minimum value, or NaN if empty.
+     */
+    public double getMinimum()
+    {
+        return (count == 0) ? Double.NaN : minimum;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the maximum of all values.
+     *
+     * @return the maximum value, or NaN if empty.
+     */
+    public double getMaximum()
+    {
+        return (count == 0) ? Double.NaN : maximum;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the average of all values.
+     *
+     * @return the average value, or NaN if empty.
+     */
+    public double getAverage()
+    {
+        return (count == 0) ? Double.NaN : sum / count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets an approximate quantile from the histogram, accurate to within one bin width for values between the histogram bounds.
+     *
+     * @param quantile the quantile, from 0 to 1 (i.e. 0.5 for the median)
+     *
+     * @return the approximate value at the quantile, or NaN if empty.
+     */
+    public double getQuantile(double quantile)
+    {
+        if (count == 0)
+        {
+            return Double.NaN;
+        }
+
+        long rank = (long) Math.floor(quantile * (count - 1));
+        long seen = underflow;
+
+        if (rank < seen)
+        {
+            return minimum;
+        }
+
+        for (int i = 0; i < bins.length; i ++)
+        {
+            seen += bins[i];
+
+            if (rank < seen)
+            {
+                double midpoint = lower + (i + 0.5) * binWidth;
+
+                return Math.max(minimum, Math.min(maximum, midpoint));
+            }
+        }
+
+        return maximum;
+    }
+
+}
@@ -0,0 +1,541 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Connects to meters behind serial-to-Ethernet converters (raw TCP, i.e. a converter's "TCP server" mode), as an alternative to {@link Communications}
+ * for meters that a Serial Port cannot reach.
+ *
+ * <p>
+ * A single thread multiplexes every connection with one NIO Selector, so thousands of meters need one thread and no per-connection buffers. Each read
+ * goes into one shared buffer, is recorded by the meter's {@link TrafficRecorder}, then fed through a {@link PacketFramer} to the meter's
+ * {@link Decoder}, so EventListeners see the same events as for a Serial Port. Packets that fail to decode (or whose EventListeners throw) are
+ * counted and skipped.
+ *
+ * <p>
+ * When a connection is lost (closed by the converter or an I/O error), a gap is marked in the statistics, the meter's EventListeners are notified, and
+ * the connection is retried after the reconnect delay until {@link #disconnect(ExtechCO250)}.
+ *
+ * @author Darian Cabot
+ */
+public final class TcpTransport implements Closeable
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<ExtechCO250, Connection> connections = new ConcurrentHashMap<>();
+
+    // Only used on the selector thread.
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final List<Connection> retries = new ArrayList<>();
+
+    private volatile boolean running = true;
+    private volatile long reconnectDelay = 5000;
+
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder protocolErrors = new LongAdder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Starts the selector thread.
+     *
+     * @throws IOException if the Selector could not be opened.
+     */
+    public TcpTransport() throws IOException
+    {
+        selector = Selector.open();
+        thread = new DaemonThreadFactory("TcpTransport").newThread(this::run);
+        thread.start();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts connecting to a meter. Returns immediately; the EventListeners are notified of readings once connected.
+     *
+     * @param device  the meter
+     * @param address the address of the serial-to-Ethernet converter, which must be resolved
+     */
+    public void connect(ExtechCO250 device, InetSocketAddress address)
+    {
+        if (address.isUnresolved())
+        {
+            throw new IllegalArgumentException("Address is unresolved: " + address);
+        }
+
+        Connection connection = new Connection(device, address);
+
+        if (connections.putIfAbsent(device, connection) != null)
+        {
+            throw new IllegalArgumentException("Meter is already connected: " + address);
+        }
+
+        for (Data.Value value : device.data.getValues())
+        {
+            value.statistics.setEnabled(true);
+        }
+
+        submit(connection::open);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Disconnects from a meter, and stops retrying.
+     *
+     * @param device the meter
+     */
+    public void disconnect(ExtechCO250 device)
+    {
+        Connection connection = connections.remove(device);
+
+        if (connection != null)
+        {
+            submit(() ->
+            {
+                retries.remove(connection);
+                connection.close();
+            });
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets whether a meter is connected.
+     *
+     * @param device the meter
+     *
+     * @return true if connected, false if connecting, lost, or not known.
+     */
+    public boolean isConnected(ExtechCO250 device)
+    {
+        Connection connection = connections.get(device);
+
+        return (connection != null) && connection.isConnected;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of meters connected.
+     *
+     * @return the number of connected meters.
+     */
+    public int getConnectedCount()
+    {
+        int count = 0;
+
+        for (Connection connection : connections.values())
+        {
+            if (connection.isConnected)
+            {
+                count ++;
+            }
+        }
+
+        return count;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of bytes received from all meters.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytesReceived()
+    {
+        return bytesReceived.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of packets from all meters that failed to decode, or whose EventListeners threw an exception.
+     *
+     * @return the number of packets.
+     */
+    public long getProtocolErrors()
+    {
+        return protocolErrors.sum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the time between attempts to reconnect a lost or refused connection.
+     *
+     * @param millis the time in milliseconds (default 5 seconds)
+     */
+    public void setReconnectDelay(long millis)
+    {
+        this.reconnectDelay = millis;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Disconnects all meters and stops the selector thread.
+     *
+     * @throws IOException if closing the Selector fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+
+        try
+        {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        connections.clear();
+        selector.close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void submit(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The selector thread.
+     */
+    private void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select(nextRetryDelay());
+
+                Runnable task;
+
+                while ((task = tasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        // Must not stop the selector thread serving the other meters.
+                        System.err.println("TCP transport task failed: " + ex);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection connection = (Connection) key.attachment();
+
+                    if ( ! key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isConnectable())
+                    {
+                        connection.finishConnect();
+                    }
+                    else if (key.isReadable())
+                    {
+                        connection.read();
+                    }
+                }
+
+                retryDue();
+            }
+
+            for (SelectionKey key : selector.keys())
+            {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        catch (IOException | ClosedSelectorException ex)
+        {
+            System.err.println("TCP transport stopped: " + ex);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the time until the next connection is due to be retried.
+     *
+     * @return the time in milliseconds, or 0 to wait indefinitely.
+     */
+    private long nextRetryDelay()
+    {
+        if (retries.isEmpty())
+        {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+
+        for (Connection connection : retries)
+        {
+            next = Math.min(next, Math.max(1, TimeUnit.NANOSECONDS.toMillis(connection.retryTime - now) + 1));
+        }
+
+        return next;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void retryDue()
+    {
+        long now = System.nanoTime();
+        Iterator<Connection> iterator = retries.iterator();
+        List<Connection> due = new ArrayList<>();
+
+        while (iterator.hasNext())
+        {
+            Connection connection = iterator.next();
+
+            if (now - connection.retryTime >= 0)
+            {
+                iterator.remove();
+                due.add(connection);
+            }
+        }
+
+        for (Connection connection : due)
+        {
+            if (connections.get(connection.device) == connection)
+            {
+                connection.open();
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A connection to one meter. Only used on the selector thread, apart from the connected state.
+     */
+    private final class Connection implements PacketFramer.Handler
+    {
+        private final ExtechCO250 device;
+        private final InetSocketAddress address;
+        private final String name;
+        private final PacketFramer framer = new PacketFramer(this);
+
+        private SocketChannel channel;
+        private volatile boolean isConnected;
+        private boolean wasLost;
+        private long retryTime;
+
+
+        Connection(ExtechCO250 device, InetSocketAddress address)
+        {
+            this.device = device;
+            this.address = address;
+            this.name = address.getHostString() + ":" + address.getPort();
+        }
+
+
+        void open()
+        {
+            try
+            {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+
+                if (channel.connect(address))
+                {
+                    channel.register(selector, SelectionKey.OP_READ, this);
+                    connected();
+                }
+                else
+                {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                // RuntimeException: i.e. UnsupportedAddressTypeException, which must not stop the selector thread.
+                lost();
+            }
+        }
+
+
+        void finishConnect()
+        {
+            try
+            {
+                channel.finishConnect();
+                channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                connected();
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                lost();
+            }
+        }
+
+
+        void read()
+        {
+            try
+            {
+                buffer.clear();
+                int count = channel.read(buffer);
+
+                if (count < 0)
+                {
+                    lost();
+                    return;
+                }
+
+                bytesReceived.add(count);
+                device.getTrafficRecorder().record(buffer.array(), 0, count);
+                framer.accept(buffer.array(), 0, count);
+            }
+            catch (IOException ex)
+            {
+                lost();
+            }
+        }
+
+
+        @Override
+        public void packetFramed(byte[] packet)
+        {
+            try
+            {
+                device.getDecoder().decodePacket(packet);
+            }
+            catch (RuntimeException ex)
+            {
+                // Invalid checksum, malformed packet, or a failing EventListener; must not stop the selector thread serving the other meters.
+                protocolErrors.increment();
+                device.getTrafficRecorder().protocolError(name, ex);
+            }
+        }
+
+
+        private void connected()
+        {
+            isConnected = true;
+            framer.reset();
+
+            if (wasLost)
+            {
+                wasLost = false;
+                device.getDecoder().notifyEventListeners(EventListener::connectionRestoredEvent);
+            }
+        }
+
+
+        private void lost()
+        {
+            close();
+
+            if (connections.get(device) != this)
+            {
+                return; // Disconnected.
+            }
+
+            if ( ! wasLost)
+            {
+                wasLost = true;
+
+                for (Data.Value value : device.data.getValues())
+                {
+                    value.statistics.markGap();
+                }
+
+                device.getDecoder().notifyEventListeners(EventListener::connectionLostEvent);
+            }
+
+            retryTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelay);
+            retries.add(this);
+        }
+
+
+        void close()
+        {
+            isConnected = false;
+
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("Error closing connection to " + name + ": " + ex.getMessage());
+                }
+
+                channel = null;
+            }
+        }
+
+    }
+
+}
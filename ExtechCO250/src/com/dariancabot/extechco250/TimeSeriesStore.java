@@ -0,0 +1,846 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+
+/**
+ * An embedded time-series store of decoded readings, with automatic rollups.
+ *
+ * <p>
+ * Raw readings are kept for a short retention period. As each reading arrives it is also added to pre-aggregated rollups (count, minimum, maximum,
+ * sum) at 1 second, 1 minute, and 1 hour resolutions, each kept for longer. Range queries over long spans read the coarsest rollup that satisfies
+ * the requested number of points, instead of raw readings.
+ *
+ * <p>
+ * All storage is primitive ring buffers, bounded by the retention settings. The buffers are allocated in pages as data arrives, so a meter only uses
+ * memory for the time it has actually been recording. Each raw reading takes 16 bytes and each rollup bucket 40 bytes; with the default retention, a
+ * channel that has been recording for 90 days takes about 360 KB (1200 raw readings and 8640 buckets), of which about 145 KB is the 1 second rollup.
+ *
+ * <p>
+ * The rollups can be saved to a file and restored after a restart with {@link #save(Path)} and {@link #restore(Path)}; raw readings are not saved.
+ *
+ * @author Darian Cabot
+ */
+public final class TimeSeriesStore
+{
+    private static final long PACKET_INTERVAL = 500; // Milliseconds, refresh rate is 2Hz.
+    private static final int PAGE_SIZE = 64; // Buckets, and the initial raw capacity.
+    private static final int RAW_BYTES = 8 + 8;
+    private static final int BUCKET_BYTES = 8 + 8 + 8 + 8 + 8;
+
+    private static final int MAGIC = 0x434f3254; // "CO2T"
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Channel[] CHANNELS = Channel.values();
+    private static final Resolution[] ROLLUPS =
+    {
+        Resolution.SECOND, Resolution.MINUTE, Resolution.HOUR
+    };
+
+    private final LongSupplier clock;
+    private final Map<Resolution, Long> retention = new EnumMap<>(Resolution.class);
+    private final Map<String, Series[]> devices = new ConcurrentHashMap<>();
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+
+    /**
+     * The resolutions data is stored at.
+     */
+    public enum Resolution
+    {
+        RAW(0),
+        SECOND(1000),
+        MINUTE(60 * 1000),
+        HOUR(60 * 60 * 1000);
+
+        private final long duration;
+
+
+        Resolution(long duration)
+        {
+            this.duration = duration;
+        }
+
+
+        /**
+         * Gets the duration of each bucket at this resolution.
+         *
+         * @return the bucket duration in milliseconds, 0 for raw readings.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor. Uses the default retention periods: raw readings for 5 minutes, 1 second rollups for 1 hour, 1 minute rollups for 2 days, and
+     * 1 hour rollups for 90 days.
+     */
+    public TimeSeriesStore()
+    {
+        this(System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param clock the time source, in milliseconds since the epoch
+     */
+    TimeSeriesStore(LongSupplier clock)
+    {
+        this.clock = clock;
+        retention.put(Resolution.RAW, 5 * 60 * 1000L);
+        retention.put(Resolution.SECOND, 60 * 60 * 1000L);
+        retention.put(Resolution.MINUTE, 2 * 24 * 60 * 60 * 1000L);
+        retention.put(Resolution.HOUR, 90 * 24 * 60 * 60 * 1000L);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the retention period of a resolution. Only applies to meters registered afterwards.
+     *
+     * @param resolution the resolution
+     * @param period     the retention period in milliseconds
+     */
+    public void setRetention(Resolution resolution, long period)
+    {
+        if (period < Math.max(resolution.getDuration(), PACKET_INTERVAL))
+        {
+            throw new IllegalArgumentException("Retention period must be at least one bucket.");
+        }
+
+        retention.put(resolution, period);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Registers a meter, storing each of its readings as they are decoded.
+     *
+     * @param key    a unique key for the meter (i.e. the Serial Port name)
+     * @param device the meter
+     */
+    public void register(String key, ExtechCO250 device)
+    {
+        Series[] series = allocate();
+
+        if (devices.putIfAbsent(key, series) != null)
+        {
+            throw new IllegalArgumentException("Key is already registered: " + key);
+        }
+
+        Recorder recorder = new Recorder(device, series);
+        recorders.put(key, recorder);
+        device.addEventListener(recorder);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Unregisters a meter, discarding its stored data.
+     *
+     * @param key the unique key of the meter
+     */
+    public void unregister(String key)
+    {
+        Recorder recorder = recorders.remove(key);
+
+        if (recorder != null)
+        {
+            recorder.device.removeEventListener(recorder);
+        }
+
+        devices.remove(key);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a reading for a meter.
+     *
+     * @param key     the unique key of the meter
+     * @param channel the channel
+     * @param time    the time of the reading in milliseconds since the epoch
+     * @param value   the value
+     */
+    public void add(String key, Channel channel, long time, double value)
+    {
+        Series[] series = devices.get(key);
+
+        if (series == null)
+        {
+            throw new IllegalArgumentException("Key is not registered: " + key);
+        }
+
+        series[channel.ordinal()].add(time, value);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Queries a time range at a specific resolution.
+     *
+     * @param key        the unique key of the meter
+     * @param channel    the channel
+     * @param from       the start of the range (inclusive) in milliseconds since the epoch
+     * @param to         the end of the range (exclusive) in milliseconds since the epoch
+     * @param resolution the resolution
+     *
+     * @return the buckets in the range that have data, oldest first. Raw readings are returned as single sample buckets.
+     */
+    public List<Bucket> query(String key, Channel channel, long from, long to, Resolution resolution)
+    {
+        Series[] series = devices.get(key);
+
+        if (series == null)
+        {
+            throw new IllegalArgumentException("Key is not registered: " + key);
+        }
+
+        return series[channel.ordinal()].query(from, to, resolution);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Queries a time range, choosing the finest resolution that has data for the whole range and returns at most the requested number of buckets.
+     *
+     * @param key       the unique key of the meter
+     * @param channel   the channel
+     * @param from      the start of the range (inclusive) in milliseconds since the epoch
+     * @param to        the end of the range (exclusive) in milliseconds since the epoch
+     * @param maxPoints the maximum number of buckets wanted
+     *
+     * @return the buckets in the range that have data, oldest first.
+     */
+    public List<Bucket> query(String key, Channel channel, long from, long to, int maxPoints)
+    {
+        return query(key, channel, from, to, chooseResolution(from, to, maxPoints));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Chooses the finest resolution that is retained back to the start of a range, and has at most the requested number of buckets.
+     *
+     * @param from      the start of the range in milliseconds since the epoch
+     * @param to        the end of the range in milliseconds since the epoch
+     * @param maxPoints the maximum number of buckets wanted
+     *
+     * @return the resolution.
+     */
+    Resolution chooseResolution(long from, long to, int maxPoints)
+    {
+        long age = clock.getAsLong() - from;
+        long span = to - from;
+
+        if ((age <= retention.get(Resolution.RAW)) && (span / PACKET_INTERVAL <= maxPoints))
+        {
+            return Resolution.RAW;
+        }
+
+        for (Resolution resolution : ROLLUPS)
+        {
+            if ((age <= retention.get(resolution)) && (span / resolution.getDuration() <= maxPoints))
+            {
+                return resolution;
+            }
+        }
+
+        return Resolution.HOUR;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes the rollups of all registered meters to a file. The file is written to a temporary file, then moved into place so a crash never leaves
+     * a partial file.
+     * <p>
+     * File format (big-endian): magic, version, count, then per meter the key (modified UTF-8), and per channel and rollup the number of buckets
+     * followed by each bucket's number, count, minimum, maximum, and sum.
+     *
+     * @param file the file
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save(Path file) throws IOException
+    {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE)))
+        {
+            // Take a copy so the count matches the entries if meters are registered concurrently.
+            Map<String, Series[]> snapshot = new LinkedHashMap<>(devices);
+
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(snapshot.size());
+
+            for (Map.Entry<String, Series[]> entry : snapshot.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+
+                for (Series series : entry.getValue())
+                {
+                    series.writeTo(out);
+                }
+            }
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Restores the rollups of all registered meters from a file written by {@link #save(Path)}, adding them to any data already stored. Meters that
+     * are not registered are skipped, as are buckets older than the current retention.
+     *
+     * @param file the file
+     *
+     * @return the number of meters restored, 0 if there is no file.
+     *
+     * @throws IOException if the file could not be read, or is not a valid rollup file.
+     */
+    public synchronized int restore(Path file) throws IOException
+    {
+        int restored = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)))
+        {
+            if ((in.readInt() != MAGIC) || (in.readShort() != VERSION))
+            {
+                throw new IOException("Not a compatible time-series rollup file: " + file);
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i ++)
+            {
+                Series[] series = devices.get(in.readUTF());
+
+                if (series == null)
+                {
+                    series = allocate(); // Not registered, read and discard.
+                }
+                else
+                {
+                    restored ++;
+                }
+
+                for (Series channel : series)
+                {
+                    channel.readFrom(in);
+                }
+            }
+        }
+        catch (NoSuchFileException ex)
+        {
+            return 0;
+        }
+
+        return restored;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the memory allocated for the stored data of all meters, not including object overheads.
+     *
+     * @return the size in bytes.
+     */
+    long getAllocatedBytes()
+    {
+        long bytes = 0;
+
+        for (Series[] series : devices.values())
+        {
+            for (Series channel : series)
+            {
+                bytes += channel.getAllocatedBytes();
+            }
+        }
+
+        return bytes;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private Series[] allocate()
+    {
+        Series[] series = new Series[CHANNELS.length];
+
+        for (int c = 0; c < series.length; c ++)
+        {
+            series[c] = new Series((int) (retention.get(Resolution.RAW) / PACKET_INTERVAL) * 2, retention);
+        }
+
+        return series;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * An aggregate of the readings in one time bucket.
+     */
+    public static final class Bucket
+    {
+        private final long start;
+        private final long count;
+        private final double minimum;
+        private final double maximum;
+        private final double sum;
+
+
+        Bucket(long start, long count, double minimum, double maximum, double sum)
+        {
+            this.start = start;
+            this.count = count;
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.sum = sum;
+        }
+
+
+        /**
+         * Gets the start of the bucket, or the time of a raw reading.
+         *
+         * @return the start time in milliseconds since the epoch.
+         */
+        public long getStart()
+        {
+            return start;
+        }
+
+
+        /**
+         * Gets the number of readings in the bucket.
+         *
+         * @return the number of readings.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        /**
+         * Gets the minimum of the readings in the bucket.
+         *
+         * @return the minimum value.
+         */
+        public double getMinimum()
+        {
+            return minimum;
+        }
+
+
+        /**
+         * Gets the maximum of the readings in the bucket.
+         *
+         * @return the maximum value.
+         */
+        public double getMaximum()
+        {
+            return maximum;
+        }
+
+
+        /**
+         * Gets the average of the readings in the bucket.
+         *
+         * @return the average value.
+         */
+        public double getAverage()
+        {
+            return sum / count;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * The stored data of one channel of one meter: a raw ring buffer and a rollup ring buffer per resolution.
+     */
+    private static final class Series
+    {
+        private final int rawCapacity;
+        private long[] rawTimes;
+        private double[] rawValues;
+        private final long rawRetention;
+        private int rawHead; // Next write position.
+        private int rawSize;
+
+        private final Rollup[] rollups = new Rollup[ROLLUPS.length];
+
+
+        Series(int rawCapacity, Map<Resolution, Long> retention)
+        {
+            this.rawCapacity = rawCapacity;
+            rawTimes = new long[Math.min(PAGE_SIZE, rawCapacity)];
+            rawValues = new double[rawTimes.length];
+            rawRetention = retention.get(Resolution.RAW);
+
+            for (int r = 0; r < ROLLUPS.length; r ++)
+            {
+                rollups[r] = new Rollup(ROLLUPS[r].getDuration(), (int) (retention.get(ROLLUPS[r]) / ROLLUPS[r].getDuration()));
+            }
+        }
+
+
+        synchronized void add(long time, double value)
+        {
+            if ((rawSize == rawTimes.length) && (rawTimes.length < rawCapacity))
+            {
+                growRaw();
+            }
+
+            rawTimes[rawHead] = time;
+            rawValues[rawHead] = value;
+            rawHead = (rawHead + 1) % rawTimes.length;
+            rawSize = Math.min(rawSize + 1, rawTimes.length);
+
+            for (Rollup rollup : rollups)
+            {
+                rollup.add(time, value);
+            }
+        }
+
+
+        /**
+         * Doubles the raw ring buffer, up to its capacity. Only called when full, so the oldest reading is at the head.
+         */
+        private void growRaw()
+        {
+            int length = Math.min(rawTimes.length * 2, rawCapacity);
+            long[] times = new long[length];
+            double[] values = new double[length];
+            int tail = rawTimes.length - rawHead;
+
+            System.arraycopy(rawTimes, rawHead, times, 0, tail);
+            System.arraycopy(rawTimes, 0, times, tail, rawHead);
+            System.arraycopy(rawValues, rawHead, values, 0, tail);
+            System.arraycopy(rawValues, 0, values, tail, rawHead);
+
+            rawTimes = times;
+            rawValues = values;
+            rawHead = rawSize;
+        }
+
+
+        synchronized List<Bucket> query(long from, long to, Resolution resolution)
+        {
+            List<Bucket> result = new ArrayList<>();
+
+            if (resolution == Resolution.RAW)
+            {
+                long newest = (rawSize == 0) ? 0 : rawTimes[(rawHead - 1 + rawTimes.length) % rawTimes.length];
+                int oldest = (rawHead - rawSize + rawTimes.length) % rawTimes.length;
+
+                for (int i = 0; i < rawSize; i ++)
+                {
+                    int slot = (oldest + i) % rawTimes.length;
+                    long time = rawTimes[slot];
+
+                    if ((time >= from) && (time < to) && (newest - time <= rawRetention))
+                    {
+                        result.add(new Bucket(time, 1, rawValues[slot], rawValues[slot], rawValues[slot]));
+                    }
+                }
+
+                return result;
+            }
+
+            for (int r = 0; r < ROLLUPS.length; r ++)
+            {
+                if (ROLLUPS[r] == resolution)
+                {
+                    rollups[r].query(from, to, result);
+                }
+            }
+
+            return result;
+        }
+
+
+        synchronized void writeTo(DataOutput out) throws IOException
+        {
+            for (Rollup rollup : rollups)
+            {
+                List<Bucket> buckets = new ArrayList<>();
+                rollup.query(Long.MIN_VALUE, Long.MAX_VALUE, buckets);
+
+                out.writeInt(buckets.size());
+
+                for (Bucket bucket : buckets)
+                {
+                    out.writeLong(bucket.start / rollup.duration);
+                    out.writeLong(bucket.count);
+                    out.writeDouble(bucket.minimum);
+                    out.writeDouble(bucket.maximum);
+                    out.writeDouble(bucket.sum);
+                }
+            }
+        }
+
+
+        void readFrom(DataInput in) throws IOException
+        {
+            for (Rollup rollup : rollups)
+            {
+                int count = in.readInt();
+
+                for (int i = 0; i < count; i ++)
+                {
+                    long bucket = in.readLong();
+                    long samples = in.readLong();
+                    double minimum = in.readDouble();
+                    double maximum = in.readDouble();
+                    double sum = in.readDouble();
+
+                    synchronized (this)
+                    {
+                        rollup.add(bucket, samples, minimum, maximum, sum);
+                    }
+                }
+            }
+        }
+
+
+        synchronized long getAllocatedBytes()
+        {
+            long bytes = (long) rawTimes.length * RAW_BYTES;
+
+            for (Rollup rollup : rollups)
+            {
+                bytes += rollup.getAllocatedBytes();
+            }
+
+            return bytes;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A ring buffer of fixed duration buckets, indexed by bucket number (time / duration) modulo capacity. The buckets are allocated in pages when
+     * first written.
+     */
+    private static final class Rollup
+    {
+        private final long duration;
+        private final int capacity;
+        private final Page[] pages;
+        private long newestIndex = Long.MIN_VALUE;
+
+
+        Rollup(long duration, int capacity)
+        {
+            this.duration = duration;
+            this.capacity = capacity;
+            this.pages = new Page[(capacity + PAGE_SIZE - 1) / PAGE_SIZE];
+        }
+
+
+        void add(long time, double value)
+        {
+            add(Math.floorDiv(time, duration), 1, value, value, value);
+        }
+
+
+        /**
+         * Adds readings to a bucket.
+         *
+         * @param bucket  the bucket number (time / duration)
+         * @param samples the number of readings
+         * @param min     the minimum of the readings
+         * @param max     the maximum of the readings
+         * @param total   the sum of the readings
+         */
+        void add(long bucket, long samples, double min, double max, double total)
+        {
+            if ((newestIndex != Long.MIN_VALUE) && (bucket <= newestIndex - capacity))
+            {
+                return; // Older than retained, discard.
+            }
+
+            int slot = (int) Math.floorMod(bucket, (long) capacity);
+            Page page = pages[slot / PAGE_SIZE];
+
+            if (page == null)
+            {
+                page = new Page();
+                pages[slot / PAGE_SIZE] = page;
+            }
+
+            int i = slot % PAGE_SIZE;
+
+            if (page.index[i] != bucket)
+            {
+                // Re-use the slot of an expired bucket.
+                page.index[i] = bucket;
+                page.count[i] = 0;
+                page.minimum[i] = min;
+                page.maximum[i] = max;
+                page.sum[i] = 0;
+            }
+
+            page.count[i] += samples;
+            page.minimum[i] = Math.min(page.minimum[i], min);
+            page.maximum[i] = Math.max(page.maximum[i], max);
+            page.sum[i] += total;
+            newestIndex = Math.max(newestIndex, bucket);
+        }
+
+
+        void query(long from, long to, List<Bucket> result)
+        {
+            if (newestIndex == Long.MIN_VALUE)
+            {
+                return; // Empty.
+            }
+
+            long first = Math.max(Math.floorDiv(from, duration), newestIndex - capacity + 1);
+            long last = Math.min(Math.floorDiv(to - 1, duration), newestIndex);
+
+            for (long bucket = first; bucket <= last; bucket ++)
+            {
+                int slot = (int) Math.floorMod(bucket, (long) capacity);
+                Page page = pages[slot / PAGE_SIZE];
+                int i = slot % PAGE_SIZE;
+
+                if ((page != null) && (page.index[i] == bucket))
+                {
+                    result.add(new Bucket(bucket * duration, page.count[i], page.minimum[i], page.maximum[i], page.sum[i]));
+                }
+            }
+        }
+
+
+        long getAllocatedBytes()
+        {
+            long bytes = 0;
+
+            for (Page page : pages)
+            {
+                if (page != null)
+                {
+                    bytes += (long) PAGE_SIZE * BUCKET_BYTES;
+                }
+            }
+
+            return bytes;
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A page of rollup buckets.
+     */
+    private static final class Page
+    {
+        private final long[] index = new long[PAGE_SIZE];
+        private final long[] count = new long[PAGE_SIZE];
+        private final double[] minimum = new double[PAGE_SIZE];
+        private final double[] maximum = new double[PAGE_SIZE];
+        private final double[] sum = new double[PAGE_SIZE];
+
+
+        Page()
+        {
+            Arrays.fill(index, Long.MIN_VALUE);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stores each decoded reading of a meter.
+     */
+    private final class Recorder implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final Series[] series;
+
+
+        Recorder(ExtechCO250 device, Series[] series)
+        {
+            this.device = device;
+            this.series = series;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            long time = clock.getAsLong();
+
+            for (Channel channel : CHANNELS)
+            {
+                Double value = device.data.getValue(channel).getValueDouble();
+
+                if (value != null)
+                {
+                    series[channel.ordinal()].add(time, value);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * Ranks meters by a score (i.e. current CO2), keeping the top-K highest up to date as readings are decoded.
+ *
+ * <p>
+ * All ranked meters are kept in an ordered index, so each update is O(log n) and readers can list the top-K concurrently without blocking updates.
+ * The {@link RankingListener} is only notified when a meter enters or leaves the top-K; updates that can not affect the top-K are detected by
+ * comparing with the K-th score and skip the check entirely.
+ *
+ * <p>
+ * Meters with a NaN score (i.e. no numeric reading yet) are not ranked.
+ *
+ * @author Darian Cabot
+ */
+public final class TopKRanking
+{
+    private final int k;
+    private final ToDoubleFunction<Data> scorer;
+
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>();
+    private final Map<ExtechCO250, Member> members = new ConcurrentHashMap<>();
+    private long nextId;
+
+    // Guarded by this.
+    private Set<ExtechCO250> topMembers = Collections.emptySet();
+    private Entry kthEntry;
+
+    private volatile RankingListener rankingListener;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param k      the number of highest scoring meters to track
+     * @param scorer calculates the score of a meter from its Data
+     */
+    public TopKRanking(int k, ToDoubleFunction<Data> scorer)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("K must be at least 1.");
+        }
+
+        this.k = k;
+        this.scorer = scorer;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a scorer for the current value of a channel.
+     *
+     * @param channel the channel
+     *
+     * @return a scorer, NaN if the value is not numeric.
+     */
+    public static ToDoubleFunction<Data> currentValue(Channel channel)
+    {
+        return data ->
+        {
+            Double value = data.getValue(channel).getValueDouble();
+
+            return (value == null) ? Double.NaN : value;
+        };
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a scorer for the statistics average of a channel.
+     *
+     * @param channel the channel
+     *
+     * @return a scorer, NaN if there are no samples.
+     */
+    public static ToDoubleFunction<Data> average(Channel channel)
+    {
+        return data -> data.getValue(channel).statistics.snapshot().getAverage();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Creates a scorer for the statistics maximum of a channel.
+     *
+     * @param channel the channel
+     *
+     * @return a scorer, NaN if there are no samples.
+     */
+    public static ToDoubleFunction<Data> maximum(Channel channel)
+    {
+        return data -> data.getValue(channel).statistics.snapshot().getMaximum();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Adds a meter to the ranking. It is ranked from its next reading.
+     *
+     * @param device the meter
+     */
+    public synchronized void add(ExtechCO250 device)
+    {
+        if ( ! members.containsKey(device))
+        {
+            Member member = new Member(device, nextId ++);
+            members.put(device, member);
+            device.addEventListener(member);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Removes a meter from the ranking.
+     *
+     * @param device the meter
+     */
+    public synchronized void remove(ExtechCO250 device)
+    {
+        Member member = members.remove(device);
+
+        if (member != null)
+        {
+            device.removeEventListener(member);
+
+            if (member.entry != null)
+            {
+                ranking.remove(member.entry);
+                member.entry = null;
+            }
+
+            if (topMembers.contains(device))
+            {
+                refreshTop();
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the current top-K meters.
+     *
+     * @return the top-K meters, highest score first (fewer if fewer are ranked).
+     */
+    public List<ExtechCO250> getTop()
+    {
+        List<ExtechCO250> top = new ArrayList<>(k);
+
+        for (Iterator<Entry> it = ranking.iterator(); it.hasNext() && (top.size() < k);)
+        {
+            top.add(it.next().device);
+        }
+
+        return top;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the current score of a meter, as last ranked.
+     *
+     * @param device the meter
+     *
+     * @return the score, or NaN if the meter is not ranked.
+     */
+    public double getScore(ExtechCO250 device)
+    {
+        Member member = members.get(device);
+        Entry entry = (member == null) ? null : member.entry;
+
+        return (entry == null) ? Double.NaN : entry.score;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets a RankingListener to be notified when the top-K meters change.
+     *
+     * @param rankingListener A RankingListener Object to be notified
+     */
+    public void setRankingListener(RankingListener rankingListener)
+    {
+        this.rankingListener = rankingListener;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Re-ranks a meter from its current Data.
+     *
+     * @param member the meter
+     */
+    private synchronized void update(Member member)
+    {
+        if (members.get(member.device) != member)
+        {
+            return; // Removed.
+        }
+
+        double score = scorer.applyAsDouble(member.device.data);
+        Entry old = member.entry;
+
+        if ((old != null) && (Double.compare(old.score, score) == 0))
+        {
+            return; // Unchanged, the most common case.
+        }
+
+        Entry entry = Double.isNaN(score) ? null : new Entry(member.device, score, member.id);
+
+        if (old != null)
+        {
+            ranking.remove(old);
+        }
+
+        if (entry != null)
+        {
+            ranking.add(entry);
+        }
+
+        member.entry = entry;
+
+        // Only a meter that was, or may now be, in the top-K can change the top-K membership.
+        boolean mayBeTop = (entry != null) && ((kthEntry == null) || (topMembers.size() < k) || (entry.compareTo(kthEntry) < 0));
+
+        if (topMembers.contains(member.device) || mayBeTop)
+        {
+            refreshTop();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Recalculates the top-K membership, notifying if it changed. O(K).
+     */
+    private void refreshTop()
+    {
+        List<ExtechCO250> top = new ArrayList<>(k);
+        Entry last = null;
+
+        for (Iterator<Entry> it = ranking.iterator(); it.hasNext() && (top.size() < k);)
+        {
+            last = it.next();
+            top.add(last.device);
+        }
+
+        kthEntry = last;
+        Set<ExtechCO250> newMembers = new HashSet<>(top);
+
+        if ( ! newMembers.equals(topMembers))
+        {
+            topMembers = newMembers;
+
+            RankingListener listener = rankingListener;
+
+            if (listener != null)
+            {
+                listener.rankingChangedEvent(Collections.unmodifiableList(top));
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A ranked meter and its score. Ordered highest score first, then by registration order.
+     */
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final ExtechCO250 device;
+        private final double score;
+        private final long id;
+
+
+        Entry(ExtechCO250 device, double score, long id)
+        {
+            this.device = device;
+            this.score = score;
+            this.id = id;
+        }
+
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            int result = Double.compare(other.score, score);
+
+            return (result != 0) ? result : Long.compare(id, other.id);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A meter in the ranking, re-ranked as readings are decoded.
+     */
+    private final class Member implements EventListener
+    {
+        private final ExtechCO250 device;
+        private final long id;
+        private volatile Entry entry;
+
+
+        Member(ExtechCO250 device, long id)
+        {
+            this.device = device;
+            this.id = id;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            update(this);
+        }
+
+    }
+
+}
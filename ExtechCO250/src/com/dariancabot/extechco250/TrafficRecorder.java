@@ -0,0 +1,337 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Records the last raw bytes received from a meter, with their receive times, for diagnosing protocol problems without recompiling.
+ *
+ * <p>
+ * The recorder is always on and uses fixed memory: a ring of the last bytes received, and a ring of the times and lengths of the last reads. Recording
+ * a read is a single bounded copy into the ring. The recording is dumped as hex on demand, or automatically when a protocol error happens (to a file
+ * if a directory is set, otherwise to System.err), at most once per error dump interval.
+ *
+ * @author Darian Cabot
+ */
+public final class TrafficRecorder
+{
+    /**
+     * The default number of bytes kept, roughly the last 45 seconds of traffic at 2Hz.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The default number of reads kept.
+     */
+    public static final int DEFAULT_READS = 512;
+
+    private final LongSupplier clock;
+
+    private final byte[] bytes;
+    private final long[] readStarts;
+    private final int[] readLengths;
+    private final long[] readTimes;
+    private long total;
+    private long reads;
+
+    private volatile Path errorDumpDirectory;
+    private volatile long errorDumpInterval = 60000;
+    private long lastErrorDump = Long.MIN_VALUE;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor, keeping the default number of bytes and reads.
+     */
+    public TrafficRecorder()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_READS);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of bytes kept
+     * @param maxReads the number of reads kept (a read is one piece of bytes received, often less than a packet)
+     */
+    public TrafficRecorder(int capacity, int maxReads)
+    {
+        this(capacity, maxReads, System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of bytes kept
+     * @param maxReads the number of reads kept
+     * @param clock    a time source in milliseconds since the epoch
+     */
+    TrafficRecorder(int capacity, int maxReads, LongSupplier clock)
+    {
+        if ((capacity < 1) || (maxReads < 1))
+        {
+            throw new IllegalArgumentException("Capacity and reads must be at least 1.");
+        }
+
+        this.bytes = new byte[capacity];
+        this.readStarts = new long[maxReads];
+        this.readLengths = new int[maxReads];
+        this.readTimes = new long[maxReads];
+        this.clock = clock;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Records bytes received from the meter. If there are more bytes than the capacity, only the last are kept.
+     *
+     * @param received the received bytes
+     * @param offset   the offset of the first byte to record
+     * @param length   the number of bytes to record
+     */
+    public synchronized void record(byte[] received, int offset, int length)
+    {
+        int slot = (int) (reads % readStarts.length);
+        readStarts[slot] = total;
+        readLengths[slot] = length;
+        readTimes[slot] = clock.getAsLong();
+        reads ++;
+
+        // Only the bytes that fit, copied in at most two pieces around the end of the ring.
+        int kept = Math.min(length, bytes.length);
+        long start = total + length - kept;
+        int position = (int) (start % bytes.length);
+        int first = Math.min(kept, bytes.length - position);
+
+        System.arraycopy(received, offset + length - kept, bytes, position, first);
+        System.arraycopy(received, offset + length - kept + first, bytes, 0, kept - first);
+
+        total += length;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the number of bytes recorded since the recorder was created, including those no longer kept.
+     *
+     * @return the number of bytes.
+     */
+    public synchronized long getTotalBytes()
+    {
+        return total;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the directory to dump the recording to when a protocol error happens.
+     *
+     * @param directory the directory, or null to dump to System.err
+     */
+    public void setErrorDumpDirectory(Path directory)
+    {
+        this.errorDumpDirectory = directory;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the shortest time between dumps for protocol errors, so a meter sending garbage does not flood the log or disk.
+     *
+     * @param millis the time in milliseconds (default 1 minute)
+     */
+    public void setErrorDumpInterval(long millis)
+    {
+        this.errorDumpInterval = millis;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Dumps the recording as text, one line per read, oldest first: the receive time, the number of bytes, the bytes in hex, and the printable
+     * bytes. A read partly overwritten in the ring shows only the bytes kept.
+     *
+     * @param out the Appendable to write to
+     *
+     * @throws IOException if writing fails.
+     */
+    public void dump(Appendable out) throws IOException
+    {
+        byte[] copy;
+        long[] starts;
+        int[] lengths;
+        long[] times;
+        long copyTotal;
+        long copyReads;
+
+        // Copy under the lock, then format without blocking the receiving thread.
+        synchronized (this)
+        {
+            copy = bytes.clone();
+            starts = readStarts.clone();
+            lengths = readLengths.clone();
+            times = readTimes.clone();
+            copyTotal = total;
+            copyReads = reads;
+        }
+
+        long oldestByte = Math.max(0, copyTotal - copy.length);
+
+        for (long read = Math.max(0, copyReads - starts.length); read < copyReads; read ++)
+        {
+            int slot = (int) (read % starts.length);
+            long end = starts[slot] + lengths[slot];
+            long start = Math.max(starts[slot], oldestByte);
+
+            if (start >= end)
+            {
+                continue;
+            }
+
+            byte[] line = new byte[(int) (end - start)];
+
+            for (int i = 0; i < line.length; i ++)
+            {
+                line[i] = copy[(int) ((start + i) % copy.length)];
+            }
+
+            out.append(Instant.ofEpochMilli(times[slot]).toString()).append(' ');
+            out.append(String.format("%4d%s ", lengths[slot], (start > starts[slot]) ? "*" : " "));
+            out.append(Communications.bytesToHex(line)).append("|");
+
+            for (byte b : line)
+            {
+                out.append(((b >= 0x20) && (b < 0x7f)) ? (char) b : '.');
+            }
+
+            out.append("|\n");
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Dumps the recording as text to a file, replacing any existing file.
+     *
+     * @param file the file to write
+     *
+     * @throws IOException if writing fails.
+     */
+    public void dump(Path file) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII))
+        {
+            dump(writer);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the recording as text, as written by {@link #dump(Appendable)}.
+     *
+     * @return the recording.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        try
+        {
+            dump(builder);
+        }
+        catch (IOException ex)
+        {
+            // Not thrown by a StringBuilder.
+        }
+
+        return builder.toString();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Dumps the recording because of a protocol error, unless the last dump was too recent.
+     *
+     * @param source the name of the source of the bytes (i.e. "COM3")
+     * @param error  the protocol error
+     *
+     * @return true if dumped.
+     */
+    boolean protocolError(String source, Exception error)
+    {
+        long now = clock.getAsLong();
+
+        synchronized (this)
+        {
+            if ((lastErrorDump != Long.MIN_VALUE) && (now - lastErrorDump < errorDumpInterval))
+            {
+                return false;
+            }
+
+            lastErrorDump = now;
+        }
+
+        String header = "# " + source + " traffic before protocol error at " + Instant.ofEpochMilli(now) + ": " + error.getMessage() + "\n";
+        Path directory = errorDumpDirectory;
+
+        try
+        {
+            if (directory == null)
+            {
+                System.err.print(header + this);
+            }
+            else
+            {
+                String name = source.replaceAll("[^A-Za-z0-9]", "_") + "-" + now + ".txt";
+
+                try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(name), StandardCharsets.US_ASCII))
+                {
+                    writer.append(header);
+                    dump(writer);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error dumping traffic: " + ex.getMessage());
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Estimates the air change rate of the room of each meter from how quickly CO2 decays after occupancy drops, as readings are decoded.
+ *
+ * <p>
+ * Once the room is empty, the CO2 above the outdoor level decays exponentially: C(t) - C<sub>out</sub> = (C<sub>0</sub> - C<sub>out</sub>)
+ * e<sup>-&lambda;t</sup>, where &lambda; is the air changes per hour (ACH). A decay segment starts when the CO2 has dropped from its peak, and ends
+ * when the CO2 rises again (i.e. the room is occupied) or gets too close to the outdoor level for the decay to be measured. Within a segment,
+ * ln(C - C<sub>out</sub>) is fitted against time with an incremental least-squares line, so each reading is O(1) and nothing is kept per reading.
+ *
+ * <p>
+ * Once a segment is long enough, an {@link Estimate} is published to the meter's EventListeners after each reading, and a final one when the
+ * segment ends.
+ *
+ * @author Darian Cabot
+ */
+public final class VentilationEstimator
+{
+    private static final double MILLIS_PER_HOUR = 3600000d;
+
+    private final Map<ExtechCO250, Member> members = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    private volatile double outdoorLevel = 420;
+    private volatile double minimumExcess = 100;
+    private volatile double startDrop = 50;
+    private volatile double riseTolerance = 25;
+    private volatile long minimumDuration = 600000;
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public VentilationEstimator()
+    {
+        this(System::currentTimeMillis);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param clock a time source in milliseconds since the epoch
+     */
+    VentilationEstimator(LongSupplier clock)
+    {
+        this.clock = clock;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Starts estimating the air change rate from the CO2 readings of a meter.
+     *
+     * @param device the meter
+     */
+    public void register(ExtechCO250 device)
+    {
+        members.computeIfAbsent(device, key ->
+        {
+            Member member = new Member(key);
+            key.addEventListener(member);
+
+            return member;
+        });
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Stops estimating the air change rate of a meter.
+     *
+     * @param device the meter
+     */
+    public void unregister(ExtechCO250 device)
+    {
+        Member member = members.remove(device);
+
+        if (member != null)
+        {
+            device.removeEventListener(member);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Gets the latest estimate of the air change rate of a meter's room.
+     *
+     * @param device the meter
+     *
+     * @return the latest Estimate, or null if the meter is not registered or there has not been a long enough decay.
+     */
+    public Estimate getEstimate(ExtechCO250 device)
+    {
+        Member member = members.get(device);
+
+        return (member == null) ? null : member.estimate;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets the outdoor CO2 level, which the room decays towards.
+     *
+     * @param ppm the outdoor level (default 420ppm)
+     */
+    public void setOutdoorLevel(double ppm)
+    {
+        this.outdoorLevel = ppm;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how far above the outdoor level the CO2 must be to be used. Closer to the outdoor level, noise swamps the decay.
+     *
+     * @param ppm the CO2 above the outdoor level (default 100ppm)
+     */
+    public void setMinimumExcess(double ppm)
+    {
+        this.minimumExcess = ppm;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how far the CO2 must drop from its peak to start a decay segment, and how far it may rise from its lowest before the segment ends.
+     *
+     * @param startDrop     the drop from the peak (default 50ppm)
+     * @param riseTolerance the rise from the lowest (default 25ppm)
+     */
+    public void setThresholds(double startDrop, double riseTolerance)
+    {
+        if ((startDrop <= 0) || (riseTolerance <= 0))
+        {
+            throw new IllegalArgumentException("Thresholds must be positive.");
+        }
+
+        this.startDrop = startDrop;
+        this.riseTolerance = riseTolerance;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Sets how long a decay segment must be before estimates are published.
+     *
+     * @param millis the length of time in milliseconds (default 10 minutes)
+     */
+    public void setMinimumDuration(long millis)
+    {
+        this.minimumDuration = millis;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * An estimate of the air change rate from one decay segment.
+     */
+    public static final class Estimate
+    {
+        private final double airChangesPerHour;
+        private final double rSquared;
+        private final long readings;
+        private final long start;
+        private final long duration;
+        private final boolean isFinal;
+
+
+        private Estimate(double airChangesPerHour, double rSquared, long readings, long start, long duration, boolean isFinal)
+        {
+            this.airChangesPerHour = airChangesPerHour;
+            this.rSquared = rSquared;
+            this.readings = readings;
+            this.start = start;
+            this.duration = duration;
+            this.isFinal = isFinal;
+        }
+
+
+        /**
+         * Gets the air change rate.
+         *
+         * @return the air changes per hour.
+         */
+        public double getAirChangesPerHour()
+        {
+            return airChangesPerHour;
+        }
+
+
+        /**
+         * Gets how well the decay fits an exponential, the coefficient of determination of the fit.
+         *
+         * @return the fit, from 0 (no fit) to 1 (perfect fit).
+         */
+        public double getRSquared()
+        {
+            return rSquared;
+        }
+
+
+        /**
+         * Gets the number of readings in the decay segment.
+         *
+         * @return the number of readings.
+         */
+        public long getReadings()
+        {
+            return readings;
+        }
+
+
+        /**
+         * Gets when the decay segment started.
+         *
+         * @return the time in milliseconds since the epoch.
+         */
+        public long getStart()
+        {
+            return start;
+        }
+
+
+        /**
+         * Gets the length of the decay segment so far.
+         *
+         * @return the length of time in milliseconds.
+         */
+        public long getDurationMillis()
+        {
+            return duration;
+        }
+
+
+        /**
+         * Gets whether the decay segment has ended, so the estimate will not change.
+         *
+         * @return true if this is the final estimate of the segment.
+         */
+        public boolean isFinal()
+        {
+            return isFinal;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.2f ACH (R^2 %.3f, %d readings over %d s)", airChangesPerHour, rSquared, readings, duration / 1000L);
+        }
+
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A registered meter, fitting its decay segments as readings are decoded. Readings of one meter are decoded on one thread at a time.
+     */
+    private final class Member implements EventListener
+    {
+        private final ExtechCO250 device;
+
+        private volatile Estimate estimate;
+
+        private boolean inSegment;
+        private double peak = Double.NaN;
+        private double lowest;
+        private long segmentStart;
+        private long segmentEnd;
+
+        // Running least-squares fit of ln(excess) against hours since the segment start (Welford's co-moments).
+        private long count;
+        private double meanTime;
+        private double meanLog;
+        private double timeVariance;
+        private double logVariance;
+        private double covariance;
+
+
+        Member(ExtechCO250 device)
+        {
+            this.device = device;
+        }
+
+
+        @Override
+        public void dataUpdateEvent()
+        {
+            Double value = device.data.co2Value.getValueDouble();
+
+            if (value != null)
+            {
+                update(value, clock.getAsLong());
+            }
+        }
+
+
+        private void update(double value, long now)
+        {
+            double excess = value - outdoorLevel;
+
+            if ( ! inSegment)
+            {
+                if (Double.isNaN(peak) || (value > peak))
+                {
+                    peak = value;
+                }
+                else if ((peak - value >= startDrop) && (excess >= minimumExcess))
+                {
+                    inSegment = true;
+                    segmentStart = now;
+                    lowest = value;
+                    count = 0;
+                    meanTime = 0;
+                    meanLog = 0;
+                    timeVariance = 0;
+                    logVariance = 0;
+                    covariance = 0;
+                    add(value, now);
+                }
+
+                return;
+            }
+
+            // Occupied again, or too close to outdoors to measure.
+            if ((value > lowest + riseTolerance) || (excess < minimumExcess))
+            {
+                inSegment = false;
+                peak = value;
+
+                if (segmentEnd - segmentStart >= minimumDuration)
+                {
+                    publish(true);
+                }
+
+                return;
+            }
+
+            lowest = Math.min(lowest, value);
+            add(value, now);
+
+            if (segmentEnd - segmentStart >= minimumDuration)
+            {
+                publish(false);
+            }
+        }
+
+
+        private void add(double value, long now)
+        {
+            double time = (now - segmentStart) / MILLIS_PER_HOUR;
+            double log = Math.log(value - outdoorLevel);
+
+            count ++;
+
+            double timeDifference = time - meanTime;
+            double logDifference = log - meanLog;
+            meanTime += timeDifference / count;
+            meanLog += logDifference / count;
+            timeVariance += timeDifference * (time - meanTime);
+            logVariance += logDifference * (log - meanLog);
+            covariance += timeDifference * (log - meanLog);
+
+            segmentEnd = now;
+        }
+
+
+        private void publish(boolean isFinal)
+        {
+            if ((count < 3) || (timeVariance <= 0))
+            {
+                return;
+            }
+
+            double airChangesPerHour = -covariance / timeVariance;
+            double rSquared = (logVariance <= 0) ? 1 : (covariance * covariance) / (timeVariance * logVariance);
+
+            if (airChangesPerHour <= 0)
+            {
+                return;
+            }
+
+            Estimate newEstimate = new Estimate(airChangesPerHour, rSquared, count, segmentStart, segmentEnd - segmentStart, isFinal);
+            estimate = newEstimate;
+            device.getDecoder().notifyEventListeners(listener -> listener.airChangeRateEvent(newEstimate));
+        }
+
+    }
+
+}
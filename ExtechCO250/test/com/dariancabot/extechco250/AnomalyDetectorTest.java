@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.AnomalyDetector.Anomaly;
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class AnomalyDetectorTest
+{
+    private final List<String> events = new ArrayList<>();
+
+
+    public AnomalyDetectorTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of stuck sensor, impossible jump, and outlier detection, of class AnomalyDetector.
+     */
+    @Test
+    public void testSingleMeter()
+    {
+        AnomalyDetector detector = new AnomalyDetector();
+        detector.setStuckReadings(Channel.CO2, 20);
+        ExtechCO250 device = newDevice(detector, null, "A");
+
+        // Normal noisy readings: nothing reported.
+        Random random = new Random(38);
+
+        for (int i = 0; i < 500; i ++)
+        {
+            decode(device, 800 + random.nextInt(21) - 10, 21 + random.nextInt(3) / 10.0);
+        }
+
+        assertThat(events, is(empty()));
+
+        // A spike within the jump limit is an outlier.
+        decode(device, 1000, 21.1);
+        assertThat(events, contains("A CO2 OUTLIER 1000.0"));
+        events.clear();
+
+        // An impossible jump.
+        decode(device, 1700, 21.1);
+        assertThat(events, contains("A CO2 JUMP 1700.0"));
+        events.clear();
+
+        // Frozen, reported once.
+        for (int i = 0; i < 50; i ++)
+        {
+            decode(device, 800, 21 + (i % 2) / 10.0);
+        }
+
+        assertThat(events, contains("A CO2 JUMP 800.0", "A CO2 STUCK 800.0"));
+        assertThat(detector.getAnomalyCount(Anomaly.STUCK), is(1L));
+        events.clear();
+
+        // Once unregistered, nothing more is reported.
+        detector.unregister(device);
+        decode(device, 2500, 21.1);
+        assertThat(events, is(empty()));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of drift detection, of class AnomalyDetector.
+     */
+    @Test
+    public void testDrift()
+    {
+        AnomalyDetector detector = new AnomalyDetector();
+        detector.setSmoothing(0.1);
+        ExtechCO250[] devices =
+        {
+            newDevice(detector, "room", "A"), newDevice(detector, "room", "B"), newDevice(detector, "room", "C"), newDevice(detector, "room", "D"),
+            newDevice(detector, "room", "E"), newDevice(detector, null, "F")
+        };
+
+        // All agree.
+        for (int i = 0; i < 300; i ++)
+        {
+            for (ExtechCO250 device : devices)
+            {
+                decode(device, 800, 21 + (i % 2) / 10.0);
+            }
+        }
+
+        assertThat(events, is(empty()));
+
+        // B slowly drifts warm; F is not in the group so is not compared.
+        for (int i = 0; i < 300; i ++)
+        {
+            double offset = Math.min(6, i / 20.0);
+
+            for (ExtechCO250 device : devices)
+            {
+                boolean drifting = (device == devices[1]) || (device == devices[5]);
+                double dbt = Math.round((21 + (i % 2) / 10.0 + (drifting ? offset : 0)) * 10) / 10.0;
+                decode(device, 800, dbt);
+            }
+        }
+
+        // Reported once, after the EWMA has lagged past the 3 degree limit.
+        assertThat(events, contains(startsWith("B DBT DRIFT ")));
+    }
+
+
+    //-----------------------------------------------------------------------
+    private ExtechCO250 newDevice(AnomalyDetector detector, String group, String name)
+    {
+        ExtechCO250 device = new ExtechCO250();
+        detector.register(device, group);
+        device.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+            }
+
+
+            @Override
+            public void anomalyEvent(Channel channel, Anomaly anomaly, double value)
+            {
+                events.add(name + " " + channel + " " + anomaly + " " + value);
+            }
+        });
+
+        return device;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static void decode(ExtechCO250 device, int co2, double dbt)
+    {
+        device.getDecoder().decodePacket(Packets.reading(co2, dbt, 50, 10, 15));
+    }
+
+}
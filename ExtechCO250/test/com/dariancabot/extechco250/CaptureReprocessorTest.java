@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import com.dariancabot.extechco250.Data.Value.Statistics;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class CaptureReprocessorTest
+{
+
+    public CaptureReprocessorTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Rule for a temporary capture file location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of reprocess method with a corrupt capture, of class CaptureReprocessor.
+     * <p>
+     * The results must be identical for any chunk size and parallelism, and match a live Decoder fed the whole capture (the average to rounding,
+     * as the live statistics sum in floating point).
+     *
+     * @throws IOException if the capture can't be written or read
+     */
+    @Test
+    public void testReprocessIdenticalToSequential() throws IOException
+    {
+        Path capture = folder.getRoot().toPath().resolve("capture.bin");
+        writeCapture(capture, 50000, 0.05, 1);
+
+        // Reference: one Decoder with statistics enabled, as on a live connection.
+        Data data = new Data();
+
+        for (Data.Value value : data.getValues())
+        {
+            value.statistics.setEnabled(true);
+        }
+
+        Decoder decoder = new Decoder(data);
+        long[] counts = new long[2];
+        PacketFramer framer = new PacketFramer(packet ->
+        {
+            counts[0] ++;
+
+            try
+            {
+                decoder.decodePacket(packet);
+            }
+            catch (RuntimeException ex)
+            {
+                counts[1] ++;
+            }
+        });
+
+        byte[] bytes = Files.readAllBytes(capture);
+        framer.accept(bytes, 0, bytes.length);
+
+        assertThat(counts[1], greaterThan(0L));
+
+        CaptureReprocessor.Result sequential = CaptureReprocessor.reprocessSequentially(capture);
+
+        for (int parallelism : new int[]
+        {
+            1, 3, 8
+        })
+        {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+            try
+            {
+                for (int chunkSize : new int[]
+                {
+                    4096, 10007, 1 << 20
+                })
+                {
+                    CaptureReprocessor.Result result = new CaptureReprocessor(pool, chunkSize).reprocess(capture);
+
+                    assertThat(result.getPackets(), is(counts[0]));
+                    assertThat(result.getErrors(), is(counts[1]));
+
+                    for (Channel channel : Channel.values())
+                    {
+                        Statistics expected = data.getValue(channel).statistics;
+                        Statistics actual = result.getStatistics(channel);
+
+                        assertThat(channel.getName(), actual.getSamples(), is(expected.getSamples()));
+                        assertThat(channel.getName(), actual.getMinimum(), is(expected.getMinimum()));
+                        assertThat(channel.getName(), actual.getMaximum(), is(expected.getMaximum()));
+                        assertThat(channel.getName(), actual.getAverage(), equalTo(expected.getAverage()));
+                        assertThat(channel.getName(), actual.getAverage(), equalTo(sequential.getStatistics(channel).getAverage()));
+                    }
+                }
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes a capture of readings, with a proportion of corruption (garbage bytes, truncated and overlong lines, and bad checksums).
+     */
+    private static void writeCapture(Path capture, int readings, double corruption, long seed) throws IOException
+    {
+        Random random = new Random(seed);
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(capture)))
+        {
+            out.write(Packets.PREAMBLE.getBytes("US-ASCII"));
+
+            int co2 = 600;
+
+            for (int i = 0; i < readings; i ++)
+            {
+                co2 = Math.max(400, co2 + random.nextInt(21) - 10);
+                byte[] packet = Packets.reading(co2, 20 + random.nextInt(50) / 10.0, 40 + random.nextInt(200) / 10.0, 10 + random.nextInt(30) / 10.0,
+                        15 + random.nextInt(30) / 10.0);
+
+                if (random.nextDouble() < corruption)
+                {
+                    switch (random.nextInt(5))
+                    {
+                        case 0: // Garbage bytes.
+                            byte[] garbage = new byte[random.nextInt(100)];
+                            random.nextBytes(garbage);
+                            out.write(garbage);
+                            break;
+                        case 1: // Truncated.
+                            out.write(packet, 0, random.nextInt(packet.length));
+                            continue;
+                        case 2: // Bad checksum.
+                            packet[5] ^= 0x01;
+                            break;
+                        case 3: // Lone line break bytes.
+                            out.write(random.nextBoolean() ? PacketFramer.PACKET_END_BYTE_1 : PacketFramer.PACKET_END_BYTE_2);
+                            break;
+                        default: // Overlong line.
+                            for (int j = 0; j < 44 + random.nextInt(3); j ++)
+                            {
+                                out.write('x');
+                            }
+
+                            out.write(PacketFramer.PACKET_END_BYTE_1);
+                            out.write(PacketFramer.PACKET_END_BYTE_2);
+                            break;
+                    }
+                }
+
+                out.write(packet);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.ColumnarScanner.Predicate;
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ColumnarScannerTest
+{
+    private static final int READINGS = 100000;
+    private static final int CHUNK_SIZE = 1000;
+    private static final long START = 1500000000000L;
+
+
+    public ColumnarScannerTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Rule for a temporary file location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of count method with predicate pushdown, of class ColumnarScanner.
+     *
+     * @throws IOException if the file can't be written or read
+     */
+    @Test
+    public void testCount() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("readings.col");
+        List<double[]> readings = write(path);
+
+        try (ColumnarScanner scanner = new ColumnarScanner(path))
+        {
+            assertThat(scanner.getChunkCount(), is(READINGS / CHUNK_SIZE));
+            assertThat(scanner.getReadingCount(), is((long) READINGS));
+
+            // CO2 > 1000ppm only happens in the afternoon peaks, so most chunks are skipped.
+            Predicate highCo2 = Predicate.greaterThan(Channel.CO2, 1000);
+            assertThat(scanner.count(Long.MIN_VALUE, Long.MAX_VALUE, highCo2), is(count(readings, Long.MIN_VALUE, Long.MAX_VALUE, highCo2)));
+            assertThat(scanner.getChunksRead(), lessThan((long) scanner.getChunkCount() / 2));
+            assertThat(scanner.getChunksRead(), greaterThan(0L));
+
+            // Every reading matches, so no chunks are read.
+            long read = scanner.getChunksRead();
+            assertThat(scanner.count(Long.MIN_VALUE, Long.MAX_VALUE, Predicate.between(Channel.CO2, 0, 5000)), is((long) READINGS));
+            assertThat(scanner.getChunksRead(), is(read));
+
+            // Conjunctions, time ranges, and NaN values.
+            long from = START + 12345 * 500L;
+            long to = START + 87654 * 500L;
+            Predicate[] predicates =
+            {
+                Predicate.all(),
+                Predicate.lessThan(Channel.DBT, 21.5),
+                highCo2.and(Channel.RH, 40, 55),
+                Predicate.between(Channel.WBT, 10, 20),
+                Predicate.between(Channel.CO2, 2000, 3000)
+            };
+
+            for (Predicate predicate : predicates)
+            {
+                assertThat(scanner.count(from, to, predicate), is(count(readings, from, to, predicate)));
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of scan method, of class ColumnarScanner.
+     *
+     * @throws IOException if the file can't be written or read
+     */
+    @Test
+    public void testScan() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("readings.col");
+        List<double[]> readings = write(path);
+
+        long from = START + 5000 * 500L;
+        long to = START + 60000 * 500L;
+        Predicate predicate = Predicate.greaterThan(Channel.CO2, 1000);
+        List<double[]> expected = new ArrayList<>();
+
+        for (double[] reading : readings)
+        {
+            if (matches(reading, from, to, predicate))
+            {
+                expected.add(reading);
+            }
+        }
+
+        List<double[]> actual = new ArrayList<>();
+
+        try (ColumnarScanner scanner = new ColumnarScanner(path))
+        {
+            long count = scanner.scan(from, to, predicate, (time, values) ->
+            {
+                double[] reading = new double[values.length + 1];
+                reading[0] = time;
+                System.arraycopy(values, 0, reading, 1, values.length);
+                actual.add(reading);
+            });
+
+            assertThat(count, is((long) expected.size()));
+        }
+
+        assertThat(actual.size(), is(expected.size()));
+
+        for (int i = 0; i < expected.size(); i ++)
+        {
+            assertArrayEquals(expected.get(i), actual.get(i), 0);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of export method, of class ColumnarWriter.
+     *
+     * @throws IOException if the files can't be written or read
+     */
+    @Test
+    public void testExport() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("export.col");
+
+        try (ReadingLog log = new ReadingLog(folder.getRoot().toPath(), "COM3"))
+        {
+            for (int i = 0; i < 5000; i ++)
+            {
+                log.append(START + i * 500L, new double[]
+                {
+                    400 + i, 21, 50, 10, 15
+                });
+            }
+
+            assertThat(ColumnarWriter.export(log, START + 1000 * 500L, START + 4000 * 500L, path), is(3000L));
+        }
+
+        try (ColumnarScanner scanner = new ColumnarScanner(path))
+        {
+            assertThat(scanner.getReadingCount(), is(3000L));
+            assertThat(scanner.count(Long.MIN_VALUE, Long.MAX_VALUE, Predicate.greaterThan(Channel.CO2, 3399)), is(1000L));
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of opening a file that is not a columnar chunk file, of class ColumnarScanner.
+     *
+     * @throws IOException if the file can't be written
+     */
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("invalid.col");
+        Files.write(path, new byte[100]);
+
+        new ColumnarScanner(path).close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static List<double[]> write(Path path) throws IOException
+    {
+        List<double[]> readings = new ArrayList<>();
+
+        try (ColumnarWriter writer = new ColumnarWriter(path, CHUNK_SIZE))
+        {
+            for (int i = 0; i < READINGS; i ++)
+            {
+                // CO2 cycles daily-ish, peaking over 1000ppm for a short time.
+                double phase = (i % 20000) / 20000.0;
+                double co2 = Math.round(600 + 500 * Math.exp(-Math.pow((phase - 0.6) * 8, 2)));
+                double dbt = Math.round((21 + Math.sin(i / 3000.0)) * 10) / 10.0;
+                double rh = 45 + (i % 17);
+                double wbt = (i % 1000 == 0) ? Double.NaN : Math.round((dbt - 5) * 10) / 10.0;
+                double[] values =
+                {
+                    co2, dbt, rh, 10, wbt
+                };
+
+                writer.append(START + i * 500L, values);
+
+                double[] reading = new double[values.length + 1];
+                reading[0] = START + i * 500L;
+                System.arraycopy(values, 0, reading, 1, values.length);
+                readings.add(reading);
+            }
+        }
+
+        return readings;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static long count(List<double[]> readings, long from, long to, Predicate predicate)
+    {
+        return readings.stream().filter(reading -> matches(reading, from, to, predicate)).count();
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static boolean matches(double[] reading, long from, long to, Predicate predicate)
+    {
+        if ((reading[0] < from) || (reading[0] >= to))
+        {
+            return false;
+        }
+
+        for (int c = 0; c < reading.length - 1; c ++)
+        {
+            if ( ! predicate.matches(c, reading[c + 1]))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class CompactDeviceStoreTest
+{
+
+    public CompactDeviceStoreTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of decodePacket method, of class CompactDeviceStore. The values and statistics must be the same as decoding into a Data object.
+     */
+    @Test
+    public void testDecodePacket()
+    {
+        CompactDeviceStore store = new CompactDeviceStore(2);
+        int id = store.addDevice();
+        store.setStatisticsEnabled(id, true);
+        CompactDeviceStore.Device device = store.getDevice(id);
+
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+
+        for (Data.Value value : data.getValues())
+        {
+            value.statistics.setEnabled(true);
+        }
+
+        byte[] capture = Packets.capture(5000, 47);
+        PacketFramer framer = new PacketFramer(packet ->
+        {
+            decoder.decodePacket(packet);
+            store.decodePacket(id, packet);
+        });
+        framer.accept(capture, 0, capture.length);
+
+        // A sensor still warming up.
+        String warmingUp = "C----ppm:T21.5C:H50.0%:d10.0C:w15.0C";
+        byte[] packet = (warmingUp + Packets.checksum(warmingUp) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        decoder.decodePacket(packet);
+        assertThat(store.decodePacket(id, packet), is(true));
+
+        assertThat(device.getPackets(), is(5001L));
+
+        for (Channel channel : Channel.values())
+        {
+            Data.Value expected = data.getValue(channel);
+            CompactDeviceStore.Value actual = device.getValue(channel);
+
+            assertThat(channel.toString(), actual.getValueDouble(), equalTo(expected.getValueDouble()));
+            assertThat(channel.toString(), actual.getMeasurement(), equalTo(expected.unit.getMeasurement()));
+            assertThat(channel.toString(), actual.getSamples(), equalTo(expected.statistics.getSamples()));
+            assertThat(channel.toString(), actual.getMinimum(), equalTo(expected.statistics.getMinimum()));
+            assertThat(channel.toString(), actual.getMaximum(), equalTo(expected.statistics.getMaximum()));
+            assertThat(channel.toString(), actual.getAverage(), equalTo(expected.statistics.getAverage()));
+        }
+
+        assertThat(device.getValue(Channel.CO2).getValueDouble(), nullValue());
+
+        // The preamble is checked, but changes nothing.
+        assertThat(store.decodePacket(id, Packets.PREAMBLE.getBytes(StandardCharsets.US_ASCII)), is(false));
+
+        // Other devices are not touched.
+        int other = store.addDevice();
+        assertThat(store.getDevice(other).getValue(Channel.DBT).getValueDouble(), nullValue());
+        assertThat(store.getDevice(other).getValue(Channel.DBT).getAverage(), nullValue());
+
+        store.resetStatistics(id);
+        assertThat(device.getValue(Channel.DBT).getSamples(), is(0L));
+        assertThat(device.getDurationMillis(), is(0L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of decodePacket method with invalid packets, of class CompactDeviceStore.
+     */
+    @Test
+    public void testInvalidPacket()
+    {
+        CompactDeviceStore store = new CompactDeviceStore(1);
+        int id = store.addDevice();
+        store.decodePacket(id, Packets.reading(800, 21.5, 50, 10, 15));
+
+        byte[] corrupted = Packets.reading(900, 21.5, 50, 10, 15);
+        corrupted[1] = '8';
+
+        String unknown = "C900ppm:X21.5C";
+        String[] invalid =
+        {
+            new String(corrupted, StandardCharsets.US_ASCII), unknown + Packets.checksum(unknown) + "\r\n"
+        };
+
+        for (String packet : invalid)
+        {
+            try
+            {
+                store.decodePacket(id, packet.getBytes(StandardCharsets.US_ASCII));
+                fail("Expected a ProtocolException for " + packet);
+            }
+            catch (ProtocolException ex)
+            {
+                // Expected.
+            }
+        }
+
+        // Unchanged by the invalid packets.
+        assertThat(store.getDevice(id).getValue(Channel.CO2).getValueDouble(), is(800d));
+        assertThat(store.getDevice(id).getPackets(), is(1L));
+
+        try
+        {
+            store.addDevice();
+            fail("Expected the store to be full.");
+        }
+        catch (IllegalStateException ex)
+        {
+            // Expected.
+        }
+    }
+
+}
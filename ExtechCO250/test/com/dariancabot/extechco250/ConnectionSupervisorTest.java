@@ -0,0 +1,423 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortException;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ConnectionSupervisorTest
+{
+
+    private static final String PACKET = "C1115ppm:T26.3C:H52.9%:d15.9C:w19.4C2b";
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> events = new ArrayList<>();
+    private ConnectionSupervisor supervisor;
+    private ExtechCO250 device;
+    private FakePort port;
+
+
+    public ConnectionSupervisorTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        supervisor = new ConnectionSupervisor(clock::get, false);
+        supervisor.setSilenceTimeout(5000);
+        supervisor.setBackoff(1000, 8000);
+
+        device = new ExtechCO250();
+        device.data.co2Value.statistics.setEnabled(true);
+        device.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+            }
+
+
+            @Override
+            public void connectionLostEvent()
+            {
+                events.add("lost");
+            }
+
+
+            @Override
+            public void connectionRestoredEvent()
+            {
+                events.add("restored");
+            }
+        });
+
+        port = new FakePort();
+        supervisor.supervise(device, port);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        supervisor.close();
+    }
+
+
+    /**
+     * Rule for a temporary traffic dump location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of backoffDelay method, of class ConnectionSupervisor.
+     *
+     * Delays should double with each attempt, be jittered down by up to half, and never exceed the maximum.
+     */
+    @Test
+    public void testBackoffDelay()
+    {
+        for (int i = 0; i < 1000; i ++)
+        {
+            assertThat(ConnectionSupervisor.backoffDelay(0, 1000, 60000), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+            assertThat(ConnectionSupervisor.backoffDelay(3, 1000, 60000), allOf(greaterThanOrEqualTo(4000L), lessThanOrEqualTo(8000L)));
+            assertThat(ConnectionSupervisor.backoffDelay(10, 1000, 60000), allOf(greaterThanOrEqualTo(30000L), lessThanOrEqualTo(60000L)));
+            assertThat(ConnectionSupervisor.backoffDelay(100, 1000, 60000), allOf(greaterThanOrEqualTo(30000L), lessThanOrEqualTo(60000L)));
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of supervise method, of class ConnectionSupervisor.
+     *
+     * A meter that has never been connected can not be supervised.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSuperviseUnconnected()
+    {
+        ConnectionSupervisor supervisor = new ConnectionSupervisor();
+
+        try
+        {
+            supervisor.supervise(new ExtechCO250());
+        }
+        finally
+        {
+            supervisor.close();
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of silence detection, of class ConnectionSupervisor.
+     *
+     * A meter that sends nothing for the silence timeout is lost: the port is dropped, a gap is marked and the lost event is sent once.
+     */
+    @Test
+    public void testSilence() throws Exception
+    {
+        receive();
+
+        advance(4000);
+        assertThat(events, is(empty()));
+
+        advance(999);
+        assertThat(events, is(empty()));
+
+        advance(2);
+        assertThat(events, contains("lost"));
+        assertThat(port.drops, is(1));
+        assertThat(device.data.co2Value.statistics.getGaps(), is(1L));
+
+        advance(500); // Before the first reconnect attempt.
+        assertThat(events, contains("lost"));
+        assertThat(port.drops, is(1));
+        assertThat(port.reopens, is(0));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of data keeping a connection alive, of class ConnectionSupervisor.
+     */
+    @Test
+    public void testReceiving() throws Exception
+    {
+        for (int i = 0; i < 20; i ++)
+        {
+            receive();
+            advance(4000);
+        }
+
+        assertThat(events, is(empty()));
+        assertThat(port.drops, is(0));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of a port error, of class ConnectionSupervisor.
+     *
+     * The meter is lost on the next check, without waiting for the silence timeout.
+     */
+    @Test
+    public void testPortError() throws Exception
+    {
+        receive();
+        advance(500);
+
+        port.errorHandler.run();
+        supervisor.check();
+
+        assertThat(events, contains("lost"));
+        assertThat(port.drops, is(1));
+        assertThat(device.data.co2Value.statistics.getGaps(), is(1L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of a closed port, of class ConnectionSupervisor.
+     */
+    @Test
+    public void testDisconnected() throws Exception
+    {
+        receive();
+        advance(500);
+
+        port.isConnected = false;
+        supervisor.check();
+
+        assertThat(events, contains("lost"));
+        assertThat(port.drops, is(1));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of reconnecting, of class ConnectionSupervisor.
+     *
+     * Failed attempts back off; a successful attempt sends the restored event, counts a reconnect and starts the silence timeout again.
+     */
+    @Test
+    public void testReconnect() throws Exception
+    {
+        receive();
+        port.isConnected = false;
+        supervisor.check();
+        assertThat(events, contains("lost"));
+
+        port.isReopening = false;
+        advance(1000); // First attempt after 500 - 1000ms.
+        assertThat(port.reopens, is(1));
+        assertThat(events, contains("lost"));
+        assertThat(supervisor.getReconnectCount(device), is(0L));
+
+        advance(999); // Second attempt after 1000 - 2000ms.
+        assertThat(port.reopens, is(1));
+
+        port.isReopening = true;
+        advance(1001);
+        assertThat(port.reopens, is(2));
+        assertThat(events, contains("lost", "restored"));
+        assertThat(supervisor.getReconnectCount(device), is(1L));
+
+        advance(4000);
+        assertThat(events, contains("lost", "restored"));
+
+        advance(1001);
+        assertThat(events, contains("lost", "restored", "lost"));
+        assertThat(port.drops, is(2));
+        assertThat(device.data.co2Value.statistics.getGaps(), is(2L));
+
+        port.isReopening = true;
+        advance(1000); // The backoff starts again after a successful attempt.
+        assertThat(events, contains("lost", "restored", "lost", "restored"));
+        assertThat(supervisor.getReconnectCount(device), is(2L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of unsupervise method, of class ConnectionSupervisor.
+     */
+    @Test
+    public void testUnsupervise() throws Exception
+    {
+        supervisor.unsupervise(device);
+
+        assertThat(port.errorHandler, is(nullValue()));
+
+        advance(10000);
+        assertThat(events, is(empty()));
+        assertThat(port.drops, is(0));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of reporting a Serial Port error, of class Communications.
+     */
+    @Test
+    public void testCommunicationsPortError()
+    {
+        AtomicBoolean isReported = new AtomicBoolean();
+
+        SerialPort serialPort = new SerialPort("COM99")
+        {
+            @Override
+            public byte[] readBytes() throws SerialPortException
+            {
+                throw new SerialPortException("COM99", "readBytes()", SerialPortException.TYPE_PORT_NOT_OPENED);
+            }
+        };
+
+        TrafficRecorder trafficRecorder = new TrafficRecorder();
+        trafficRecorder.setErrorDumpDirectory(folder.getRoot().toPath());
+
+        Communications communications = new Communications(serialPort, device.getDecoder(), trafficRecorder, () -> isReported.set(true));
+
+        try
+        {
+            communications.serialEvent(new SerialPortEvent("COM99", SerialPortEvent.RXCHAR, 1));
+            fail("Expected ProtocolException");
+        }
+        catch (ProtocolException ex)
+        {
+            assertThat(ex.getCause(), is(instanceOf(SerialPortException.class)));
+        }
+
+        assertThat(isReported.get(), is(true));
+        assertThat(folder.getRoot().list(), is(emptyArray())); // Not a protocol error.
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void receive() throws ProtocolException
+    {
+        device.getDecoder().decodePacket(PACKET.getBytes());
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void advance(long millis)
+    {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        supervisor.check();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * A Serial Port that stays connected until told otherwise, and counts drops and re-opens.
+     */
+    private static final class FakePort implements ConnectionSupervisor.Port
+    {
+        volatile boolean isConnected = true;
+        volatile boolean isReopening = true;
+        volatile Runnable errorHandler;
+        int drops;
+        int reopens;
+
+
+        @Override
+        public String getName()
+        {
+            return "COM99";
+        }
+
+
+        @Override
+        public boolean isConnected()
+        {
+            return isConnected;
+        }
+
+
+        @Override
+        public void drop()
+        {
+            drops ++;
+            isConnected = false;
+        }
+
+
+        @Override
+        public boolean reopen()
+        {
+            reopens ++;
+            isConnected = isReopening;
+
+            return isReopening;
+        }
+
+
+        @Override
+        public void setErrorHandler(Runnable handler)
+        {
+            errorHandler = handler;
+        }
+
+    }
+
+}
@@ -23,6 +23,13 @@
  */
 package com.dariancabot.extechco250;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import static org.hamcrest.Matchers.*;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -179,4 +186,255 @@ public class DataTest
 
     }
 
+
+    @Test
+    public void testStatisticsGaps()
+    {
+        Data data = new Data();
+
+        // Gaps are not marked while disabled, or before the first sample.
+        data.co2Value.statistics.markGap();
+        data.co2Value.statistics.setEnabled(true);
+        data.co2Value.statistics.markGap();
+        assertThat(data.co2Value.statistics.getGaps(), equalTo(0L));
+
+        data.co2Value.setValue("1000");
+        data.co2Value.statistics.markGap();
+        data.co2Value.setValue("2000");
+
+        // Statistics continue across the gap.
+        assertThat(data.co2Value.statistics.getGaps(), equalTo(1L));
+        assertThat(data.co2Value.statistics.getSamples(), equalTo(2L));
+        assertThat(data.co2Value.statistics.getAverage(), equalTo(1500d));
+
+        data.co2Value.statistics.reset();
+        assertThat(data.co2Value.statistics.getGaps(), equalTo(0L));
+    }
+
+
+    @Test
+    public void testStatisticsClock()
+    {
+        Data data = new Data();
+        long[] now = {123456789L};
+        data.setClock(() -> now[0]);
+        data.co2Value.statistics.setEnabled(true);
+
+        // 2Hz for 10 seconds of virtual time.
+        for (int i = 0; i <= 20; i ++)
+        {
+            data.co2Value.setValue("1000");
+            now[0] += 500000000L;
+        }
+
+        assertThat(data.co2Value.statistics.getDurationMillis(), equalTo(10000L));
+        assertThat(data.co2Value.statistics.getDuration(), equalTo(10L));
+        assertThat(data.co2Value.statistics.snapshot().getDurationMillis(), equalTo(10000L));
+
+        // Millisecond resolution, and the duration is kept when the clock is replaced.
+        long[] other = {-5000000000L};
+        data.co2Value.statistics.setClock(() -> other[0]);
+        data.co2Value.setValue("1000");
+        assertThat(data.co2Value.statistics.getDurationMillis(), equalTo(10000L));
+
+        other[0] += 1250000000L;
+        data.co2Value.setValue("1000");
+        assertThat(data.co2Value.statistics.getDurationMillis(), equalTo(11250L));
+        assertThat(data.co2Value.statistics.getDuration(), equalTo(11L));
+
+        // Reset restarts the duration from the clock.
+        data.co2Value.statistics.reset();
+        data.co2Value.setValue("1000");
+        assertThat(data.co2Value.statistics.getDurationMillis(), equalTo(500L));
+    }
+
+
+    @Test
+    public void testStatisticsTimeWeighted() throws IOException
+    {
+        Data data = new Data();
+        long[] now = {0L};
+        data.setClock(() -> now[0]);
+        Data.Value.Statistics statistics = data.co2Value.statistics;
+        statistics.setEnabled(true);
+        statistics.setBands(1000);
+
+        // 400 ppm at 2Hz for 10 seconds, then 1200 ppm with most packets dropped for 10 seconds.
+        for (int i = 0; i < 20; i ++)
+        {
+            data.co2Value.setValue("400");
+            now[0] += 500000000L;
+        }
+
+        for (int i = 0; i <= 5; i ++)
+        {
+            data.co2Value.setValue("1200");
+            now[0] += 2000000000L;
+        }
+
+        // Every sample counts the same in the average, but not in the time-weighted average.
+        assertThat(statistics.getAverage(), closeTo(584.6, 0.1));
+        assertThat(statistics.getTimeWeightedAverage(), equalTo(800d));
+        assertThat(statistics.getIntegral(), equalTo(16000d));
+        assertThat(statistics.getWeightedDurationMillis(), equalTo(20000L));
+        assertThat(statistics.getTimeInBands(), equalTo(new long[]
+        {
+            10000L, 10000L
+        }));
+        assertThat(statistics.getBandFraction(1), equalTo(0.5));
+
+        // The time of a gap is not counted, and a late reading only counts up to the hold limit.
+        statistics.markGap();
+        now[0] += TimeUnit.SECONDS.toNanos(60);
+        data.co2Value.setValue("400");
+        now[0] += TimeUnit.SECONDS.toNanos(30);
+        data.co2Value.setValue("400");
+        assertThat(statistics.getWeightedDurationMillis(), equalTo(30000L));
+        assertThat(statistics.getTimeInBands()[0], equalTo(20000L));
+
+        // Nor is the time while disabled (i.e. outside occupied hours).
+        statistics.setEnabled(false);
+        now[0] += TimeUnit.HOURS.toNanos(12);
+        statistics.setEnabled(true);
+        data.co2Value.setValue("1200");
+        now[0] += TimeUnit.SECONDS.toNanos(5);
+        data.co2Value.setValue("1200");
+        assertThat(statistics.getWeightedDurationMillis(), equalTo(35000L));
+        assertThat(statistics.getTimeInBands(), equalTo(new long[]
+        {
+            20000L, 15000L
+        }));
+
+        Data.Value.Statistics.Snapshot snapshot = statistics.snapshot();
+        assertThat(snapshot.getTimeWeightedAverage(), equalTo(statistics.getTimeWeightedAverage()));
+        assertThat(snapshot.getTimeInBands(), equalTo(statistics.getTimeInBands()));
+
+        // Kept in a checkpoint.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        statistics.writeTo(new DataOutputStream(bytes));
+
+        Data.Value.Statistics restored = new Data().co2Value.statistics;
+        restored.setBands(1000);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(restored.getIntegral(), equalTo(statistics.getIntegral()));
+        assertThat(restored.getTimeInBands(), equalTo(statistics.getTimeInBands()));
+
+        statistics.reset();
+        assertThat(statistics.getTimeWeightedAverage(), nullValue());
+        assertThat(statistics.getBandFraction(0), equalTo(Double.NaN));
+    }
+
+
+    @Test
+    public void testStatisticsBandsSetLater() throws IOException
+    {
+        Data data = new Data();
+        long[] now = {0L};
+        data.setClock(() -> now[0]);
+        Data.Value.Statistics statistics = data.co2Value.statistics;
+        statistics.setEnabled(true);
+
+        // 10 seconds at 1200 ppm before the bands are set, then 10 more at 1200 ppm and 30 at 400 ppm.
+        for (int i = 0; i < 10; i ++)
+        {
+            data.co2Value.setValue("1200");
+            now[0] += TimeUnit.SECONDS.toNanos(1);
+        }
+
+        statistics.setBands(1000);
+
+        for (int i = 0; i < 40; i ++)
+        {
+            data.co2Value.setValue((i < 10) ? "1200" : "400");
+            now[0] += TimeUnit.SECONDS.toNanos(1);
+        }
+
+        data.co2Value.setValue("400");
+
+        assertThat(statistics.getWeightedDurationMillis(), equalTo(50000L));
+        // The reading held when the bands were set counts from then.
+        assertThat(statistics.getTimeInBands(), equalTo(new long[]
+        {
+            30000L, 11000L
+        }));
+        assertThat(statistics.getBandFraction(0), equalTo(30.0 / 41));
+        assertThat(statistics.getBandFraction(1), equalTo(11.0 / 41));
+        assertThat(statistics.getBandFraction(0) + statistics.getBandFraction(1), closeTo(1, 1e-12));
+
+        // A checkpoint with a different number of bands restores no band times.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        statistics.writeTo(new DataOutputStream(bytes));
+
+        Data.Value.Statistics restored = new Data().co2Value.statistics;
+        restored.setBands(800, 1000);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(restored.getWeightedDurationMillis(), equalTo(50000L));
+        assertThat(restored.getBandFraction(0), equalTo(Double.NaN));
+    }
+
+
+    @Test
+    public void testStatisticsSnapshotConcurrency() throws InterruptedException
+    {
+        final Data.Value.Statistics statistics = new Data().co2Value.statistics;
+        statistics.setEnabled(true);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // Update with consecutive values, so a consistent view always has max = min + samples - 1, and average midway.
+        Thread updater = new Thread(() ->
+        {
+            long value = 0;
+
+            while (running.get())
+            {
+                statistics.update(value ++);
+            }
+        });
+
+        Thread resetter = new Thread(() ->
+        {
+            while (running.get())
+            {
+                statistics.reset();
+                Thread.yield();
+            }
+        });
+
+        updater.start();
+        resetter.start();
+
+        long checked = 0;
+        long end = System.nanoTime() + 500000000L; // Half a second.
+
+        try
+        {
+            while (System.nanoTime() < end)
+            {
+                Data.Value.Statistics.Snapshot snapshot = statistics.snapshot();
+
+                if (snapshot.getSamples() == 0)
+                {
+                    assertTrue(Double.isNaN(snapshot.getMinimum()));
+                    assertTrue(Double.isNaN(snapshot.getMaximum()));
+                    assertTrue(Double.isNaN(snapshot.getAverage()));
+                }
+                else
+                {
+                    checked ++;
+                    assertThat(snapshot.getMaximum(), equalTo(snapshot.getMinimum() + snapshot.getSamples() - 1));
+                    assertThat(snapshot.getAverage(), equalTo((snapshot.getMinimum() + snapshot.getMaximum()) / 2));
+                }
+            }
+        }
+        finally
+        {
+            running.set(false);
+            updater.join();
+            resetter.join();
+        }
+
+        assertThat(checked, greaterThan(0L));
+    }
+
 }
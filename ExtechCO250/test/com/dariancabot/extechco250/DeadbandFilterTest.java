@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class DeadbandFilterTest
+{
+    private final List<String> events = new ArrayList<>();
+    private long now;
+
+
+    public DeadbandFilterTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Rule for a temporary log file location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of deadband and heartbeat filtering, of class DeadbandFilter.
+     */
+    @Test
+    public void testFilter()
+    {
+        ExtechCO250 device = new ExtechCO250();
+        DeadbandFilter filter = new DeadbandFilter(device, () -> now);
+        filter.setDeadband(Channel.CO2, 10);
+        filter.setHeartbeat(10000);
+        filter.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+                events.add(device.data.co2Value.getValue() + " " + device.data.dbtValue.getValue());
+            }
+
+
+            @Override
+            public void connectionLostEvent()
+            {
+                events.add("lost");
+            }
+        });
+
+        decode(device, 800, 21.0); // First reading is always passed on.
+        decode(device, 805, 21.0);
+        decode(device, 810, 21.0); // Deadband is exclusive.
+        decode(device, 811, 21.0);
+        decode(device, 811, 21.1); // No deadband on temperature.
+        decode(device, 811, 21.1);
+
+        now = 10000;
+        decode(device, 811, 21.1); // Heartbeat.
+
+        now = 10500;
+        decode(device, 790, 21.1);
+
+        device.getDecoder().notifyEventListeners(EventListener::connectionLostEvent);
+
+        assertThat(events, contains("800 21.0", "811 21.0", "811 21.1", "811 21.1", "790 21.1", "lost"));
+        assertThat(filter.getPassed(), is(5L));
+        assertThat(filter.getHeartbeats(), is(1L));
+        assertThat(filter.getSuppressed(), is(3L));
+
+        filter.close();
+        decode(device, 2000, 30.0);
+        assertThat(filter.getPassed(), is(5L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of passing on air change rate estimates, of class DeadbandFilter. Estimates are not filtered, even while readings are suppressed.
+     */
+    @Test
+    public void testAirChangeRate()
+    {
+        ExtechCO250 device = new ExtechCO250();
+        VentilationEstimator estimator = new VentilationEstimator(() -> now);
+        estimator.register(device);
+
+        DeadbandFilter filter = new DeadbandFilter(device, () -> now);
+        filter.setDeadband(Channel.CO2, 1000);
+        List<VentilationEstimator.Estimate> estimates = new ArrayList<>();
+        filter.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+            }
+
+
+            @Override
+            public void airChangeRateEvent(VentilationEstimator.Estimate estimate)
+            {
+                estimates.add(estimate);
+            }
+        });
+
+        // Decays at 2 air changes per hour towards the outdoor 420ppm for 30 minutes.
+        for (int i = 0; i < 3600; i ++)
+        {
+            decode(device, (int) Math.round(420 + 1200 * Math.exp(-2.0 * i / 7200)), 21.0);
+            now += 500;
+        }
+
+        assertThat(filter.getSuppressed(), greaterThan(3500L));
+        assertThat(estimates, is(not(empty())));
+        assertThat(estimates.get(estimates.size() - 1), sameInstance(estimator.getEstimate(device)));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of the savings on replayed readings, of class DeadbandFilter. Checks the stored readings are cut when recording through the filter for
+     * several deadbands.
+     *
+     * @throws IOException if the capture or log can't be read or written
+     */
+    @Test
+    public void testSavings() throws IOException
+    {
+        byte[] capture = Packets.capture(20000, 39);
+
+        double[][] deadbands =
+        {
+            {0, 0, 0, 0, 0}, {5, 0.1, 0.5, 0.1, 0.1}, {10, 0.2, 1, 0.2, 0.2}, {25, 0.5, 2, 0.5, 0.5}
+        };
+        double ratio = 0;
+
+        for (double[] deadband : deadbands)
+        {
+            ExtechCO250 device = new ExtechCO250();
+            DeadbandFilter filter = new DeadbandFilter(device, () -> now);
+
+            for (Channel channel : Channel.values())
+            {
+                filter.setDeadband(channel, deadband[channel.ordinal()]);
+            }
+
+            try (ReadingLog log = new ReadingLog(folder.newFolder().toPath(), "COM3", () -> now))
+            {
+                log.record(filter);
+                replay(device, capture);
+
+                assertThat(log.getCount(), is(filter.getPassed()));
+            }
+
+            ratio = filter.getSuppressionRatio();
+        }
+
+        // 10ppm / 0.2 degree deadbands should cut the volume by an order of magnitude.
+        assertThat(ratio, greaterThan(0.9));
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void replay(ExtechCO250 device, byte[] capture)
+    {
+        PacketFramer framer = new PacketFramer(packet ->
+        {
+            now += 500;
+            device.getDecoder().decodePacket(packet);
+        });
+
+        framer.accept(capture, 0, capture.length);
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static void decode(ExtechCO250 device, int co2, double dbt)
+    {
+        device.getDecoder().decodePacket(Packets.reading(co2, dbt, 50, 10, 15));
+    }
+
+}
@@ -26,6 +26,7 @@ package com.dariancabot.extechco250;
 import com.dariancabot.extechco250.exceptions.ProtocolException;
 import org.junit.After;
 import org.junit.AfterClass;
+import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -138,4 +139,25 @@ public class DecoderTest
         decoder.decodePacket(line.getBytes());
     }
 
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of isCompatiblePreamble method, of class Decoder.
+     */
+    @Test
+    public void testIsCompatiblePreamble()
+    {
+        assertTrue(Decoder.isCompatiblePreamble("$CO2:Air:RH:DP:WBTf9".getBytes()));
+        assertTrue(Decoder.isCompatiblePreamble("$CO2:Air:RH:DP:WBTf9\r\n".getBytes()));
+
+        // Invalid checksum.
+        assertFalse(Decoder.isCompatiblePreamble("$CO2:Air:RH:DP:WBTff".getBytes()));
+
+        // Not Extech CO250 compatible.
+        assertFalse(Decoder.isCompatiblePreamble("$CO2:Abc:RH:DP:WBT0f".getBytes()));
+
+        // Live values line.
+        assertFalse(Decoder.isCompatiblePreamble("C1115ppm:T26.3C:H52.9%:d15.9C:w19.4C2b".getBytes()));
+    }
+
 }
@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class FleetAggregatorTest
+{
+
+    public FleetAggregatorTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of merge method, of class Summary.
+     *
+     * Merging partial summaries should give the same result as adding all values to one summary.
+     */
+    @Test
+    public void testSummaryMerge()
+    {
+        Summary all = FleetAggregator.newSummary(Channel.CO2);
+        Summary left = all.newEmpty();
+        Summary right = all.newEmpty();
+
+        for (int i = 0; i < 1000; i ++)
+        {
+            double value = 400 + (i * 7) % 1000;
+            all.add(value);
+            ((i % 3 == 0) ? left : right).add(value);
+        }
+
+        left.merge(right);
+
+        assertThat(left.getCount(), equalTo(all.getCount()));
+        assertThat(left.getSum(), equalTo(all.getSum()));
+        assertThat(left.getMinimum(), equalTo(400d));
+        assertThat(left.getMaximum(), equalTo(all.getMaximum()));
+        assertThat(left.getQuantile(0.5), equalTo(all.getQuantile(0.5)));
+        assertEquals(all.getQuantile(0.5), 900, 25);
+
+        assertTrue(Double.isNaN(new Summary(0, 1, 1).getAverage()));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of register, getGroupSummary, and aggregate methods, of class FleetAggregator.
+     */
+    @Test
+    public void testGroups()
+    {
+        FleetAggregator aggregator = new FleetAggregator();
+        List<ExtechCO250> devices = new ArrayList<>();
+
+        for (int i = 0; i < 300; i ++)
+        {
+            ExtechCO250 device = new ExtechCO250();
+            devices.add(device);
+            aggregator.register(device, "Building", "Level " + (i % 3));
+        }
+
+        // Each meter sends a few readings, with CO2 depending on the meter.
+        for (int r = 0; r < 4; r ++)
+        {
+            for (int i = 0; i < devices.size(); i ++)
+            {
+                devices.get(i).getDecoder().decodePacket(Packets.reading(400 + i, 20 + r, 50, 10, 15));
+            }
+        }
+
+        Summary building = aggregator.getGroupSummary("Building", Channel.CO2);
+        assertThat(building.getCount(), equalTo(1200L));
+        assertThat(building.getMinimum(), equalTo(400d));
+        assertThat(building.getMaximum(), equalTo(699d));
+        assertThat(building.getAverage(), equalTo(549.5));
+
+        Summary level1 = aggregator.getGroupSummary("Level 1", Channel.DBT);
+        assertThat(level1.getCount(), equalTo(400L));
+        assertThat(level1.getMinimum(), equalTo(20d));
+        assertThat(level1.getMaximum(), equalTo(23d));
+
+        // Arbitrary grouping, combined in parallel, matches the incrementally maintained group.
+        Summary all = aggregator.aggregate(devices, Channel.CO2);
+        assertThat(all.getCount(), equalTo(building.getCount()));
+        assertThat(all.getSum(), equalTo(building.getSum()));
+        assertThat(all.getQuantile(0.9), equalTo(building.getQuantile(0.9)));
+
+        Summary pair = aggregator.aggregate(Arrays.asList(devices.get(0), devices.get(10)), Channel.CO2);
+        assertThat(pair.getCount(), equalTo(8L));
+        assertThat(pair.getMaximum(), equalTo(410d));
+
+        // Unregistering removes the meter's readings from its groups.
+        aggregator.unregister(devices.get(299));
+        building = aggregator.getGroupSummary("Building", Channel.CO2);
+        assertThat(building.getCount(), equalTo(1196L));
+        assertThat(building.getMaximum(), equalTo(698d));
+        assertThat(aggregator.getGroupSummary("Level 2", Channel.CO2).getCount(), equalTo(396L));
+        assertThat(aggregator.getGroupSummary("Level 0", Channel.CO2).getCount(), equalTo(400L));
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class FlightEventsTest
+{
+    private static final String PREFIX = "com.dariancabot.extechco250.";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    public FlightEventsTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of recording the pipeline events, of class FlightEvents.
+     */
+    @Test
+    public void testRecording() throws IOException
+    {
+        ExtechCO250 device = new ExtechCO250();
+        device.addEventListener(() ->
+        {
+        });
+        PacketFramer framer = new PacketFramer(packet ->
+        {
+            try
+            {
+                device.getDecoder().decodePacket(packet);
+            }
+            catch (ProtocolException ex)
+            {
+                // Recorded.
+            }
+        });
+
+        byte[] corrupted = Packets.reading(800, 21.5, 50, 10, 15);
+        corrupted[2] = '9';
+        Path file = folder.newFile("pipeline.jfr").toPath();
+
+        try (Recording recording = new Recording())
+        {
+            for (String name : new String[]
+            {
+                "PacketFramed", "PacketDecoded", "ChecksumFailure", "ListenerDispatch"
+            })
+            {
+                recording.enable(PREFIX + name).withThreshold(Duration.ZERO);
+            }
+
+            recording.start();
+
+            byte[] preamble = Packets.PREAMBLE.getBytes(StandardCharsets.US_ASCII);
+            framer.accept(preamble, 0, preamble.length);
+
+            for (int i = 0; i < 10; i ++)
+            {
+                byte[] packet = Packets.reading(800 + i, 21.5, 50, 10, 15);
+                framer.accept(packet, 0, packet.length);
+            }
+
+            framer.accept(corrupted, 0, corrupted.length);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Integer> results = new HashMap<>();
+
+        for (RecordedEvent event : events)
+        {
+            String name = event.getEventType().getName().substring(PREFIX.length());
+            counts.merge(name, 1, Integer::sum);
+
+            if (name.equals("PacketDecoded"))
+            {
+                results.merge(event.getString("result"), 1, Integer::sum);
+                assertThat(event.getInt("length"), greaterThan(0));
+            }
+            else if (name.equals("ChecksumFailure"))
+            {
+                assertThat(event.getString("packet"), startsWith("C890ppm"));
+            }
+            else if (name.equals("ListenerDispatch"))
+            {
+                assertThat(event.getClass("listener").getName(), startsWith(FlightEventsTest.class.getName()));
+            }
+        }
+
+        assertThat(counts.get("PacketFramed"), is(12));
+        assertThat(counts.get("PacketDecoded"), is(12));
+        assertThat(counts.get("ChecksumFailure"), is(1));
+        assertThat(counts.get("ListenerDispatch"), is(10));
+        assertThat(results.get("Reading"), is(10));
+        assertThat(results.get("Preamble"), is(1));
+        assertThat(results.get("Decode error: Packet checksum is invalid."), is(1));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of recording a failing EventListener, of class FlightEvents. The dispatch is recorded even though the EventListener throws.
+     */
+    @Test
+    public void testFailingListener() throws IOException
+    {
+        ExtechCO250 device = new ExtechCO250();
+        device.addEventListener(() ->
+        {
+            throw new IllegalStateException("Listener failed");
+        });
+
+        Path file = folder.newFile("failing.jfr").toPath();
+
+        try (Recording recording = new Recording())
+        {
+            recording.enable(PREFIX + "ListenerDispatch").withThreshold(Duration.ZERO);
+            recording.start();
+
+            for (int i = 0; i < 3; i ++)
+            {
+                try
+                {
+                    device.getDecoder().decodePacket(Packets.reading(800 + i, 21.5, 50, 10, 15));
+                    fail("Expected IllegalStateException");
+                }
+                catch (IllegalStateException ex)
+                {
+                    assertThat(ex.getMessage(), is("Listener failed"));
+                }
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        int dispatches = 0;
+
+        for (RecordedEvent event : RecordingFile.readAllEvents(file))
+        {
+            if (event.getEventType().getName().equals(PREFIX + "ListenerDispatch")
+                    && event.getClass("listener").getName().startsWith(FlightEventsTest.class.getName()))
+            {
+                dispatches ++;
+            }
+        }
+
+        assertThat(dispatches, is(3));
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class HistoryTest
+{
+
+    public HistoryTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of last methods, of class History.
+     */
+    @Test
+    public void testLast()
+    {
+        History history = new History(5);
+        assertThat(history.last(10).size(), is(0));
+        assertThat(history.last(1, TimeUnit.SECONDS).size(), is(0));
+
+        for (int i = 0; i < 3; i ++)
+        {
+            history.add(1000 + i * 500, i);
+        }
+
+        History.View view = history.last(10);
+        assertThat(view.size(), is(3));
+        assertThat(view.getTime(0), is(1000L));
+        assertThat(view.getValue(2), is(2d));
+
+        for (int i = 3; i < 12; i ++)
+        {
+            history.add(1000 + i * 500, i);
+        }
+
+        // Only the capacity is kept, oldest first.
+        view = history.last(10);
+        assertThat(view.size(), is(5));
+        assertThat(history.getCount(), is(12L));
+
+        for (int i = 0; i < 5; i ++)
+        {
+            assertThat(view.getValue(i), is(7d + i));
+            assertThat(view.getTime(i), is(1000L + (7 + i) * 500));
+        }
+
+        // Within 1 second of the newest: 4.5s, 5s, and 5.5s after the first.
+        view = history.last(1, TimeUnit.SECONDS);
+        assertThat(view.size(), is(3));
+        assertThat(view.getValue(0), is(9d));
+        assertTrue(view.isValid());
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of View isValid method, of class History.
+     */
+    @Test
+    public void testViewValidity()
+    {
+        History history = new History(5);
+
+        for (int i = 0; i < 10; i ++)
+        {
+            history.add(i, i);
+        }
+
+        History.View full = history.last(5);
+        History.View recent = history.last(2);
+        assertTrue(full.isValid());
+
+        // Views stay valid until their oldest sample is overwritten.
+        history.add(10, 10);
+        assertFalse(full.isValid());
+        assertTrue(recent.isValid());
+
+        history.add(11, 11);
+        history.add(12, 12);
+        assertTrue(recent.isValid());
+        assertThat(recent.getValue(0), is(8d));
+
+        history.add(13, 13);
+        assertFalse(recent.isValid());
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of concurrent reading while writing, of class History. Views that are valid after reading must be consistent.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testConcurrentViews() throws InterruptedException
+    {
+        History history = new History(64);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        Thread writer = new Thread(() ->
+        {
+            for (long i = 0; running.get(); i ++)
+            {
+                history.add(i, i);
+            }
+        });
+
+        writer.start();
+
+        AtomicLong valid = new AtomicLong();
+        AtomicLong invalid = new AtomicLong();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+
+        try
+        {
+            while (System.nanoTime() < end)
+            {
+                History.View view = history.last(64);
+                long previous = -1;
+                boolean consistent = true;
+
+                for (int i = 0; i < view.size(); i ++)
+                {
+                    long time = view.getTime(i);
+                    consistent &= (time == (long) view.getValue(i)) && ((previous < 0) || (time == previous + 1));
+                    previous = time;
+                }
+
+                if (view.isValid())
+                {
+                    assertTrue("Valid view was inconsistent.", consistent);
+                    valid.incrementAndGet();
+                }
+                else
+                {
+                    invalid.incrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            running.set(false);
+            writer.join();
+        }
+
+        assertThat(valid.get(), greaterThan(0L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of the history being filled by the Decoder, of class Data.Value.
+     */
+    @Test
+    public void testDecoderFillsHistory()
+    {
+        Data data = new Data();
+        Decoder decoder = new Decoder(data);
+        assertThat(data.co2Value.getHistory(), is(nullValue()));
+
+        data.enableHistory(100);
+
+        for (int i = 0; i < 150; i ++)
+        {
+            decoder.decodePacket(Packets.reading(400 + i, 21.5, 50, 10, 15));
+        }
+
+        History.View view = data.co2Value.getHistory().last(1000);
+        assertThat(view.size(), is(100));
+        assertThat(view.getValue(0), is(450d));
+        assertThat(view.getValue(99), is(549d));
+        assertThat(data.dbtValue.getHistory().last(1).getValue(0), is(21.5));
+
+        data.co2Value.disableHistory();
+        decoder.decodePacket(Packets.reading(1000, 21.5, 50, 10, 15));
+        assertThat(data.co2Value.getHistory(), is(nullValue()));
+    }
+
+}
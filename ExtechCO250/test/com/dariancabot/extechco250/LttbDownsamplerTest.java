@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class LttbDownsamplerTest
+{
+    private static final int DAY = 172800; // Samples in a day at 2Hz.
+    private static final long START = 1500000000000L;
+
+
+    public LttbDownsamplerTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of downsample method, of class LttbDownsampler.
+     */
+    @Test
+    public void testDownsample()
+    {
+        long[] times = new long[DAY];
+        double[] values = new double[DAY];
+        int spike = fill(times, values, new Random(42));
+
+        long[] outTimes = new long[1000];
+        double[] outValues = new double[1000];
+
+        int count = LttbDownsampler.downsample(Series.of(times, values, DAY), 1000, outTimes, outValues);
+
+        assertThat(count, is(1000));
+        assertThat(outTimes[0], is(times[0]));
+        assertThat(outTimes[count - 1], is(times[DAY - 1]));
+
+        for (int i = 1; i < count; i ++)
+        {
+            assertThat(outTimes[i], greaterThan(outTimes[i - 1]));
+        }
+
+        // The spike is kept.
+        assertThat(indexOf(outTimes, count, times[spike]), greaterThanOrEqualTo(0));
+        assertThat(outValues[indexOf(outTimes, count, times[spike])], is(values[spike]));
+
+        // Short series are copied as is.
+        count = LttbDownsampler.downsample(Series.of(times, values, 10), 1000, outTimes, outValues);
+        assertThat(count, is(10));
+        assertThat(outValues[9], is(values[9]));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of downsample method with a threshold that is too small, of class LttbDownsampler.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDownsampleThreshold()
+    {
+        LttbDownsampler.downsample(Series.of(new long[10], new double[10], 10), 2, new long[2], new double[2]);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of Incremental class, of class LttbDownsampler. The result must match downsampling the same time buckets from scratch, at every point.
+     */
+    @Test
+    public void testIncremental()
+    {
+        long[] times = new long[DAY];
+        double[] values = new double[DAY];
+        int spike = fill(times, values, new Random(7));
+
+        long bucketLength = 86400000L / 1000; // 1,000 points for the last day.
+        LttbDownsampler.Incremental incremental = new LttbDownsampler.Incremental(bucketLength, 1100);
+        long[] outTimes = new long[incremental.getMaxPoints()];
+        double[] outValues = new double[incremental.getMaxPoints()];
+
+        for (int i = 0; i < DAY; i ++)
+        {
+            incremental.add(times[i], values[i]);
+
+            if ((i < 500) || (i % 9973 == 0) || (i == DAY - 1))
+            {
+                int count = incremental.getPoints(Long.MIN_VALUE, outTimes, outValues);
+
+                List<double[]> expected = reference(times, values, i + 1, bucketLength);
+                assertThat("After " + (i + 1) + " samples", count, is(expected.size()));
+
+                for (int j = 0; j < count; j ++)
+                {
+                    assertThat((double) outTimes[j], is(expected.get(j)[0]));
+                    assertThat(outValues[j], is(expected.get(j)[1]));
+                }
+            }
+        }
+
+        int count = incremental.getPoints(Long.MIN_VALUE, outTimes, outValues);
+
+        assertThat(count, is(both(greaterThan(990)).and(lessThan(1010))));
+        assertThat(indexOf(outTimes, count, times[spike]), greaterThanOrEqualTo(0));
+
+        // Only the last 6 hours.
+        long from = times[DAY - 1] - 6 * 3600000L;
+        int recent = incremental.getPoints(from, outTimes, outValues);
+        assertThat(recent, is(both(greaterThan(240)).and(lessThan(260))));
+        assertThat(outTimes[0], greaterThanOrEqualTo(from));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Fills a day of a CO2 like series, with a single spike.
+     *
+     * @return the index of the spike.
+     */
+    private static int fill(long[] times, double[] values, Random random)
+    {
+        double co2 = 600;
+
+        for (int i = 0; i < times.length; i ++)
+        {
+            co2 = Math.max(400, co2 + random.nextInt(5) - 2);
+            times[i] = START + i * 500L + random.nextInt(20);
+            values[i] = co2;
+        }
+
+        int spike = times.length / 3 + random.nextInt(1000);
+        values[spike] += 3000;
+
+        return spike;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static int indexOf(long[] times, int count, long time)
+    {
+        for (int i = 0; i < count; i ++)
+        {
+            if (times[i] == time)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Downsamples time buckets from scratch: the first sample, then for each bucket that has a following bucket the sample with the largest
+     * triangle, then the newest sample.
+     */
+    private static List<double[]> reference(long[] times, double[] values, int size, long bucketLength)
+    {
+        // Split into buckets of sample indices.
+        List<int[]> buckets = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 1; i <= size; i ++)
+        {
+            if ((i == size) || (Math.floorDiv(times[i], bucketLength) != Math.floorDiv(times[start], bucketLength)))
+            {
+                buckets.add(new int[]
+                {
+                    start, i
+                });
+                start = i;
+            }
+        }
+
+        List<double[]> result = new ArrayList<>();
+        result.add(new double[]
+        {
+            times[0], values[0]
+        });
+
+        long lastTime = times[0];
+        double lastValue = values[0];
+
+        for (int b = 1; b < buckets.size() - 1; b ++)
+        {
+            int[] bucket = buckets.get(b);
+            int[] next = buckets.get(b + 1);
+
+            double timeSum = 0;
+            double valueSum = 0;
+
+            for (int j = next[0]; j < next[1]; j ++)
+            {
+                timeSum += times[j] - times[next[0]];
+                valueSum += values[j];
+            }
+
+            long base = times[bucket[0]];
+            double cx = times[next[0]] + timeSum / (next[1] - next[0]) - base;
+            double cy = valueSum / (next[1] - next[0]);
+            double ax = lastTime - base;
+            double maxArea = -1;
+            int chosen = bucket[0];
+
+            for (int j = bucket[0]; j < bucket[1]; j ++)
+            {
+                double bx = times[j] - base;
+                double area = Math.abs((ax - cx) * (values[j] - lastValue) - (ax - bx) * (cy - lastValue));
+
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+
+            result.add(new double[]
+            {
+                times[chosen], values[chosen]
+            });
+            lastTime = times[chosen];
+            lastValue = values[chosen];
+        }
+
+        if (size > 1)
+        {
+            result.add(new double[]
+            {
+                times[size - 1], values[size - 1]
+            });
+        }
+
+        return result;
+    }
+
+}
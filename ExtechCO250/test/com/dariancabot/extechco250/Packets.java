@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Builds Extech CO250 packets with valid checksums, for tests.
+ *
+ * @author Darian Cabot
+ */
+final class Packets
+{
+    static final String PREAMBLE = "$CO2:Air:RH:DP:WBTf9\r\n";
+
+
+    private Packets()
+    {
+    }
+
+
+    /**
+     * Builds a live values packet, including line break bytes.
+     *
+     * @param co2 the CO2 value in ppm
+     * @param dbt the dry-bulb temperature in Celcius
+     * @param rh  the relative humidity in percent
+     * @param dpt the dew-point temperature in Celcius
+     * @param wbt the wet-bulb temperature in Celcius
+     *
+     * @return the packet bytes.
+     */
+    static byte[] reading(int co2, double dbt, double rh, double dpt, double wbt)
+    {
+        String line = String.format(Locale.ROOT, "C%dppm:T%.1fC:H%.1f%%:d%.1fC:w%.1fC", co2, dbt, rh, dpt, wbt);
+
+        return (line + checksum(line) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Builds an emulated raw serial capture of a meter in a steady room: CO2 wanders by a few ppm per reading, and the temperature occasionally
+     * steps by 0.1 degree.
+     *
+     * @param readings the number of readings
+     * @param seed     the random seed
+     *
+     * @return the capture bytes.
+     */
+    static byte[] capture(int readings, long seed)
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Random walk = new Random(seed);
+        int co2 = 600;
+        double dbt = 22;
+
+        for (int i = 0; i < readings; i ++)
+        {
+            co2 = Math.max(400, co2 + walk.nextInt(5) - 2);
+            dbt += (walk.nextInt(20) == 0) ? (walk.nextBoolean() ? 0.1 : -0.1) : 0;
+            byte[] packet = reading(co2, dbt, 45.5, 9.6, 14.8);
+            stream.write(packet, 0, packet.length);
+        }
+
+        return stream.toByteArray();
+    }
+
+
+    /**
+     * Calculates the checksum characters of a line (8-bit sum 2s complement, as lower case hex).
+     *
+     * @param line the line excluding checksum
+     *
+     * @return the two checksum characters.
+     */
+    static String checksum(String line)
+    {
+        int sum = 0;
+
+        for (byte b : line.getBytes(StandardCharsets.US_ASCII))
+        {
+            sum += b;
+        }
+
+        return String.format("%02x", ( - sum) & 0xff);
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class PortDiscoveryTest
+{
+    private static final int PROBE_TIME = 200; // Milliseconds.
+
+    private String[] portNames;
+    private final AtomicInteger probeCount = new AtomicInteger();
+    private final AtomicInteger probesRunning = new AtomicInteger();
+    private final AtomicInteger peakProbesRunning = new AtomicInteger();
+    private final List<String> events = new ArrayList<>();
+    private PortDiscovery portDiscovery;
+
+
+    public PortDiscoveryTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        portDiscovery = new PortDiscovery(() -> portNames, (portName, timeout) -> probe(portName, PROBE_TIME));
+
+        portDiscovery.setDiscoveryListener(new DiscoveryListener()
+        {
+            @Override
+            public void deviceFoundEvent(String portName)
+            {
+                events.add("found " + portName);
+            }
+
+
+            @Override
+            public void deviceLostEvent(String portName)
+            {
+                events.add("lost " + portName);
+            }
+
+        });
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        portDiscovery.close();
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of discover method, of class PortDiscovery.
+     *
+     * Ports should be probed in parallel, and only once.
+     */
+    @Test
+    public void testDiscoverParallel()
+    {
+        portNames = new String[50];
+
+        for (int i = 0; i < portNames.length; i ++)
+        {
+            portNames[i] = ((i % 2 == 0) ? "CO250-" : "OTHER-") + (100 + i);
+        }
+
+        String[] devices = portDiscovery.discover();
+
+        assertThat(devices.length, equalTo(25));
+        assertThat(devices[0], equalTo("CO250-100"));
+        assertThat(probeCount.get(), equalTo(50));
+        assertThat("Probes did not run in parallel", peakProbesRunning.get(), both(greaterThan(1)).and(lessThanOrEqualTo(32)));
+
+        // Second scan should use the cache.
+        assertThat(portDiscovery.discover().length, equalTo(25));
+        assertThat(probeCount.get(), equalTo(50));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of discover method, of class PortDiscovery.
+     *
+     * With more ports than the default parallelism, and probes that take the whole probe timeout, the queued probes must still complete in one scan.
+     */
+    @Test
+    public void testDiscoverQueuedProbes()
+    {
+        portDiscovery.close();
+        portDiscovery = new PortDiscovery(() -> portNames, (portName, timeout) -> probe(portName, timeout));
+        portDiscovery.setProbeTimeout(400);
+
+        // 4 batches of 32 probes, longer than one probe timeout and allowance.
+        portNames = new String[100];
+
+        for (int i = 0; i < portNames.length; i ++)
+        {
+            portNames[i] = ((i % 2 == 0) ? "CO250-" : "OTHER-") + (100 + i);
+        }
+
+        assertThat(portDiscovery.discover().length, equalTo(50));
+        assertThat(probeCount.get(), equalTo(100));
+        assertThat(peakProbesRunning.get(), lessThanOrEqualTo(32));
+
+        // All cached, none probed again.
+        assertThat(portDiscovery.discover().length, equalTo(50));
+        assertThat(probeCount.get(), equalTo(100));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of discover method, of class PortDiscovery.
+     *
+     * Added and removed ports should be notified.
+     */
+    @Test
+    public void testDiscoverChanges()
+    {
+        portNames = new String[]{"CO250-1", "OTHER-1"};
+
+        portDiscovery.discover();
+        assertThat(events, contains("found CO250-1"));
+        assertTrue(portDiscovery.isDevice("CO250-1"));
+        assertFalse(portDiscovery.isDevice("OTHER-1"));
+
+        events.clear();
+        portNames = new String[]{"OTHER-1", "CO250-2"};
+
+        assertThat(portDiscovery.discover(), equalTo(new String[]{"CO250-2"}));
+        assertThat(events, contains("lost CO250-1", "found CO250-2"));
+        assertThat(probeCount.get(), equalTo(3));
+
+        // Forgotten ports are probed again.
+        portDiscovery.forget("OTHER-1");
+        portDiscovery.discover();
+        assertThat(probeCount.get(), equalTo(4));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of discover method, of class PortDiscovery.
+     *
+     * A port found without a meter is probed again after the retry interval, so a meter switched on later is found.
+     */
+    @Test
+    public void testDiscoverRetry()
+    {
+        AtomicLong clock = new AtomicLong();
+        Set<String> switchedOn = ConcurrentHashMap.newKeySet();
+
+        portDiscovery.close();
+        portDiscovery = new PortDiscovery(() -> portNames, (portName, timeout) ->
+        {
+            probeCount.incrementAndGet();
+
+            return switchedOn.contains(portName);
+        }, 32, clock::get);
+        portDiscovery.setRetryInterval(60000);
+
+        portNames = new String[]{"COM1", "COM2"};
+        switchedOn.add("COM1");
+
+        assertThat(portDiscovery.discover(), equalTo(new String[]{"COM1"}));
+        assertThat(probeCount.get(), equalTo(2));
+
+        switchedOn.add("COM2");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        assertThat(portDiscovery.discover(), equalTo(new String[]{"COM1"}));
+        assertThat(probeCount.get(), equalTo(2));
+
+        // Only the port without a meter is probed again.
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(portDiscovery.discover(), equalTo(new String[]{"COM1", "COM2"}));
+        assertThat(probeCount.get(), equalTo(3));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(120));
+        portDiscovery.discover();
+        assertThat(probeCount.get(), equalTo(3));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Probes a port, taking the given time and recording how many probes run at once. Ports starting "CO250" have a meter.
+     */
+    private boolean probe(String portName, long millis) throws InterruptedException
+    {
+        probeCount.incrementAndGet();
+        peakProbesRunning.accumulateAndGet(probesRunning.incrementAndGet(), Math::max);
+
+        try
+        {
+            Thread.sleep(millis);
+        }
+        finally
+        {
+            probesRunning.decrementAndGet();
+        }
+
+        return portName.startsWith("CO250");
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingBlockTest
+{
+    private static final int BLOCK_SIZE = 256;
+    private static final int RAW_RECORD_SIZE = 48; // Same as ReadingLog.
+    private static final long START = 1500000000000L;
+
+
+    public ReadingBlockTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of round tripping values that can't use the decimal encoding, of class ReadingBlock.
+     */
+    @Test
+    public void testRoundTripArbitraryValues()
+    {
+        Random random = new Random(1);
+        List<long[]> readings = new ArrayList<>();
+        long time = START;
+
+        for (int i = 0; i < 1000; i ++)
+        {
+            time += (i % 100 == 0) ? random.nextInt(100000000) - 50000000 : 500 + random.nextInt(3) - 1;
+
+            double[] values =
+            {
+                random.nextGaussian() * 1000, (i % 7 == 0) ? Double.NaN : i / 3.0, -0d, Double.NEGATIVE_INFINITY, 20 + (i % 10) / 10.0
+            };
+
+            readings.add(toBits(time, values));
+        }
+
+        readings.add(toBits(Long.MIN_VALUE, new double[]
+        {
+            Double.MAX_VALUE, Double.MIN_VALUE, 0, 1, -1
+        }));
+        readings.add(toBits(Long.MAX_VALUE, new double[]
+        {
+            -Double.MAX_VALUE, 1e300, 0, 1, 1e20
+        }));
+
+        assertRoundTrip(readings);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of round tripping empty and single reading blocks, of class ReadingBlock.
+     */
+    @Test
+    public void testRoundTripSmallBlocks()
+    {
+        assertRoundTrip(new ArrayList<>());
+
+        List<long[]> readings = new ArrayList<>();
+        readings.add(toBits(START, new double[]
+        {
+            450, 21.3, 55.2, 12, 15.4
+        }));
+        assertRoundTrip(readings);
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of decoding a truncated block, of class ReadingBlock.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBlock()
+    {
+        ReadingBlock.Encoder encoder = new ReadingBlock.Encoder(5);
+        emulate(encoder, new Random(2), BLOCK_SIZE);
+        byte[] block = encoder.encode();
+
+        ReadingBlock.Decoder decoder = new ReadingBlock.Decoder(block, 0, block.length - 8);
+
+        while (decoder.next())
+        {
+            // Fails before the end.
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of the compression ratio, of class ReadingBlock.Encoder.
+     *
+     * One day of emulated readings at 2Hz should encode to less than a tenth of the raw record size.
+     */
+    @Test
+    public void testCompressionRatio()
+    {
+        ReadingBlock.Encoder encoder = new ReadingBlock.Encoder(5);
+        Random random = new Random(3);
+        long readings = 0;
+        long bytes = 0;
+
+        for (int i = 0; i < 24 * 60 * 60 * 2 / BLOCK_SIZE; i ++)
+        {
+            encoder.reset();
+            emulate(encoder, random, BLOCK_SIZE);
+            byte[] block = encoder.encode();
+
+            readings += new ReadingBlock.Decoder(block).getCount();
+            bytes += block.length;
+        }
+
+        assertThat(readings, is(24L * 60 * 60 * 2 / BLOCK_SIZE * BLOCK_SIZE));
+        assertThat((double) (readings * RAW_RECORD_SIZE) / bytes, greaterThan(10.0));
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static void emulate(ReadingBlock.Encoder encoder, Random random, int count)
+    {
+        long time = START;
+        double co2 = 800;
+        double dbt = 22.4;
+
+        for (int i = 0; i < count; i ++)
+        {
+            time += 500 + ((random.nextInt(50) == 0) ? random.nextInt(21) - 10 : 0);
+            co2 = Math.max(400, co2 + random.nextInt(7) - 3);
+            dbt += (random.nextInt(30) == 0) ? (random.nextBoolean() ? 0.1 : -0.1) : 0;
+            dbt = Math.round(dbt * 10) / 10.0;
+            double rh = Math.round((50 + 5 * Math.sin(i / 500.0)) * 10) / 10.0;
+            double dpt = Math.round((dbt - (100 - rh) / 5) * 10) / 10.0;
+            double wbt = Math.round((dbt - 4.5) * 10) / 10.0;
+
+            encoder.add(time, new double[]
+            {
+                co2, dbt, rh, dpt, wbt
+            });
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static long[] toBits(long time, double[] values)
+    {
+        long[] bits = new long[values.length + 1];
+        bits[0] = time;
+
+        for (int i = 0; i < values.length; i ++)
+        {
+            bits[i + 1] = Double.doubleToRawLongBits(values[i]);
+        }
+
+        return bits;
+    }
+
+
+    //-----------------------------------------------------------------------
+    private static void assertRoundTrip(List<long[]> readings)
+    {
+        ReadingBlock.Encoder encoder = new ReadingBlock.Encoder(5);
+
+        for (long[] reading : readings)
+        {
+            double[] values = new double[5];
+
+            for (int i = 0; i < 5; i ++)
+            {
+                values[i] = Double.longBitsToDouble(reading[i + 1]);
+            }
+
+            encoder.add(reading[0], values);
+        }
+
+        ReadingBlock.Decoder decoder = new ReadingBlock.Decoder(encoder.encode());
+        assertThat(decoder.getCount(), is(readings.size()));
+        assertThat(decoder.getChannels(), is(5));
+
+        for (long[] reading : readings)
+        {
+            assertTrue(decoder.next());
+            assertThat(decoder.getTime(), is(reading[0]));
+
+            for (int i = 0; i < 5; i ++)
+            {
+                assertThat(Double.doubleToRawLongBits(decoder.getValue(i)), is(reading[i + 1]));
+            }
+        }
+
+        assertFalse(decoder.next());
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class ReadingLogTest
+{
+    private static final int READINGS = 100000;
+    private static final long START = 1500000000000L;
+
+
+    public ReadingLogTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Rule for a temporary log file location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of read method, of class ReadingLog.
+     *
+     * Range reads should return exactly the readings in the range, before and after re-opening.
+     *
+     * @throws IOException if the log fails.
+     */
+    @Test
+    public void testRead() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+
+        try (ReadingLog log = new ReadingLog(directory, "COM1"))
+        {
+            write(log, 0, READINGS);
+
+            assertThat(log.getCount(), equalTo((long) READINGS));
+            checkRanges(log);
+        }
+
+        try (ReadingLog log = new ReadingLog(directory, "COM1"))
+        {
+            assertThat(log.getCount(), equalTo((long) READINGS));
+            checkRanges(log);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of recovery when opening, of class ReadingLog.
+     *
+     * A partial trailing record and missing index entries (i.e. after a crash) should be recovered.
+     *
+     * @throws IOException if the log fails.
+     */
+    @Test
+    public void testRecover() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+
+        try (ReadingLog log = new ReadingLog(directory, "COM1"))
+        {
+            write(log, 0, READINGS / 2);
+        }
+
+        // Lose most of the index, and half write a record.
+        try (FileChannel index = FileChannel.open(directory.resolve("COM1.idx"), StandardOpenOption.WRITE))
+        {
+            index.truncate(16 * 10 + 5);
+        }
+
+        try (FileChannel file = FileChannel.open(directory.resolve("COM1.log"), StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+        {
+            file.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        }
+
+        try (ReadingLog log = new ReadingLog(directory, "COM1"))
+        {
+            assertThat(log.getCount(), equalTo((long) READINGS / 2));
+            write(log, READINGS / 2, READINGS);
+            checkRanges(log);
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of naming the files, of class ReadingLog.
+     *
+     * Keys that are paths (i.e. a Linux Serial Port name) must name files inside the directory.
+     *
+     * @throws IOException if the log fails.
+     */
+    @Test
+    public void testPathKey() throws IOException
+    {
+        Path directory = folder.newFolder("logs").toPath();
+
+        try (ReadingLog log = new ReadingLog(directory, "/dev/ttyUSB0"))
+        {
+            write(log, 0, 10);
+        }
+
+        try (ReadingLog log = new ReadingLog(directory, "../COM1"))
+        {
+            write(log, 0, 10);
+        }
+
+        assertThat(directory.toFile().list(), arrayContainingInAnyOrder("_dev_ttyUSB0.log", "_dev_ttyUSB0.idx", "___COM1.log", "___COM1.idx"));
+        assertThat(directory.getParent().toFile().list(), arrayContaining("logs"));
+
+        try (ReadingLog log = new ReadingLog(directory, "/dev/ttyUSB0"))
+        {
+            assertThat(log.getCount(), equalTo(10L));
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Writes readings every 500 ms, with every 1000th reading repeating the previous time.
+     */
+    private void write(ReadingLog log, int from, int to) throws IOException
+    {
+        double[] values = new double[Data.Channel.values().length];
+
+        for (int i = from; i < to; i ++)
+        {
+            values[0] = 400 + i;
+            values[1] = Double.NaN;
+            log.append(time(i), values);
+        }
+    }
+
+
+    private long time(int i)
+    {
+        return START + 500L * (i - i / 1000);
+    }
+
+
+    private void checkRanges(ReadingLog log) throws IOException
+    {
+        long[][] ranges =
+        {
+            {0, Long.MAX_VALUE}, {time(0), time(1)}, {time(999), time(1001)}, {time(1000), time(1001)}, {time(54321), time(54321 + 7777)},
+            {time(READINGS - 1), Long.MAX_VALUE}, {time(READINGS) + 1, Long.MAX_VALUE}
+        };
+
+        for (long[] range : ranges)
+        {
+            List<Double> expected = new ArrayList<>();
+
+            for (int i = 0; i < READINGS; i ++)
+            {
+                if ((time(i) >= range[0]) && (time(i) < range[1]))
+                {
+                    expected.add(400d + i);
+                }
+            }
+
+            List<Double> actual = new ArrayList<>();
+            long count = log.read(range[0], range[1], (time, values) ->
+            {
+                assertTrue(Double.isNaN(values[1]));
+                actual.add(values[0]);
+            });
+
+            assertThat(actual, equalTo(expected));
+            assertThat(count, equalTo((long) expected.size()));
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class SharedReadingFileTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    public SharedReadingFileTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of publishing and reading, of class SharedReadingFile.
+     */
+    @Test
+    public void testPublishAndRead() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("readings.shm");
+        long[] now = {1500000000000L};
+        ExtechCO250 com3 = new ExtechCO250();
+        ExtechCO250 com4 = new ExtechCO250();
+        com3.data.dbtValue.statistics.setEnabled(true);
+
+        try (SharedReadingFile shared = new SharedReadingFile(path, 4, () -> now[0]);
+                SharedReadingFile.Reader reader = new SharedReadingFile.Reader(path))
+        {
+            assertThat(reader.getSlotCount(), is(4));
+            assertThat(shared.register("COM3", com3), is(0));
+            assertThat(shared.register("COM4", com4), is(1));
+
+            SharedReadingFile.Reading reading = new SharedReadingFile.Reading();
+
+            // Registered, but nothing received yet.
+            assertThat(reader.read(0, reading), is(true));
+            assertThat(reading.getKey(), is("COM3"));
+            assertThat(reading.getValue(Channel.CO2), is(Double.NaN));
+            assertThat(reader.read(2, reading), is(false));
+
+            now[0] += 500;
+            com3.getDecoder().decodePacket(Packets.reading(812, 21.5, 48.2, 10.1, 15.3));
+            now[0] += 500;
+            com3.getDecoder().decodePacket(Packets.reading(815, 21.7, 48.0, 10.2, 15.4));
+
+            assertThat(reader.find("COM3"), is(0));
+            assertThat(reader.find("COM4"), is(1));
+            assertThat(reader.find("COM5"), is(-1));
+
+            assertThat(reader.read(0, reading), is(true));
+            assertThat(reading.getTime(), is(1500000001000L));
+            assertThat(reading.getValue(Channel.CO2), is(815d));
+            assertThat(reading.getValue(Channel.WBT), is(15.4));
+            assertThat(reading.getSamples(Channel.DBT), is(2L));
+            assertThat(reading.getMinimum(Channel.DBT), is(21.5));
+            assertThat(reading.getMaximum(Channel.DBT), is(21.7));
+            assertThat(reading.getAverage(Channel.DBT), closeTo(21.6, 1e-9));
+            assertThat(reading.getSamples(Channel.CO2), is(0L));
+            assertThat(reading.getAverage(Channel.CO2), is(Double.NaN));
+
+            // Unregistered: the slot is emptied and reused.
+            shared.unregister(com3);
+            assertThat(reader.read(0, reading), is(false));
+            assertThat(shared.register("COM5", new ExtechCO250()), is(0));
+        }
+
+        // Not a shared reading file.
+        Path other = folder.newFile().toPath();
+        Files.write(other, new byte[100]);
+
+        try
+        {
+            new SharedReadingFile.Reader(other).close();
+            fail("Expected an IOException.");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of reading while the slot is being written, of class SharedReadingFile. Every channel of each reading has the same value, so a torn read
+     * would show different values.
+     */
+    @Test
+    public void testConsistentReads() throws IOException, InterruptedException
+    {
+        Path path = folder.getRoot().toPath().resolve("readings.shm");
+        ExtechCO250 device = new ExtechCO250();
+        int readings = 50000;
+        byte[][] packets = new byte[readings][];
+
+        for (int i = 0; i < readings; i ++)
+        {
+            packets[i] = Packets.reading(i + 1, i + 1, i + 1, i + 1, i + 1);
+        }
+
+        try (SharedReadingFile shared = new SharedReadingFile(path, 1);
+                SharedReadingFile.Reader reader = new SharedReadingFile.Reader(path))
+        {
+            shared.register("COM3", device);
+
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() ->
+            {
+                for (byte[] packet : packets)
+                {
+                    device.getDecoder().decodePacket(packet);
+                }
+
+                done.set(true);
+            });
+
+            SharedReadingFile.Reading reading = new SharedReadingFile.Reading();
+            double last = 0;
+            writer.start();
+
+            while (( ! done.get()) || (last < readings))
+            {
+                assertThat(reader.read(0, reading), is(true));
+                double co2 = reading.getValue(Channel.CO2);
+
+                if ( ! Double.isNaN(co2))
+                {
+                    for (Channel channel : Channel.values())
+                    {
+                        assertThat(reading.getValue(channel), is(co2));
+                    }
+
+                    assertThat(co2, greaterThanOrEqualTo(last));
+                    last = co2;
+                }
+            }
+
+            writer.join();
+
+            assertThat(last, is((double) readings));
+        }
+    }
+
+}
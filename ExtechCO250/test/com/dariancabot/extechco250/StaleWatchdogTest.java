@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class StaleWatchdogTest
+{
+    private static final String PACKET = "C1115ppm:T26.3C:H52.9%:d15.9C:w19.4C2b";
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger staleCount = new AtomicInteger();
+
+
+    public StaleWatchdogTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of watch method, of class StaleWatchdog.
+     *
+     * Only meters that stop sending data should be notified as stale, once, and recover when data is received again.
+     */
+    @Test
+    public void testStaleDetection()
+    {
+        // 3 missed packets = 1500 ms timeout, 100 ms ticks.
+        StaleWatchdog watchdog = new StaleWatchdog(3, 100, clock::get);
+        ExtechCO250[] devices = new ExtechCO250[1000];
+
+        for (int i = 0; i < devices.length; i ++)
+        {
+            devices[i] = new ExtechCO250();
+            devices[i].addEventListener(new EventListener()
+            {
+                @Override
+                public void dataUpdateEvent()
+                {
+                }
+
+
+                @Override
+                public void deviceStaleEvent(String portName)
+                {
+                    staleCount.incrementAndGet();
+                }
+
+            });
+            watchdog.watch(devices[i]);
+        }
+
+        // All meters send data every 500 ms for 10 seconds, except every 10th meter which stops after 2 seconds.
+        for (int time = 0; time <= 10000; time += 100)
+        {
+            clock.set(TimeUnit.MILLISECONDS.toNanos(time));
+
+            if (time % 500 == 0)
+            {
+                for (int i = 0; i < devices.length; i ++)
+                {
+                    if ((i % 10 != 0) || (time <= 2000))
+                    {
+                        devices[i].getDecoder().decodePacket(PACKET.getBytes());
+                    }
+                }
+            }
+
+            watchdog.advance(clock.get());
+
+            // Stale no earlier than the timeout, and no later than the timeout plus a tick.
+            if (time < 3500)
+            {
+                assertThat(staleCount.get(), equalTo(0));
+            }
+            else if (time >= 3600)
+            {
+                assertThat(staleCount.get(), equalTo(100));
+            }
+        }
+
+        assertThat(watchdog.getStaleCount(), equalTo(100));
+
+        // Stale meters recover when data is received again.
+        clock.set(TimeUnit.MILLISECONDS.toNanos(10100));
+        devices[0].getDecoder().decodePacket(PACKET.getBytes());
+        watchdog.advance(clock.get());
+        assertThat(watchdog.getStaleCount(), equalTo(99));
+
+        // Unwatched meters are not notified.
+        watchdog.unwatch(devices[1]);
+        clock.set(TimeUnit.MILLISECONDS.toNanos(20000));
+        watchdog.advance(clock.get());
+        assertThat(staleCount.get(), equalTo(100 + 1 + 899));
+    }
+
+
+}
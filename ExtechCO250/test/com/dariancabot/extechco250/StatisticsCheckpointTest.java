@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class StatisticsCheckpointTest
+{
+    private static final int DEVICES = 1000;
+
+
+    public StatisticsCheckpointTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+    //-----------------------------------------------------------------------
+    /**
+     * Rule for a temporary checkpoint file location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of save and restore methods, of class StatisticsCheckpoint.
+     *
+     * @throws IOException if the checkpoint file fails.
+     */
+    @Test
+    public void testSaveAndRestore() throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("statistics.bin");
+
+        // Accumulate some statistics...
+        StatisticsCheckpoint checkpoint = new StatisticsCheckpoint(file);
+
+        for (int d = 0; d < DEVICES; d ++)
+        {
+            Data data = new Data();
+
+            for (Data.Value value : data.getValues())
+            {
+                value.statistics.setEnabled(true);
+            }
+
+            for (int i = 0; i <= 100; i ++)
+            {
+                data.co2Value.setValue(String.valueOf(400 + d + i));
+                data.dbtValue.setValue(String.valueOf(20.0 + i / 10.0));
+            }
+
+            checkpoint.register("COM" + d, data);
+        }
+
+        checkpoint.save();
+        assertTrue(Files.exists(file));
+
+        // ...then restore them as if restarted, including a meter that was not saved.
+        StatisticsCheckpoint restart = new StatisticsCheckpoint(file);
+        Data[] restored = new Data[DEVICES + 1];
+
+        for (int d = 0; d <= DEVICES; d ++)
+        {
+            restored[d] = new Data();
+            restart.register("COM" + d, restored[d]);
+        }
+
+        assertThat(restart.restore(), equalTo(DEVICES));
+
+        Data.Value.Statistics co2 = restored[7].co2Value.statistics;
+        assertThat(co2.getSamples(), equalTo(101L));
+        assertThat(co2.getMinimum(), equalTo(407d));
+        assertThat(co2.getMaximum(), equalTo(507d));
+        assertThat(co2.getAverage(), equalTo(457d));
+        assertThat(co2.getGaps(), equalTo(1L));
+
+        assertThat(restored[7].dbtValue.statistics.getMaximum(), equalTo(30d));
+        assertThat(restored[7].rhValue.statistics.getSamples(), equalTo(0L));
+        assertThat(restored[7].rhValue.statistics.getAverage(), equalTo(null));
+        assertThat(restored[DEVICES].co2Value.statistics.getSamples(), equalTo(0L));
+
+        // Statistics continue from the restored values.
+        co2.setEnabled(true);
+        restored[7].co2Value.setValue("1");
+        assertThat(co2.getSamples(), equalTo(102L));
+        assertThat(co2.getMinimum(), equalTo(1d));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of restore method, of class StatisticsCheckpoint.
+     *
+     * A missing checkpoint file is not an error.
+     *
+     * @throws IOException if the checkpoint file fails.
+     */
+    @Test
+    public void testRestoreMissing() throws IOException
+    {
+        StatisticsCheckpoint checkpoint = new StatisticsCheckpoint(folder.getRoot().toPath().resolve("missing.bin"));
+        checkpoint.register("COM1", new Data());
+
+        assertThat(checkpoint.restore(), equalTo(0));
+    }
+
+}
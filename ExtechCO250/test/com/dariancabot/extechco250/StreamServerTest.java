@@ -0,0 +1,321 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class StreamServerTest
+{
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress("127.0.0.1", 0);
+
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+
+    public StreamServerTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (SocketChannel client : clients)
+        {
+            client.close();
+        }
+    }
+
+
+    /**
+     * Test of serving packets, of class StreamServer, to several subscribers.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testServe() throws Exception
+    {
+        ExtechCO250 device = new ExtechCO250();
+
+        try (StreamServer server = new StreamServer(device, LOOPBACK))
+        {
+            SocketChannel[] subscribers = new SocketChannel[3];
+
+            for (int i = 0; i < subscribers.length; i ++)
+            {
+                subscribers[i] = connect(server, 0);
+            }
+
+            waitFor(() -> server.getSubscriberCount() == 3);
+
+            byte[] preamble = Packets.PREAMBLE.getBytes(StandardCharsets.US_ASCII);
+            byte[] corrupt = "C600ppm:T22.0C:H45.5%:d9.6C:w14.8Czz\r\n".getBytes(StandardCharsets.US_ASCII);
+            byte[] capture = Packets.capture(100, 3);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(preamble);
+            expected.write(corrupt);
+            expected.write(capture);
+
+            device.getDecoder().decodePacket(preamble);
+
+            try
+            {
+                device.getDecoder().decodePacket(corrupt);
+                fail("Corrupt packet decoded");
+            }
+            catch (ProtocolException ex)
+            {
+                // Forwarded anyway.
+            }
+
+            new PacketFramer(device.getDecoder()::decodePacket).accept(capture, 0, capture.length);
+
+            for (SocketChannel subscriber : subscribers)
+            {
+                assertThat(new String(read(subscriber, expected.size()), StandardCharsets.US_ASCII),
+                           equalTo(new String(expected.toByteArray(), StandardCharsets.US_ASCII)));
+            }
+
+            // A subscriber leaving doesn't affect the others.
+            subscribers[0].close();
+            waitFor(() -> server.getSubscriberCount() == 2);
+
+            byte[] packet = Packets.reading(700, 22.0, 45.5, 9.6, 14.8);
+            device.getDecoder().decodePacket(packet);
+
+            assertThat(read(subscribers[1], packet.length), equalTo(packet));
+            assertThat(read(subscribers[2], packet.length), equalTo(packet));
+            assertThat(server.getDroppedSubscribers(), equalTo(0L));
+        }
+    }
+
+
+    /**
+     * Test of disconnecting a slow subscriber, of class StreamServer.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testSlowSubscriberDisconnected() throws Exception
+    {
+        ExtechCO250 device = new ExtechCO250();
+
+        try (StreamServer server = new StreamServer(device, LOOPBACK))
+        {
+            server.setMaxQueuedBytes(4096);
+
+            SocketChannel fast = connect(server, 0);
+            SocketChannel slow = connect(server, 1024);
+            waitFor(() -> server.getSubscriberCount() == 2);
+
+            int packets = 50000;
+            byte[] packet = Packets.reading(600, 22.0, 45.5, 9.6, 14.8);
+            byte[][] received = new byte[1][];
+
+            Thread reader = new Thread(() ->
+            {
+                try
+                {
+                    received[0] = read(fast, packets * packet.length);
+                }
+                catch (IOException ex)
+                {
+                    received[0] = new byte[0];
+                }
+            });
+            reader.start();
+
+            for (int i = 0; i < packets; i ++)
+            {
+                device.getDecoder().decodePacket(packet);
+            }
+
+            reader.join(TimeUnit.SECONDS.toMillis(30));
+
+            assertThat(received[0].length, equalTo(packets * packet.length));
+            assertThat(server.getDroppedSubscribers(), equalTo(1L));
+            assertThat(server.getSubscriberCount(), equalTo(1));
+            assertThat(drain(slow).length, lessThan(packets * packet.length));
+        }
+    }
+
+
+    /**
+     * Test of coalescing a slow subscriber, of class StreamServer.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testSlowSubscriberCoalesced() throws Exception
+    {
+        ExtechCO250 device = new ExtechCO250();
+
+        try (StreamServer server = new StreamServer(device, LOOPBACK))
+        {
+            server.setMaxQueuedBytes(4096);
+            server.setPolicy(StreamServer.Policy.COALESCE);
+
+            SocketChannel slow = connect(server, 1024);
+            waitFor(() -> server.getSubscriberCount() == 1);
+
+            int packets = 50000;
+
+            for (int i = 0; i < packets; i ++)
+            {
+                device.getDecoder().decodePacket(Packets.reading(400 + (i % 1000), 22.0, 45.5, 9.6, 14.8));
+            }
+
+            byte[] last = Packets.reading(9999, 22.0, 45.5, 9.6, 14.8);
+            device.getDecoder().decodePacket(last);
+
+            waitFor(() -> server.getDroppedPackets() > 0);
+
+            // Read until the newest packet arrives; everything received must be whole packets.
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            String text = "";
+
+            while ( ! text.endsWith(new String(last, StandardCharsets.US_ASCII)))
+            {
+                buffer.clear();
+                assertThat(slow.read(buffer), greaterThan(0));
+                stream.write(buffer.array(), 0, buffer.position());
+                text = new String(stream.toByteArray(), StandardCharsets.US_ASCII);
+            }
+
+            String[] lines = text.split("\r\n");
+
+            assertThat(lines.length, lessThan(packets));
+            assertThat(server.getDroppedSubscribers(), equalTo(0L));
+            assertThat(server.getSubscriberCount(), equalTo(1));
+
+            for (String line : lines)
+            {
+                String values = line.substring(0, line.length() - 2);
+                assertThat(line.substring(line.length() - 2), equalTo(Packets.checksum(values)));
+            }
+        }
+    }
+
+
+    private SocketChannel connect(StreamServer server, int receiveBuffer) throws IOException
+    {
+        SocketChannel client = SocketChannel.open();
+        clients.add(client);
+
+        if (receiveBuffer > 0)
+        {
+            client.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        }
+
+        client.connect(server.getLocalAddress());
+
+        return client;
+    }
+
+
+    private static byte[] read(SocketChannel client, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining())
+        {
+            if (client.read(buffer) < 0)
+            {
+                break;
+            }
+        }
+
+        return buffer.array();
+    }
+
+
+    private static byte[] drain(SocketChannel client) throws IOException
+    {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        while (client.read(buffer) >= 0)
+        {
+            stream.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        return stream.toByteArray();
+    }
+
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while ( ! condition.getAsBoolean())
+        {
+            assertThat("Timed out", System.nanoTime() - deadline, lessThan(0L));
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class TcpTransportTest
+{
+    private ServerSocketChannel server;
+    private final List<SocketChannel> accepted = new ArrayList<>();
+
+
+    public TcpTransportTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+    }
+
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (SocketChannel channel : accepted)
+        {
+            channel.close();
+        }
+
+        server.close();
+    }
+
+
+    /**
+     * Rule for a temporary traffic dump location.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Test of connect method, of class TcpTransport, with many meters replaying emulated captures from a stand-in converter.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testConnectMany() throws Exception
+    {
+        int meters = 500;
+        int readings = 200;
+        byte[] capture = Packets.capture(readings, 7);
+        byte[] last = Packets.reading(1234, 21.5, 45.5, 9.6, 14.8);
+
+        CountDownLatch done = new CountDownLatch(meters);
+        List<ExtechCO250> devices = new ArrayList<>();
+
+        try (TcpTransport transport = new TcpTransport())
+        {
+            for (int i = 0; i < meters; i ++)
+            {
+                ExtechCO250 device = new ExtechCO250();
+                AtomicInteger updates = new AtomicInteger();
+
+                device.addEventListener(() ->
+                {
+                    if (updates.incrementAndGet() == readings + 1)
+                    {
+                        done.countDown();
+                    }
+                });
+
+                devices.add(device);
+                transport.connect(device, (InetSocketAddress) server.getLocalAddress());
+            }
+
+            // Stand-in converter: accepts every meter and replays the capture.
+            for (int i = 0; i < meters; i ++)
+            {
+                SocketChannel channel = server.accept();
+                accepted.add(channel);
+                write(channel, Packets.PREAMBLE.getBytes(StandardCharsets.US_ASCII));
+                write(channel, capture);
+                write(channel, last);
+            }
+
+            assertThat(done.await(30, TimeUnit.SECONDS), equalTo(true));
+
+            long bytes = (long) meters * (Packets.PREAMBLE.length() + capture.length + last.length);
+
+            assertThat(transport.getConnectedCount(), equalTo(meters));
+            assertThat(transport.getBytesReceived(), equalTo(bytes));
+            assertThat(transport.getProtocolErrors(), equalTo(0L));
+
+            for (ExtechCO250 device : devices)
+            {
+                assertThat(device.data.co2Value.getValueDouble(), equalTo(1234.0));
+                assertThat(device.data.dbtValue.getValueDouble(), equalTo(21.5));
+                assertThat(device.getTrafficRecorder().getTotalBytes(), equalTo(bytes / meters));
+            }
+        }
+    }
+
+
+    /**
+     * Test of reconnecting, of class TcpTransport, after the converter drops the connection.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testReconnect() throws Exception
+    {
+        ExtechCO250 device = new ExtechCO250();
+        List<String> events = new ArrayList<>();
+        CountDownLatch restored = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(2);
+
+        device.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+                events.add("update");
+                updated.countDown();
+            }
+
+
+            @Override
+            public void connectionLostEvent()
+            {
+                events.add("lost");
+            }
+
+
+            @Override
+            public void connectionRestoredEvent()
+            {
+                events.add("restored");
+                restored.countDown();
+            }
+        });
+
+        Path dumps = folder.newFolder().toPath();
+        device.getTrafficRecorder().setErrorDumpDirectory(dumps);
+
+        try (TcpTransport transport = new TcpTransport())
+        {
+            transport.setReconnectDelay(50);
+            transport.connect(device, (InetSocketAddress) server.getLocalAddress());
+
+            // A corrupted packet is skipped, then the converter drops the connection.
+            SocketChannel channel = server.accept();
+            write(channel, "C600ppm:T22.0C:H45.5%:d9.6C:w14.8Czz\r\n".getBytes(StandardCharsets.US_ASCII));
+            write(channel, Packets.reading(600, 22.0, 45.5, 9.6, 14.8));
+            channel.close();
+
+            channel = server.accept();
+            accepted.add(channel);
+
+            assertThat(restored.await(10, TimeUnit.SECONDS), equalTo(true));
+
+            write(channel, Packets.reading(650, 22.0, 45.5, 9.6, 14.8));
+
+            assertThat(updated.await(10, TimeUnit.SECONDS), equalTo(true));
+            assertThat(events, contains("update", "lost", "restored", "update"));
+            assertThat(transport.isConnected(device), equalTo(true));
+            assertThat(transport.getProtocolErrors(), equalTo(1L));
+            assertThat(device.data.co2Value.getValueDouble(), equalTo(650.0));
+            assertDumped(dumps, "Packet checksum is invalid");
+
+            transport.disconnect(device);
+
+            // The converter sees the close, and no reconnect follows.
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            assertThat(channel.read(buffer), equalTo(-1));
+            assertThat(transport.isConnected(device), equalTo(false));
+        }
+    }
+
+
+    /**
+     * Test of a failing packet, of class TcpTransport: a malformed packet or a throwing EventListener must not stop the other meters.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testFailingPacket() throws Exception
+    {
+        ExtechCO250 failing = new ExtechCO250();
+        ExtechCO250 other = new ExtechCO250();
+        CountDownLatch failingDone = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+
+        failing.addEventListener(() ->
+        {
+            if (failing.data.co2Value.getValueDouble() == 600)
+            {
+                throw new IllegalStateException("Listener failed");
+            }
+
+            failingDone.countDown();
+        });
+
+        other.addEventListener(otherDone::countDown);
+
+        Path dumps = folder.newFolder().toPath();
+        failing.getTrafficRecorder().setErrorDumpDirectory(dumps);
+
+        try (TcpTransport transport = new TcpTransport())
+        {
+            transport.connect(failing, (InetSocketAddress) server.getLocalAddress());
+            SocketChannel channel = server.accept();
+            accepted.add(channel);
+
+            // Checksum valid, but the CO2 field is too short to decode.
+            String malformed = "C1:T22.0C:H45.5%:d9.6C:w14.8C";
+
+            write(channel, Packets.reading(600, 22.0, 45.5, 9.6, 14.8));
+            write(channel, (malformed + Packets.checksum(malformed) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            write(channel, Packets.reading(650, 22.0, 45.5, 9.6, 14.8));
+
+            assertThat(failingDone.await(10, TimeUnit.SECONDS), equalTo(true));
+            assertThat(failing.data.co2Value.getValueDouble(), equalTo(650.0));
+            assertThat(transport.getProtocolErrors(), equalTo(2L));
+            assertThat(transport.isConnected(failing), equalTo(true));
+            assertDumped(dumps, "Listener failed"); // The second error is within the dump interval.
+
+            // The selector thread still serves new meters.
+            transport.connect(other, (InetSocketAddress) server.getLocalAddress());
+            channel = server.accept();
+            accepted.add(channel);
+            write(channel, Packets.reading(700, 22.0, 45.5, 9.6, 14.8));
+
+            assertThat(otherDone.await(10, TimeUnit.SECONDS), equalTo(true));
+            assertThat(other.data.co2Value.getValueDouble(), equalTo(700.0));
+        }
+    }
+
+
+    /**
+     * Test of connect method, of class TcpTransport, with an unresolved address (i.e. a failed DNS lookup of the converter's name).
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testConnectUnresolved() throws Exception
+    {
+        ExtechCO250 device = new ExtechCO250();
+        CountDownLatch done = new CountDownLatch(1);
+        device.addEventListener(done::countDown);
+
+        try (TcpTransport transport = new TcpTransport())
+        {
+            try
+            {
+                transport.connect(new ExtechCO250(), InetSocketAddress.createUnresolved("converter.invalid", 4001));
+                fail("Expected IllegalArgumentException");
+            }
+            catch (IllegalArgumentException ex)
+            {
+                assertThat(ex.getMessage(), containsString("unresolved"));
+            }
+
+            // The selector thread still serves meters.
+            transport.connect(device, (InetSocketAddress) server.getLocalAddress());
+            SocketChannel channel = server.accept();
+            accepted.add(channel);
+            write(channel, Packets.reading(700, 22.0, 45.5, 9.6, 14.8));
+
+            assertThat(done.await(10, TimeUnit.SECONDS), equalTo(true));
+        }
+    }
+
+
+    private static void assertDumped(Path directory, String error) throws IOException
+    {
+        String[] names = directory.toFile().list();
+        assertThat(names, arrayWithSize(1));
+        assertThat(names[0], startsWith("127_0_0_1_"));
+
+        String dump = new String(Files.readAllBytes(directory.resolve(names[0])), StandardCharsets.US_ASCII);
+        assertThat(dump, containsString("traffic before protocol error"));
+        assertThat(dump, containsString(error));
+    }
+
+
+    private static void write(SocketChannel channel, byte[] bytes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import com.dariancabot.extechco250.TimeSeriesStore.Bucket;
+import com.dariancabot.extechco250.TimeSeriesStore.Resolution;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class TimeSeriesStoreTest
+{
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final long DAY = 24 * HOUR;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    public TimeSeriesStoreTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of query methods, of class TimeSeriesStore.
+     *
+     * Three hours of 2Hz readings, where CO2 counts up by 1 ppm each reading within each hour.
+     */
+    @Test
+    public void testRollups()
+    {
+        TimeSeriesStore store = new TimeSeriesStore(clock::get);
+        ExtechCO250 device = new ExtechCO250();
+        store.register("COM1", device);
+
+        long start = 100 * HOUR;
+
+        for (long time = start; time < start + 3 * HOUR; time += 500)
+        {
+            clock.set(time);
+            int co2 = 400 + (int) (((time - start) % HOUR) / 500);
+            device.getDecoder().decodePacket(Packets.reading(co2, 21.5, 50, 10, 15));
+        }
+
+        long now = clock.get();
+
+        // Hourly rollups.
+        List<Bucket> hours = store.query("COM1", Channel.CO2, start, now + 1, Resolution.HOUR);
+        assertThat(hours.size(), equalTo(3));
+        assertThat(hours.get(1).getStart(), equalTo(start + HOUR));
+        assertThat(hours.get(1).getCount(), equalTo(7200L));
+        assertThat(hours.get(1).getMinimum(), equalTo(400d));
+        assertThat(hours.get(1).getMaximum(), equalTo(7599d));
+        assertThat(hours.get(1).getAverage(), equalTo(3999.5));
+
+        // Minute rollups.
+        List<Bucket> minutes = store.query("COM1", Channel.CO2, start, start + 10 * 60 * 1000, Resolution.MINUTE);
+        assertThat(minutes.size(), equalTo(10));
+        assertThat(minutes.get(2).getCount(), equalTo(120L));
+        assertThat(minutes.get(2).getMinimum(), equalTo(640d));
+
+        // Second rollups are only retained for the last hour.
+        assertThat(store.query("COM1", Channel.DBT, start, now + 1, Resolution.SECOND).size(), equalTo(3600));
+
+        // Raw readings are only retained for the last 5 minutes.
+        List<Bucket> raw = store.query("COM1", Channel.CO2, start, now + 1, Resolution.RAW);
+        assertThat(raw.size(), equalTo(601));
+        assertThat(raw.get(600).getStart(), equalTo(now));
+        assertThat(raw.get(600).getMaximum(), equalTo(7599d));
+
+        // Long spans are read from rollups.
+        assertThat(store.chooseResolution(now - 60 * 1000, now, 1000), equalTo(Resolution.RAW));
+        assertThat(store.chooseResolution(now - 10 * 60 * 1000, now, 1000), equalTo(Resolution.SECOND));
+        assertThat(store.chooseResolution(now - 2 * HOUR, now, 1000), equalTo(Resolution.MINUTE));
+        assertThat(store.chooseResolution(now - 30 * 24 * HOUR, now, 1000), equalTo(Resolution.HOUR));
+        assertThat(store.query("COM1", Channel.CO2, start, now + 1, 100).size(), equalTo(3));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of the memory used, of class TimeSeriesStore: pages are only allocated as data arrives, up to the documented cost of full retention.
+     */
+    @Test
+    public void testMemory()
+    {
+        TimeSeriesStore store = new TimeSeriesStore(clock::get);
+        store.register("COM1", new ExtechCO250());
+
+        // Only the initial raw buffers.
+        assertThat(store.getAllocatedBytes(), equalTo(5 * 64 * 16L));
+
+        // One reading allocates a page of each rollup for its channel.
+        long start = 1000 * HOUR;
+        store.add("COM1", Channel.CO2, start, 600);
+        assertThat(store.getAllocatedBytes(), equalTo(5 * 64 * 16L + 3 * 64 * 40L));
+
+        // Fill the default retention of every resolution: hourly readings for 88 days, then one a minute, then 2Hz for the last hour.
+        long time = start;
+
+        for (; time < start + 88 * DAY; time += HOUR)
+        {
+            store.add("COM1", Channel.CO2, time, 600);
+        }
+
+        for (; time < start + 90 * DAY - HOUR; time += 60 * 1000)
+        {
+            store.add("COM1", Channel.CO2, time, 600);
+        }
+
+        for (; time < start + 90 * DAY; time += 500)
+        {
+            store.add("COM1", Channel.CO2, time, 600);
+        }
+
+        assertThat(store.query("COM1", Channel.CO2, start, time, Resolution.HOUR).size(), equalTo(2160));
+        assertThat(store.query("COM1", Channel.CO2, start, time, Resolution.MINUTE).size(), equalTo(2880));
+        assertThat(store.query("COM1", Channel.CO2, start, time, Resolution.SECOND).size(), equalTo(3600));
+        assertThat(store.query("COM1", Channel.CO2, start, time, Resolution.RAW).size(), equalTo(601));
+
+        // 1200 raw readings, and 57 + 45 + 34 pages of 64 buckets: about 360 KB for the channel.
+        long channel = 1200 * 16L + (57 + 45 + 34) * 64 * 40L;
+        assertThat(channel, equalTo(367360L));
+        assertThat(store.getAllocatedBytes(), equalTo(channel + 4 * 64 * 16L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of save and restore methods, of class TimeSeriesStore.
+     *
+     * @throws IOException if the file can't be written or read
+     */
+    @Test
+    public void testSaveRestore() throws IOException
+    {
+        Path file = folder.getRoot().toPath().resolve("rollups.bin");
+
+        TimeSeriesStore store = new TimeSeriesStore(clock::get);
+        store.register("COM1", new ExtechCO250());
+        store.register("COM2", new ExtechCO250());
+
+        long start = 100 * HOUR;
+        long end = start + 3 * HOUR;
+
+        for (long time = start; time < end; time += 500)
+        {
+            store.add("COM1", Channel.CO2, time, 400 + (time / 500) % 1000);
+            store.add("COM2", Channel.DBT, time, 21.5);
+        }
+
+        clock.set(end);
+        store.save(file);
+
+        TimeSeriesStore restored = new TimeSeriesStore(clock::get);
+        restored.register("COM1", new ExtechCO250());
+        assertThat(restored.restore(file), equalTo(1));
+
+        for (Resolution resolution : new Resolution[]
+        {
+            Resolution.SECOND, Resolution.MINUTE, Resolution.HOUR
+        })
+        {
+            List<Bucket> expected = store.query("COM1", Channel.CO2, start, end, resolution);
+            List<Bucket> actual = restored.query("COM1", Channel.CO2, start, end, resolution);
+
+            assertThat(actual.size(), equalTo(expected.size()));
+
+            for (int i = 0; i < expected.size(); i ++)
+            {
+                assertThat(actual.get(i).getStart(), equalTo(expected.get(i).getStart()));
+                assertThat(actual.get(i).getCount(), equalTo(expected.get(i).getCount()));
+                assertThat(actual.get(i).getMinimum(), equalTo(expected.get(i).getMinimum()));
+                assertThat(actual.get(i).getMaximum(), equalTo(expected.get(i).getMaximum()));
+                assertThat(actual.get(i).getAverage(), equalTo(expected.get(i).getAverage()));
+            }
+        }
+
+        // Raw readings are not saved.
+        assertThat(restored.query("COM1", Channel.CO2, start, end, Resolution.RAW), empty());
+
+        // Recording carries on into the restored buckets.
+        restored.add("COM1", Channel.CO2, end - 1, 5000);
+        assertThat(restored.query("COM1", Channel.CO2, end - HOUR, end, Resolution.HOUR).get(0).getMaximum(), equalTo(5000d));
+
+        assertThat(new TimeSeriesStore(clock::get).restore(folder.getRoot().toPath().resolve("missing.bin")), equalTo(0));
+    }
+
+}
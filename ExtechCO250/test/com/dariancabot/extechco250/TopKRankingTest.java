@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.Data.Channel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class TopKRankingTest
+{
+    private static final int K = 20;
+
+    private final List<List<ExtechCO250>> events = new ArrayList<>();
+
+
+    public TopKRankingTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of getTop method, of class TopKRanking.
+     *
+     * The top-K should always match a full sort, and changes should only be notified when membership changes.
+     */
+    @Test
+    public void testTopK()
+    {
+        TopKRanking ranking = new TopKRanking(K, TopKRanking.currentValue(Channel.CO2));
+        ranking.setRankingListener(top -> events.add(new ArrayList<>(top)));
+
+        List<ExtechCO250> devices = new ArrayList<>();
+        Map<ExtechCO250, Integer> index = new HashMap<>();
+        int[] co2 = new int[1000];
+
+        for (int i = 0; i < co2.length; i ++)
+        {
+            ExtechCO250 device = new ExtechCO250();
+            devices.add(device);
+            index.put(device, i);
+            ranking.add(device);
+        }
+
+        Random random = new Random(250);
+        List<ExtechCO250> previousTop = new ArrayList<>();
+        int expectedEvents = 0;
+
+        for (int update = 0; update < 5000; update ++)
+        {
+            int i = random.nextInt(co2.length);
+            co2[i] = 400 + random.nextInt(2000);
+            devices.get(i).getDecoder().decodePacket(Packets.reading(co2[i], 21, 50, 10, 15));
+
+            List<ExtechCO250> top = ranking.getTop();
+
+            // Compare with a full sort (ties broken by registration order, like the ranking) every so often.
+            if (update % 50 == 0)
+            {
+                List<ExtechCO250> expected = devices.stream()
+                        .filter(d -> ! Double.isNaN(ranking.getScore(d)))
+                        .sorted(Comparator.comparingDouble((ExtechCO250 d) -> - ranking.getScore(d)).thenComparingInt(index::get))
+                        .limit(K)
+                        .collect(Collectors.toList());
+
+                assertThat(top, equalTo(expected));
+            }
+
+            if ( ! new HashSet<>(top).equals(new HashSet<>(previousTop)))
+            {
+                expectedEvents ++;
+            }
+
+            previousTop = top;
+        }
+
+        assertThat(events.size(), equalTo(expectedEvents));
+        assertThat(events.size(), lessThan(5000));
+        assertThat(new HashSet<>(events.get(events.size() - 1)), equalTo(new HashSet<>(previousTop)));
+
+        // Removing a top meter changes the membership.
+        ExtechCO250 first = ranking.getTop().get(0);
+        ranking.remove(first);
+        assertThat(ranking.getTop(), not(hasItem(first)));
+        assertThat(ranking.getTop().size(), equalTo(K));
+        assertThat(events.size(), equalTo(expectedEvents + 1));
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import com.dariancabot.extechco250.exceptions.ProtocolException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class TrafficRecorderTest
+{
+    private final long[] now = {1500000000000L};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    public TrafficRecorderTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of record and dump methods, of class TrafficRecorder.
+     */
+    @Test
+    public void testRecord()
+    {
+        TrafficRecorder recorder = new TrafficRecorder(16, 3, () -> now[0]);
+        assertThat(recorder.toString(), is(""));
+
+        record(recorder, "$CO2:");
+        record(recorder, "Air\r\n");
+
+        assertThat(recorder.toString(), is("2017-07-14T02:40:00Z    5  24 43 4f 32 3a |$CO2:|\n"
+                + "2017-07-14T02:40:00.100Z    5  41 69 72 0d 0a |Air..|\n"));
+
+        // The oldest read is partly overwritten, and the first is no longer kept.
+        record(recorder, "C800ppm");
+        record(recorder, "ABCDEF");
+
+        assertThat(recorder.toString(), is("2017-07-14T02:40:00.100Z    5* 72 0d 0a |r..|\n"
+                + "2017-07-14T02:40:00.200Z    7  43 38 30 30 70 70 6d |C800ppm|\n"
+                + "2017-07-14T02:40:00.300Z    6  41 42 43 44 45 46 |ABCDEF|\n"));
+
+        // Larger than the capacity: only the last bytes are kept.
+        record(recorder, "0123456789abcdefghij");
+
+        assertThat(recorder.toString(), is("2017-07-14T02:40:00.400Z   20* 34 35 36 37 38 39 61 62 63 64 65 66 67 68 69 6a |456789abcdefghij|\n"));
+        assertThat(recorder.getTotalBytes(), is(43L));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of dumping on a protocol error, of class TrafficRecorder.
+     */
+    @Test
+    public void testProtocolError() throws IOException
+    {
+        TrafficRecorder recorder = new TrafficRecorder(1024, 16, () -> now[0]);
+        Path directory = folder.newFolder().toPath();
+        recorder.setErrorDumpDirectory(directory);
+
+        byte[] packet = Packets.reading(800, 21.5, 50, 10, 15);
+        recorder.record(packet, 0, packet.length);
+
+        assertThat(recorder.protocolError("COM3", new ProtocolException("Decode error: Packet checksum is invalid.")), is(true));
+
+        List<String> lines = Files.readAllLines(directory.resolve("COM3-1500000000000.txt"), StandardCharsets.US_ASCII);
+        assertThat(lines, contains("# COM3 traffic before protocol error at 2017-07-14T02:40:00Z: Decode error: Packet checksum is invalid.",
+                "2017-07-14T02:40:00Z   " + packet.length + "  " + Communications.bytesToHex(packet) + "|C800ppm:T21.5C:H50.0%:d10.0C:w15.0C"
+                + new String(packet, packet.length - 4, 2, StandardCharsets.US_ASCII) + "..|"));
+
+        // Not again until the interval has passed.
+        now[0] += 59999;
+        assertThat(recorder.protocolError("COM3", new ProtocolException("Again")), is(false));
+        now[0] += 1;
+        assertThat(recorder.protocolError("COM3", new ProtocolException("Again")), is(true));
+        assertThat(directory.toFile().list().length, is(2));
+    }
+
+
+    //-----------------------------------------------------------------------
+    private void record(TrafficRecorder recorder, String received)
+    {
+        byte[] bytes = received.getBytes(StandardCharsets.US_ASCII);
+        recorder.record(bytes, 0, bytes.length);
+        now[0] += 100;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Darian Cabot
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dariancabot.extechco250;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Darian Cabot
+ */
+public class VentilationEstimatorTest
+{
+    private final List<VentilationEstimator.Estimate> estimates = new ArrayList<>();
+    private final long[] now = {1500000000000L};
+
+
+    public VentilationEstimatorTest()
+    {
+    }
+
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+    }
+
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+    }
+
+
+    @Before
+    public void setUp()
+    {
+    }
+
+
+    @After
+    public void tearDown()
+    {
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of estimating the air change rate of a decay, of class VentilationEstimator.
+     */
+    @Test
+    public void testDecay()
+    {
+        VentilationEstimator estimator = new VentilationEstimator(() -> now[0]);
+        ExtechCO250 device = newDevice(estimator);
+        Random random = new Random(44);
+
+        // Occupied for an hour: CO2 rises from 600 to 1620ppm.
+        for (int i = 0; i < 7200; i ++)
+        {
+            decode(device, 600 + 1020.0 * i / 7200, random);
+        }
+
+        assertThat(estimates, is(empty()));
+
+        // Empty for 30 minutes: decays at 2 air changes per hour towards the outdoor 420ppm.
+        for (int i = 0; i < 3600; i ++)
+        {
+            decode(device, 420 + 1200 * Math.exp(-2.0 * i / 7200), random);
+        }
+
+        // Published after each reading once the decay is 10 minutes long.
+        assertThat(estimates.size(), is(both(greaterThan(2000)).and(lessThan(2500))));
+        VentilationEstimator.Estimate latest = estimator.getEstimate(device);
+        assertThat(latest.isFinal(), is(false));
+        assertThat(latest.getAirChangesPerHour(), closeTo(2, 0.05));
+        assertThat(latest.getRSquared(), greaterThan(0.99));
+
+        // Occupied again, which ends the decay.
+        estimates.clear();
+        decode(device, 400 + 1200 * Math.exp(-1) + 100, random);
+        assertThat(estimates, hasSize(1));
+        assertThat(estimates.get(0).isFinal(), is(true));
+        assertThat(estimates.get(0).getAirChangesPerHour(), equalTo(latest.getAirChangesPerHour()));
+        assertThat(estimates.get(0).getDurationMillis(), is(both(greaterThan(1700000L)).and(lessThan(1800000L))));
+
+        // No more estimates while occupied.
+        for (int i = 0; i < 1000; i ++)
+        {
+            decode(device, 920 + 0.1 * i, random);
+        }
+
+        assertThat(estimates, hasSize(1));
+
+        // Too short a decay to the outdoor level is not published.
+        for (int i = 0; i < 7200; i ++)
+        {
+            decode(device, 420 + 600 * Math.exp(-12.0 * i / 7200), random);
+        }
+
+        assertThat(estimates, hasSize(1));
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Test of a decay ending at the outdoor level, of class VentilationEstimator.
+     */
+    @Test
+    public void testDecayToOutdoors()
+    {
+        VentilationEstimator estimator = new VentilationEstimator(() -> now[0]);
+        ExtechCO250 device = newDevice(estimator);
+        Random random = new Random(45);
+
+        decode(device, 1500, random);
+
+        // A slow 0.5 air changes per hour, down to 100ppm above outdoors.
+        for (int i = 0; i < 7200 * 6; i ++)
+        {
+            decode(device, 420 + 1080 * Math.exp(-0.5 * i / 7200), random);
+        }
+
+        VentilationEstimator.Estimate estimate = estimator.getEstimate(device);
+        assertThat(estimate.isFinal(), is(true));
+        assertThat(estimate.getAirChangesPerHour(), closeTo(0.5, 0.02));
+        assertThat(estimates.get(estimates.size() - 1), sameInstance(estimate));
+
+        // Once unregistered, nothing more is estimated.
+        estimator.unregister(device);
+        assertThat(estimator.getEstimate(device), nullValue());
+    }
+
+
+    //-----------------------------------------------------------------------
+    private ExtechCO250 newDevice(VentilationEstimator estimator)
+    {
+        ExtechCO250 device = new ExtechCO250();
+        estimator.register(device);
+        device.addEventListener(new EventListener()
+        {
+            @Override
+            public void dataUpdateEvent()
+            {
+            }
+
+
+            @Override
+            public void airChangeRateEvent(VentilationEstimator.Estimate estimate)
+            {
+                estimates.add(estimate);
+            }
+        });
+
+        return device;
+    }
+
+
+    //-----------------------------------------------------------------------
+    /**
+     * Decodes a whole ppm reading with a little sensor noise, then moves the clock on by the 2Hz refresh period.
+     */
+    private void decode(ExtechCO250 device, double co2, Random random)
+    {
+        device.getDecoder().decodePacket(Packets.reading((int) Math.round(co2) + random.nextInt(5) - 2, 21, 50, 10, 15));
+        now[0] += 500;
+    }
+
+}